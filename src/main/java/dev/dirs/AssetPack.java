@@ -0,0 +1,336 @@
+package dev.dirs;
+
+import dev.dirs.impl.DirectorySync;
+import dev.dirs.impl.FileUtil;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** {@code AssetPack} is a read-only, memory-mapped archive of many small files, typically stored in a project's
+  * {@link ProjectDirectories#dataDir}, that replaces an open and a stat call per file with a single mapping.
+  * <p>
+  * A pack starts with a header, followed by an index sorted by name and the names themselves; the content of each
+  * entry starts at a multiple of the page size, so that entries can be handed to APIs that require aligned memory and
+  * untouched entries are never paged in. Entries are looked up by binary search over the mapped index and returned as
+  * slices of the mapping, without copying. Lookups take no locks, and a pack may be used by any number of threads.
+  * <p>
+  * All numbers are stored little-endian:
+  * <pre>
+  * header:  magic "DIRSPACK" (8 bytes), format version (4), entry count (4), alignment (4), reserved (44)
+  * index:   per entry: name offset (8), name length (4), reserved (4), content offset (8), content length (8)
+  * names:   UTF-8, referenced by the index
+  * content: per entry, starting at a multiple of the alignment; empty entries have content offset 0
+  * </pre>
+  * Packs are created with a {@link Writer}, which publishes the file atomically.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * ProjectDirectories dirs = ProjectDirectories.from("com", "Foo Corp", "Bar App");
+  * try (AssetPack assets = AssetPack.open(dirs, "ui")) {
+  *   ByteBuffer icon = assets.get("icons/save.png");
+  * }
+  * }</pre>
+  */
+public final class AssetPack implements AutoCloseable {
+
+  /** The default alignment of entry content, the common page size. */
+  public static final int PAGE_SIZE = 4096;
+
+  private static final byte[] MAGIC         = "DIRSPACK".getBytes(StandardCharsets.US_ASCII);
+  private static final int    VERSION       = 1;
+  private static final int    HEADER_SIZE   = 64;
+  private static final int    INDEX_ENTRY   = 32;
+  private static final String EXTENSION     = ".pack";
+
+  private static final ValueLayout.OfInt  INT  = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+  private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+  private final Path path;
+  private final Arena arena;
+  private final MemorySegment segment;
+  private final int count;
+
+  private AssetPack(Path path, Arena arena, MemorySegment segment, int count) {
+    this.path    = path;
+    this.arena   = arena;
+    this.segment = segment;
+    this.count   = count;
+  }
+
+  /** Opens the pack {@code <name>.pack} in the data directory of {@code projectDirectories}. */
+  public static AssetPack open(ProjectDirectories projectDirectories, String name) throws IOException {
+    return open(Paths.get(projectDirectories.dataDir, name + EXTENSION));
+  }
+
+  /** Maps the pack at {@code path} and validates its header and index.
+    *
+    * @throws IOException If the file cannot be mapped or is not a valid pack.
+    */
+  public static AssetPack open(Path path) throws IOException {
+    Arena arena = Arena.ofShared();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_SIZE)
+        throw new IOException(path + " is not an asset pack");
+      MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+      if (!Arrays.equals(segment.asSlice(0, MAGIC.length).toArray(ValueLayout.JAVA_BYTE), MAGIC))
+        throw new IOException(path + " is not an asset pack");
+      if (segment.get(INT, 8) != VERSION)
+        throw new IOException(path + " has unsupported format version " + segment.get(INT, 8));
+      int count = segment.get(INT, 12);
+      if (count < 0 || HEADER_SIZE + (long) count * INDEX_ENTRY > size)
+        throw new IOException(path + " has a damaged index");
+      int alignment = segment.get(INT, 16);
+      if (alignment <= 0 || Integer.bitCount(alignment) != 1)
+        throw new IOException(path + " has an invalid alignment " + alignment);
+      for (int i = 0; i < count; i++) {
+        long entry = HEADER_SIZE + (long) i * INDEX_ENTRY;
+        long nameOffset = segment.get(LONG, entry);
+        int nameLength = segment.get(INT, entry + 8);
+        long contentOffset = segment.get(LONG, entry + 16);
+        long contentLength = segment.get(LONG, entry + 24);
+        // Checked one by one, so that no sum can overflow; lookups rely on the lengths being non-negative.
+        if (nameOffset < 0 || nameLength < 0 || nameOffset > size - nameLength ||
+            contentOffset < 0 || contentLength < 0 || contentOffset > size - contentLength ||
+            (contentOffset & (alignment - 1)) != 0)
+          throw new IOException(path + " has a damaged index entry " + i);
+      }
+      return new AssetPack(path, arena, segment, count);
+    } catch (IOException | RuntimeException e) {
+      arena.close();
+      throw e;
+    }
+  }
+
+  /** Returns the number of entries. */
+  public int size() {
+    return count;
+  }
+
+  /** Returns {@code true} if the pack has an entry named {@code name}. */
+  public boolean contains(String name) {
+    return find(name) >= 0;
+  }
+
+  /** Returns the content of the entry named {@code name} as a read-only buffer backed by the mapping, or {@code null}.
+    * The buffer must not be used after the pack has been closed.
+    */
+  public ByteBuffer get(String name) {
+    MemorySegment content = segment(name);
+    return content != null ? content.asByteBuffer() : null;
+  }
+
+  /** Returns the content of the entry named {@code name} as a read-only slice of the mapping, or {@code null}.
+    * The segment becomes inaccessible once the pack has been closed.
+    */
+  public MemorySegment segment(String name) {
+    int index = find(name);
+    if (index < 0)
+      return null;
+    long entry = HEADER_SIZE + (long) index * INDEX_ENTRY;
+    return segment.asSlice(segment.get(LONG, entry + 16), segment.get(LONG, entry + 24));
+  }
+
+  /** Returns the names of all entries, in sorted order. */
+  public List<String> names() {
+    List<String> names = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++)
+      names.add(name(i));
+    return names;
+  }
+
+  /** Unmaps the pack. Buffers and segments obtained from it must no longer be used. */
+  @Override
+  public void close() {
+    arena.close();
+  }
+
+  @Override
+  public String toString() {
+    return "AssetPack (" + count + " entries): " + path;
+  }
+
+  /** Returns the index of the entry named {@code name}, comparing UTF-8 bytes in the mapping without decoding them. */
+  private int find(String name) {
+    byte[] key = name.getBytes(StandardCharsets.UTF_8);
+    int low = 0;
+    int high = count - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = compareName(middle, key);
+      if (comparison < 0)
+        low = middle + 1;
+      else if (comparison > 0)
+        high = middle - 1;
+      else
+        return middle;
+    }
+    return -1;
+  }
+
+  private int compareName(int index, byte[] key) {
+    long entry = HEADER_SIZE + (long) index * INDEX_ENTRY;
+    long offset = segment.get(LONG, entry);
+    int length = segment.get(INT, entry + 8);
+    int common = Math.min(length, key.length);
+    for (int i = 0; i < common; i++) {
+      int difference = (segment.get(ValueLayout.JAVA_BYTE, offset + i) & 0xFF) - (key[i] & 0xFF);
+      if (difference != 0)
+        return difference;
+    }
+    return length - key.length;
+  }
+
+  private String name(int index) {
+    long entry = HEADER_SIZE + (long) index * INDEX_ENTRY;
+    MemorySegment name = segment.asSlice(segment.get(LONG, entry), segment.get(INT, entry + 8));
+    return new String(name.toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+  }
+
+  /** Returns a writer creating a pack at {@code target}, aligning entries to {@link #PAGE_SIZE}. */
+  public static Writer writer(Path target) {
+    return writer(target, PAGE_SIZE);
+  }
+
+  /** Returns a writer creating a pack at {@code target}, aligning entries to {@code alignment} bytes.
+    * Smaller alignments trade the benefits of page alignment for a smaller file.
+    */
+  public static Writer writer(Path target, int alignment) {
+    if (alignment <= 0 || Integer.bitCount(alignment) != 1)
+      throw new IllegalArgumentException("alignment must be a power of two, but was " + alignment);
+    return new Writer(target, alignment);
+  }
+
+  /** Collects entries and writes them as a pack. Not thread-safe. */
+  public static final class Writer {
+
+    private final Path target;
+    private final int alignment;
+    private final TreeMap<byte[], Object> entries = new TreeMap<byte[], Object>(Arrays::compareUnsigned);
+
+    Writer(Path target, int alignment) {
+      this.target    = target;
+      this.alignment = alignment;
+    }
+
+    /** Adds an entry with the given content, replacing an earlier entry of the same name. */
+    public Writer add(String name, byte[] content) {
+      entries.put(name.getBytes(StandardCharsets.UTF_8), content.clone());
+      return this;
+    }
+
+    /** Adds an entry with the content of {@code file}, which is read when the pack is written. */
+    public Writer add(String name, Path file) {
+      entries.put(name.getBytes(StandardCharsets.UTF_8), file);
+      return this;
+    }
+
+    /** Adds every regular file below {@code dir}, named by its path relative to {@code dir} with {@code /} as separator. */
+    public Writer addTree(Path dir) throws IOException {
+      Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+          if (attributes.isRegularFile()) {
+            StringBuilder name = new StringBuilder();
+            for (Path part : dir.relativize(file))
+              name.append(name.length() == 0 ? "" : "/").append(part);
+            add(name.toString(), file);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+      return this;
+    }
+
+    /** Writes the pack to a temporary file, makes it durable, and renames it to the target, replacing any existing pack.
+      * Readers that have the previous pack open keep using it until they close it.
+      */
+    public void write() throws IOException {
+      EnsureDirectories.ensure(target.toAbsolutePath().getParent(), EnsureDirectories.PRIVATE);
+      Path temp = target.resolveSibling("." + target.getFileName() + "-" + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE));
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+        int count = entries.size();
+        long indexLength = (long) count * INDEX_ENTRY;
+        long namesOffset = HEADER_SIZE + indexLength;
+        long namesLength = 0;
+        for (byte[] name : entries.keySet())
+          namesLength += name.length;
+        // Both are buffered in memory.
+        if (indexLength > Integer.MAX_VALUE || namesLength > Integer.MAX_VALUE)
+          throw new IOException("too many entries for one asset pack: " + count);
+
+        ByteBuffer index = ByteBuffer.allocate((int) indexLength).order(ByteOrder.LITTLE_ENDIAN);
+        long nameOffset = namesOffset;
+        long contentOffset = align(namesOffset + namesLength);
+        ByteBuffer names = ByteBuffer.allocate((int) namesLength);
+        for (Map.Entry<byte[], Object> entry : entries.entrySet()) {
+          byte[] name = entry.getKey();
+          long length = writeContent(channel, entry.getValue(), contentOffset);
+          // Nothing is written for empty entries, so their offset may lie beyond the end of the file.
+          index.putLong(nameOffset).putInt(name.length).putInt(0).putLong(length == 0 ? 0 : contentOffset).putLong(length);
+          names.put(name);
+          nameOffset += name.length;
+          contentOffset = align(contentOffset + length);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(VERSION).putInt(count).putInt(alignment);
+        header.clear();
+        index.flip();
+        names.flip();
+        FileUtil.writeFully(channel, names, namesOffset);
+        FileUtil.writeFully(channel, index, HEADER_SIZE);
+        FileUtil.writeFully(channel, header, 0);
+        channel.force(true);
+      } catch (IOException | RuntimeException e) {
+        Files.deleteIfExists(temp);
+        throw e;
+      }
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      DirectorySync.sync(target.toAbsolutePath().getParent());
+    }
+
+    private long align(long offset) {
+      return (offset + alignment - 1) & -alignment;
+    }
+
+    private static long writeContent(FileChannel channel, Object content, long offset) throws IOException {
+      if (content instanceof byte[]) {
+        byte[] bytes = (byte[]) content;
+        FileUtil.writeFully(channel, ByteBuffer.wrap(bytes), offset);
+        return bytes.length;
+      }
+      try (FileChannel source = FileChannel.open((Path) content, StandardOpenOption.READ)) {
+        long size = source.size();
+        long copied = 0;
+        while (copied < size) {
+          long transferred = source.transferTo(copied, size - copied, channel.position(offset + copied));
+          if (transferred <= 0)
+            throw new IOException(content + " shrank while it was being packed");
+          copied += transferred;
+        }
+        return size;
+      }
+    }
+  }
+}
@@ -0,0 +1,326 @@
+package dev.dirs;
+
+import dev.dirs.impl.DirectorySync;
+import dev.dirs.impl.FileUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** {@code AtomicFiles} replaces files below a directory such as {@link ProjectDirectories#configDir} or
+  * {@link ProjectDirectories#dataDir} so that readers and crashes only ever observe the old or the new content.
+  * <p>
+  * Single files are replaced with {@link AtomicFiles#write}. Several files are published together with a
+  * {@link Transaction}: its content is staged and flushed first, then an intent record is made durable,
+  * and only then are the files renamed into place. If the process dies during the renames, the next
+  * transaction on the same root (or an explicit {@link AtomicFiles#recover}) completes them.
+  * <p>
+  * The directory {@code fsync} that makes a rename durable is shared between all commits to the same
+  * directory that are waiting at the same time, instead of being issued once per file.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * ProjectDirectories dirs = ProjectDirectories.from("com", "Foo Corp", "Bar App");
+  * try (AtomicFiles.Transaction tx = AtomicFiles.begin(dirs.configDir)) {
+  *   tx.write("settings.json", settings);
+  *   tx.write("keys/index.json", index);
+  *   tx.commit();
+  * }
+  * }</pre>
+  */
+public final class AtomicFiles {
+
+  private AtomicFiles() {}
+
+  static final String TRANSACTIONS_DIR = ".transactions";
+
+  private static final String INTENT_SUFFIX = ".intent";
+  private static final int    INTENT_MAGIC  = 0x41544658;
+  private static final long   PID           = ProcessHandle.current().pid();
+
+  private static final Set<Path> RECOVERED = ConcurrentHashMap.newKeySet();
+
+  /** Atomically replaces the content of {@code target} with {@code content}, returning once the new content is durable.
+    *
+    * @param target  The file to create or replace. Its parent directory is created if necessary.
+    * @param content The new content of the file.
+    */
+  public static void write(Path target, byte[] content) throws IOException {
+    Path dir = parentOf(target);
+    Files.createDirectories(dir);
+    Path temp = dir.resolve("." + target.getFileName() + "." + PID + "-" + randomSuffix() + ".tmp");
+    try {
+      writeAndForce(temp, new ByteArrayInputStream(content));
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    DirectorySync.sync(dir);
+  }
+
+  /** Begins a transaction publishing files below {@code root}, completing interrupted transactions of earlier processes first.
+    *
+    * @param root The directory that all paths of the transaction are relative to, for example {@link ProjectDirectories#dataDir}.
+    *
+    * @return A new {@code Transaction}, which must be committed or closed.
+    */
+  public static Transaction begin(String root) throws IOException {
+    return begin(Paths.get(root));
+  }
+
+  /** Begins a transaction publishing files below {@code root}, completing interrupted transactions of earlier processes first.
+    *
+    * @param root The directory that all paths of the transaction are relative to.
+    *
+    * @return A new {@code Transaction}, which must be committed or closed.
+    */
+  public static Transaction begin(Path root) throws IOException {
+    root = root.toAbsolutePath().normalize();
+    if (RECOVERED.add(root))
+      recover(root);
+    return new Transaction(root);
+  }
+
+  /** Completes the transactions below {@code root} that reached their commit point in a process that has since exited,
+    * and discards the staged files of those that did not.
+    *
+    * @param root The directory that was passed to {@link AtomicFiles#begin}.
+    */
+  public static void recover(Path root) throws IOException {
+    root = root.toAbsolutePath().normalize();
+    Path transactions = root.resolve(TRANSACTIONS_DIR);
+    if (!Files.isDirectory(transactions))
+      return;
+    List<Path> staged = new ArrayList<Path>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(transactions)) {
+      for (Path entry : stream)
+        if (Files.isDirectory(entry) && !isLive(entry.getFileName().toString()))
+          staged.add(entry);
+    }
+    for (Path stage : staged) {
+      Path intent = transactions.resolve(stage.getFileName() + INTENT_SUFFIX);
+      if (Files.exists(intent)) {
+        Map<String, String> renames = readIntent(intent);
+        publish(root, stage, renames, true);
+        Files.deleteIfExists(intent);
+      }
+      FileUtil.deleteRecursively(stage);
+    }
+  }
+
+  /** A set of files that become visible together when the transaction is committed.
+    * <p>
+    * Files may be staged from several threads at once. Closing a transaction that has not been committed discards it.
+    */
+  public static final class Transaction implements AutoCloseable {
+
+    private final Path root;
+    private final String id;
+    private final Path stage;
+    private final Map<String, String> renames = new LinkedHashMap<String, String>();
+    private boolean staged;
+    private boolean finished;
+
+    private Transaction(Path root) {
+      this.root  = root;
+      this.id    = PID + "-" + randomSuffix();
+      this.stage = root.resolve(TRANSACTIONS_DIR).resolve(id);
+    }
+
+    /** Stages {@code content} to be published at {@code path}, relative to the root of the transaction. */
+    public void write(String path, byte[] content) throws IOException {
+      copy(path, new ByteArrayInputStream(content));
+    }
+
+    /** Stages the remaining content of {@code in} to be published at {@code path}, relative to the root of the transaction.
+      * The stream is not closed.
+      */
+    public void copy(String path, InputStream in) throws IOException {
+      Path target = resolve(path);
+      String relative = root.relativize(target).toString();
+      String stagedName;
+      synchronized (this) {
+        ensureActive();
+        if (!staged) {
+          Files.createDirectories(stage);
+          staged = true;
+        }
+        stagedName = Integer.toString(renames.size());
+        renames.put(stagedName, relative);
+      }
+      writeAndForce(stage.resolve(stagedName), in);
+    }
+
+    /** Publishes all staged files, returning once all of them are durable under their final names.
+      * <p>
+      * Must only be called after all calls staging files have returned.
+      */
+    public void commit() throws IOException {
+      Map<String, String> snapshot;
+      synchronized (this) {
+        ensureActive();
+        finished = true;
+        snapshot = new LinkedHashMap<String, String>(renames);
+      }
+      if (snapshot.isEmpty())
+        return;
+      Path transactions = stage.getParent();
+      Path intent = transactions.resolve(id + INTENT_SUFFIX);
+      try {
+        DirectorySync.sync(stage);
+        writeIntent(intent, snapshot);
+        DirectorySync.sync(transactions);
+      } catch (IOException | RuntimeException e) {
+        Files.deleteIfExists(intent);
+        FileUtil.deleteRecursively(stage);
+        throw e;
+      }
+      // From here on the transaction is committed: a crash is repaired by recover().
+      publish(root, stage, snapshot, false);
+      Files.delete(intent);
+      FileUtil.deleteRecursively(stage);
+    }
+
+    /** Discards the transaction unless it has been committed. */
+    @Override
+    public void close() throws IOException {
+      synchronized (this) {
+        if (finished)
+          return;
+        finished = true;
+      }
+      if (staged)
+        FileUtil.deleteRecursively(stage);
+    }
+
+    private Path resolve(String path) {
+      Path target = root.resolve(path).normalize();
+      if (!target.startsWith(root) || target.equals(root) || target.startsWith(root.resolve(TRANSACTIONS_DIR)))
+        throw new IllegalArgumentException("'" + path + "' does not denote a file below " + root);
+      return target;
+    }
+
+    private void ensureActive() {
+      if (finished)
+        throw new IllegalStateException("transaction has already been committed or closed");
+    }
+  }
+
+  private static void publish(Path root, Path stage, Map<String, String> renames, boolean recovering) throws IOException {
+    Set<Path> dirs = new LinkedHashSet<Path>();
+    for (Map.Entry<String, String> rename : renames.entrySet()) {
+      Path source = stage.resolve(rename.getKey());
+      Path target = root.resolve(rename.getValue());
+      Path dir = parentOf(target);
+      if (dirs.add(dir))
+        createDirectories(dir, dirs);
+      try {
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (NoSuchFileException e) {
+        // Already moved before the interrupted process died.
+        if (!recovering)
+          throw e;
+      }
+    }
+    for (Path dir : dirs)
+      DirectorySync.sync(dir);
+  }
+
+  /** Creates {@code dir} and its missing parents, adding the parents of created directories to the set of directories to flush. */
+  private static void createDirectories(Path dir, Set<Path> dirs) throws IOException {
+    Path existing = dir;
+    while (existing != null && !Files.isDirectory(existing))
+      existing = existing.getParent();
+    if (existing == dir)
+      return;
+    Files.createDirectories(dir);
+    for (Path created = dir; created != null && !created.equals(existing); created = created.getParent())
+      dirs.add(created.getParent());
+  }
+
+  private static void writeAndForce(Path file, InputStream in) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      OutputStream out = Channels.newOutputStream(channel);
+      in.transferTo(out);
+      out.flush();
+      channel.force(false);
+    }
+  }
+
+  private static void writeIntent(Path intent, Map<String, String> renames) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(INTENT_MAGIC);
+    out.writeInt(renames.size());
+    for (Map.Entry<String, String> rename : renames.entrySet()) {
+      out.writeUTF(rename.getKey());
+      out.writeUTF(rename.getValue());
+    }
+    out.flush();
+    Path temp = intent.resolveSibling(intent.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      FileUtil.writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()), 0);
+      channel.force(false);
+    }
+    Files.move(temp, intent, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static Map<String, String> readIntent(Path intent) throws IOException {
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(intent))) {
+      if (in.readInt() != INTENT_MAGIC)
+        throw new IOException(intent + " is not a transaction intent");
+      int count = in.readInt();
+      Map<String, String> renames = new LinkedHashMap<String, String>();
+      for (int i = 0; i < count; i++)
+        renames.put(in.readUTF(), in.readUTF());
+      return renames;
+    }
+  }
+
+  /** Returns {@code true} if the transaction {@code id} belongs to a process that is still running. */
+  private static boolean isLive(String id) {
+    int dash = id.indexOf('-');
+    if (dash <= 0)
+      return false;
+    try {
+      long pid = Long.parseLong(id.substring(0, dash));
+      return pid == PID || ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private static Path parentOf(Path target) {
+    Path parent = target.toAbsolutePath().getParent();
+    if (parent == null)
+      throw new IllegalArgumentException(target + " has no parent directory");
+    return parent;
+  }
+
+  private static String randomSuffix() {
+    return Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+  }
+}
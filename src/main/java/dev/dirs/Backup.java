@@ -0,0 +1,279 @@
+package dev.dirs;
+
+import dev.dirs.impl.ModificationTimes;
+import dev.dirs.impl.ParallelFiles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/** {@code Backup} streams a zip archive of a project's {@link ProjectDirectories#configDir}
+  * and {@link ProjectDirectories#dataDir} to an {@link OutputStream} or a channel.
+  * <p>
+  * The size and modification time of every archived file are kept in a manifest in the project's
+  * {@link ProjectDirectories#cacheDir}. An incremental backup only reads and archives files whose size or modification
+  * time differ from the manifest; files that were deleted since are listed in the {@value #DELETED_ENTRY} entry.
+  * Files modified too shortly before they were archived for their modification time to reveal a later change
+  * are archived again by the next backup.
+  * Every archive ends with a {@value #MANIFEST_ENTRY} entry describing the complete state at the time of the backup.
+  * If the manifest is lost, which is allowed for anything in the cache directory, the next backup is a full one.
+  * <p>
+  * The trees are walked in parallel. The cache and runtime directories are skipped where they are nested in the
+  * backed-up directories, as are directories tagged with a {@code CACHEDIR.TAG} file following the
+  * <a href="https://bford.info/cachedir/">Cache Directory Tagging Specification</a>.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * ProjectDirectories dirs = ProjectDirectories.from("com", "Foo Corp", "Bar App");
+  * try (OutputStream out = Files.newOutputStream(target.resolve("bar-app-" + LocalDate.now() + ".zip"))) {
+  *   Backup.write(dirs, out, true);
+  * }
+  * }</pre>
+  */
+public final class Backup {
+
+  private Backup() {}
+
+  /** The name of the archive entry listing the state of all backed-up files. */
+  public static final String MANIFEST_ENTRY = ".backup/manifest";
+
+  /** The name of the archive entry listing the files deleted since the previous backup. */
+  public static final String DELETED_ENTRY = ".backup/deleted";
+
+  private static final String CACHEDIR_TAG = "CACHEDIR.TAG";
+
+  /** The outcome of a backup. */
+  public static final class Result {
+
+    /** The number of files written to the archive. */
+    public final long filesWritten;
+
+    /** The number of uncompressed bytes written to the archive. */
+    public final long bytesWritten;
+
+    /** The number of files skipped because they had not changed since the previous backup. */
+    public final long filesUnchanged;
+
+    /** The archive names of the files deleted since the previous backup. */
+    public final List<String> deleted;
+
+    Result(long filesWritten, long bytesWritten, long filesUnchanged, List<String> deleted) {
+      this.filesWritten   = filesWritten;
+      this.bytesWritten   = bytesWritten;
+      this.filesUnchanged = filesUnchanged;
+      this.deleted        = Collections.unmodifiableList(deleted);
+    }
+
+    @Override
+    public String toString() {
+      return "Backup.Result(" + filesWritten + " files written, " + bytesWritten + " bytes, " +
+          filesUnchanged + " unchanged, " + deleted.size() + " deleted)";
+    }
+  }
+
+  /** Writes a backup of the config and data directories of {@code projectDirectories} to {@code out}, which is not closed.
+    *
+    * @param projectDirectories The project to back up.
+    * @param out                The stream receiving the zip archive.
+    * @param incremental        Whether to skip files that have not changed since the previous backup.
+    *
+    * @return The outcome of the backup.
+    */
+  public static Result write(ProjectDirectories projectDirectories, OutputStream out, boolean incremental) throws IOException {
+    Map<String, Path> roots = new LinkedHashMap<String, Path>();
+    roots.put("config", Paths.get(projectDirectories.configDir));
+    // On macOS, the config and data directories are the same.
+    if (!projectDirectories.dataDir.equals(projectDirectories.configDir))
+      roots.put("data", Paths.get(projectDirectories.dataDir));
+    Set<Path> excluded = new HashSet<Path>();
+    excluded.add(Paths.get(projectDirectories.cacheDir).toAbsolutePath());
+    if (projectDirectories.runtimeDir != null)
+      excluded.add(Paths.get(projectDirectories.runtimeDir).toAbsolutePath());
+    Path manifest = Paths.get(projectDirectories.cacheDir, "backup", "manifest");
+    return write(roots, excluded, manifest, out, incremental);
+  }
+
+  /** Writes a backup of the config and data directories of {@code projectDirectories} to {@code channel}, which is not closed.
+    *
+    * @see Backup#write(ProjectDirectories, OutputStream, boolean)
+    */
+  public static Result write(ProjectDirectories projectDirectories, WritableByteChannel channel, boolean incremental) throws IOException {
+    return write(projectDirectories, Channels.newOutputStream(channel), incremental);
+  }
+
+  static Result write(Map<String, Path> roots, Set<Path> excluded, Path manifestFile, OutputStream out, boolean incremental) throws IOException {
+    Map<String, FileState> previous = incremental ? readManifest(manifestFile) : Collections.<String, FileState>emptyMap();
+    long now = System.currentTimeMillis();
+    Map<String, Scanned> scanned = scan(roots, excluded);
+
+    Map<String, FileState> current = new TreeMap<String, FileState>();
+    long filesWritten = 0;
+    long bytesWritten = 0;
+    long filesUnchanged = 0;
+    ZipOutputStream zip = new ZipOutputStream(out);
+    byte[] buffer = new byte[64 * 1024];
+    for (Map.Entry<String, Scanned> entry : scanned.entrySet()) {
+      Scanned file = entry.getValue();
+      FileState before = previous.get(entry.getKey());
+      if (before != null && before.size == file.size && ModificationTimes.isCurrent(before.modified, file.modified)) {
+        current.put(entry.getKey(), before);
+        filesUnchanged++;
+        continue;
+      }
+      ZipEntry zipEntry = new ZipEntry(entry.getKey());
+      zipEntry.setLastModifiedTime(FileTime.fromMillis(file.modified));
+      long size = 0;
+      try (InputStream in = Files.newInputStream(file.path)) {
+        zip.putNextEntry(zipEntry);
+        for (int n; (n = in.read(buffer)) > 0; size += n)
+          zip.write(buffer, 0, n);
+        zip.closeEntry();
+      } catch (NoSuchFileException e) {
+        // Deleted after the walk; the entry has not been started.
+        continue;
+      }
+      current.put(entry.getKey(), new FileState(size, ModificationTimes.record(file.modified, now)));
+      filesWritten++;
+      bytesWritten += size;
+    }
+
+    List<String> deleted = new ArrayList<String>();
+    for (String name : previous.keySet())
+      if (!current.containsKey(name))
+        deleted.add(name);
+    if (incremental) {
+      zip.putNextEntry(new ZipEntry(DELETED_ENTRY));
+      for (String name : deleted)
+        zip.write((name + "\n").getBytes(StandardCharsets.UTF_8));
+      zip.closeEntry();
+    }
+    byte[] manifest = formatManifest(current);
+    zip.putNextEntry(new ZipEntry(MANIFEST_ENTRY));
+    zip.write(manifest);
+    zip.closeEntry();
+    // Finished rather than closed, which would close the caller's stream.
+    zip.finish();
+    zip.flush();
+
+    // Only recorded once the archive has been written completely, so a failed backup is repeated in full.
+    EnsureDirectories.ensure(manifestFile.getParent(), EnsureDirectories.PRIVATE);
+    AtomicFiles.write(manifestFile, manifest);
+    return new Result(filesWritten, bytesWritten, filesUnchanged, deleted);
+  }
+
+  /** Walks all roots in parallel, returning the regular files below them sorted by archive name. */
+  private static Map<String, Scanned> scan(Map<String, Path> roots, Set<Path> excluded) throws IOException {
+    Map<String, Scanned> scanned = new ConcurrentSkipListMap<String, Scanned>();
+    List<Directory> dirs = new ArrayList<Directory>();
+    for (Map.Entry<String, Path> root : roots.entrySet())
+      if (Files.isDirectory(root.getValue()))
+        dirs.add(new Directory(root.getKey(), root.getValue().toAbsolutePath()));
+    ParallelFiles.walk(dirs, (dir, children) -> {
+      if (excluded.contains(dir.path) || Files.exists(dir.path.resolve(CACHEDIR_TAG)))
+        return;
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.path)) {
+        for (Path child : stream) {
+          String childName = dir.name + "/" + child.getFileName();
+          BasicFileAttributes attributes;
+          try {
+            attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          } catch (NoSuchFileException e) {
+            continue;
+          }
+          if (attributes.isDirectory())
+            children.add(new Directory(childName, child));
+          else if (attributes.isRegularFile())
+            scanned.put(childName, new Scanned(child, attributes.size(), attributes.lastModifiedTime().toMillis()));
+        }
+      } catch (NoSuchFileException e) {
+        // Deleted during the walk.
+      }
+    });
+    return scanned;
+  }
+
+  /** Reads the manifest, one file per line: size, recorded modification time in milliseconds and archive name. */
+  private static Map<String, FileState> readManifest(Path file) throws IOException {
+    Map<String, FileState> manifest = new TreeMap<String, FileState>();
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      return manifest;
+    }
+    for (String line : lines) {
+      String[] fields = line.split(" ", 3);
+      if (fields.length != 3)
+        continue;
+      try {
+        manifest.put(fields[2], new FileState(Long.parseLong(fields[0]), Long.parseLong(fields[1])));
+      } catch (NumberFormatException e) {
+        // A damaged line only causes the file to be backed up again.
+      }
+    }
+    return manifest;
+  }
+
+  private static byte[] formatManifest(Map<String, FileState> manifest) {
+    StringBuilder buf = new StringBuilder();
+    for (Map.Entry<String, FileState> entry : manifest.entrySet()) {
+      FileState state = entry.getValue();
+      buf.append(state.size).append(' ').append(state.modified).append(' ').append(entry.getKey()).append('\n');
+    }
+    return buf.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static final class Directory {
+    final String name;
+    final Path path;
+
+    Directory(String name, Path path) {
+      this.name = name;
+      this.path = path;
+    }
+  }
+
+  private static final class Scanned {
+    final Path path;
+    final long size;
+    final long modified;
+
+    Scanned(Path path, long size, long modified) {
+      this.path     = path;
+      this.size     = size;
+      this.modified = modified;
+    }
+  }
+
+  private static final class FileState {
+    final long size;
+    final long modified;
+
+    FileState(long size, long modified) {
+      this.size     = size;
+      this.modified = modified;
+    }
+  }
+}
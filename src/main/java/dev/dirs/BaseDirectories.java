@@ -4,6 +4,9 @@ import dev.dirs.impl.Linux;
 import dev.dirs.impl.Util;
 import dev.dirs.impl.Windows;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /** {@code BaseDirectories} provides paths of user-invisible standard directories, following the conventions of the operating system the library is running on.
   * <p>
   * To compute the location of cache, config or data directories for individual projects or applications, use {@link ProjectDirectories} instead.
@@ -220,7 +223,7 @@ public final class BaseDirectories {
     * </tr>
     * <tr>
     * <td>Linux/BSD</td>
-    * <td>{@code $XDG_RUNTIME_DIR}</td>
+    * <td>{@code $XDG_RUNTIME_DIR}, or else {@code /run/user/$UID} or {@code /dev/shm/runtime-$UID} if private and on tmpfs</td>
     * <td>/run/user/1001/</td>
     * </tr>
     * <tr>
@@ -237,6 +240,36 @@ public final class BaseDirectories {
     */
   public final String runtimeDir;
 
+  /** Returns the path to the user's state directory.
+    * <p>
+    * The state directory contains data that should persist between restarts, but that is not important or portable
+    * enough to be backed up along with {@link BaseDirectories#dataDir}, such as logs, history and recently used files.
+    * <br><br>
+    * <table border="1" cellpadding="1" cellspacing="0">
+    * <tr>
+    * <th align="left">Platform</th>
+    * <th align="left">Value</th>
+    * <th align="left">Example</th>
+    * </tr>
+    * <tr>
+    * <td>Linux/BSD</td>
+    * <td>{@code $XDG_STATE_HOME} or {@code $HOME}/.local/state</td>
+    * <td>/home/alice/.local/state</td>
+    * </tr>
+    * <tr>
+    * <td>macOS</td>
+    * <td>–</td>
+    * <td>{@code null}</td>
+    * </tr>
+    * <tr>
+    * <td>Windows</td>
+    * <td>–</td>
+    * <td>{@code null}</td>
+    * </tr>
+    * </table>
+    */
+  public final String stateDir;
+
   /** Creates a new {@code BaseDirectories} instance.
     * <p>
     * The instance is an immutable snapshot of the state of the system at the time this method is invoked.
@@ -263,6 +296,7 @@ public final class BaseDirectories {
         executableDir = Linux.executableDir(homeDir, dataDir);
         preferenceDir = configDir;
         runtimeDir    = Linux.runtimeDir(null);
+        stateDir      = Util.defaultIfNullOrEmpty(System.getenv("XDG_STATE_HOME"),  homeDir, "/.local/state");
         break;
       case Constants.MAC:
         homeDir       = System.getProperty("user.home");
@@ -273,6 +307,7 @@ public final class BaseDirectories {
         executableDir = null;
         preferenceDir = homeDir + "/Library/Preferences/";
         runtimeDir    = null;
+        stateDir      = null;
         break;
       case Constants.WIN:
         homeDir       = Windows.getProfileDir();
@@ -283,12 +318,28 @@ public final class BaseDirectories {
         executableDir = null;
         preferenceDir = configDir;
         runtimeDir    = null;
+        stateDir      = null;
         break;
       default:
         throw new UnsupportedOperatingSystemException("Base directories are not supported on " + Constants.operatingSystemName);
     }
   }
 
+  /** Returns the directories of this instance by field name, in declaration order. Values may be {@code null}. */
+  Map<String, String> directories() {
+    Map<String, String> dirs = new LinkedHashMap<String, String>();
+    dirs.put("homeDir",       homeDir);
+    dirs.put("cacheDir",      cacheDir);
+    dirs.put("configDir",     configDir);
+    dirs.put("dataDir",       dataDir);
+    dirs.put("dataLocalDir",  dataLocalDir);
+    dirs.put("executableDir", executableDir);
+    dirs.put("preferenceDir", preferenceDir);
+    dirs.put("runtimeDir",    runtimeDir);
+    dirs.put("stateDir",      stateDir);
+    return dirs;
+  }
+
   @Override
   public String toString() {
     return "BaseDirectories (" + Constants.operatingSystemName + "):\n" +
@@ -299,7 +350,8 @@ public final class BaseDirectories {
         "  dataLocalDir  = '" + dataLocalDir   + "'\n" +
         "  executableDir = '" + executableDir  + "'\n" +
         "  preferenceDir = '" + preferenceDir + "'\n" +
-        "  runtimeDir    = '" + runtimeDir     + "'\n";
+        "  runtimeDir    = '" + runtimeDir     + "'\n" +
+        "  stateDir      = '" + stateDir       + "'\n";
   }
 
   @Override
@@ -325,6 +377,8 @@ public final class BaseDirectories {
       return false;
     if (runtimeDir     != null ? !runtimeDir    .equals(that.runtimeDir)     : that.runtimeDir     != null)
       return false;
+    if (stateDir      != null ? !stateDir     .equals(that.stateDir)      : that.stateDir      != null)
+      return false;
     return true;
   }
 
@@ -339,6 +393,7 @@ public final class BaseDirectories {
     result = 31 * result + (executableDir != null ? executableDir.hashCode() : 0);
     result = 31 * result + (preferenceDir != null ? preferenceDir.hashCode() : 0);
     result = 31 * result + (runtimeDir    != null ? runtimeDir   .hashCode() : 0);
+    result = 31 * result + (stateDir      != null ? stateDir     .hashCode() : 0);
     return result;
   }
 }
@@ -0,0 +1,258 @@
+package dev.dirs;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** {@code DirectoryHealth} checks that the directories computed by {@link BaseDirectories}, {@link ProjectDirectories}
+  * and {@link UserDirectories} exist, are writable and have space available.
+  * <p>
+  * All directories are probed in parallel on virtual threads, so a slow network home directory delays the report
+  * by one round trip instead of one per directory. Probe results are cached per path for {@link #DEFAULT_MAX_AGE}
+  * (or the given maximum age), so repeated checks at startup or from a status page cost nothing.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * DirectoryHealth.Report report = DirectoryHealth.check(ProjectDirectories.from("com", "Foo Corp", "Bar App"));
+  * if (!report.isHealthy())
+  *   log.warn(report.toString());
+  * }</pre>
+  */
+public final class DirectoryHealth {
+
+  private DirectoryHealth() {}
+
+  /** The default time for which probe results are reused. */
+  public static final Duration DEFAULT_MAX_AGE = Duration.ofSeconds(30);
+
+  private static final ConcurrentHashMap<Path, Probe> CACHE = new ConcurrentHashMap<Path, Probe>();
+
+  /** Checks the directories of {@code baseDirectories}, reusing probe results younger than {@link #DEFAULT_MAX_AGE}. */
+  public static Report check(BaseDirectories baseDirectories) {
+    return check(baseDirectories.directories(), DEFAULT_MAX_AGE);
+  }
+
+  /** Checks the directories of {@code projectDirectories}, reusing probe results younger than {@link #DEFAULT_MAX_AGE}. */
+  public static Report check(ProjectDirectories projectDirectories) {
+    return check(projectDirectories.directories(), DEFAULT_MAX_AGE);
+  }
+
+  /** Checks the directories of {@code userDirectories}, reusing probe results younger than {@link #DEFAULT_MAX_AGE}. */
+  public static Report check(UserDirectories userDirectories) {
+    return check(userDirectories.directories(), DEFAULT_MAX_AGE);
+  }
+
+  /** Checks the directories of {@code baseDirectories}, reusing probe results younger than {@code maxAge}.
+    * A zero {@code maxAge} forces all directories to be probed again.
+    */
+  public static Report check(BaseDirectories baseDirectories, Duration maxAge) {
+    return check(baseDirectories.directories(), maxAge);
+  }
+
+  /** Checks the directories of {@code projectDirectories}, reusing probe results younger than {@code maxAge}.
+    * A zero {@code maxAge} forces all directories to be probed again.
+    */
+  public static Report check(ProjectDirectories projectDirectories, Duration maxAge) {
+    return check(projectDirectories.directories(), maxAge);
+  }
+
+  /** Checks the directories of {@code userDirectories}, reusing probe results younger than {@code maxAge}.
+    * A zero {@code maxAge} forces all directories to be probed again.
+    */
+  public static Report check(UserDirectories userDirectories, Duration maxAge) {
+    return check(userDirectories.directories(), maxAge);
+  }
+
+  /** Discards all cached probe results. */
+  public static void invalidate() {
+    CACHE.clear();
+  }
+
+  static Report check(Map<String, String> directories, Duration maxAge) {
+    long now = System.nanoTime();
+    Map<Path, Future<Probe>> pending = new LinkedHashMap<Path, Future<Probe>>();
+    Map<String, Path> paths = new LinkedHashMap<String, Path>();
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (Map.Entry<String, String> dir : directories.entrySet()) {
+        if (dir.getValue() == null)
+          continue;
+        final Path path = Paths.get(dir.getValue()).toAbsolutePath().normalize();
+        paths.put(dir.getKey(), path);
+        if (pending.containsKey(path))
+          continue;
+        Probe cached = CACHE.get(path);
+        if (cached != null && now - cached.probedAt < maxAge.toNanos())
+          pending.put(path, CompletableFuture.completedFuture(cached));
+        else
+          pending.put(path, executor.submit(() -> probe(path)));
+      }
+    }
+    Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    for (Map.Entry<String, Path> dir : paths.entrySet()) {
+      Probe probe;
+      try {
+        probe = pending.get(dir.getValue()).get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        probe = new Probe(dir.getValue(), e);
+      } catch (ExecutionException e) {
+        probe = new Probe(dir.getValue(), e.getCause());
+      }
+      CACHE.put(dir.getValue(), probe);
+      entries.put(dir.getKey(), probe.entry);
+    }
+    return new Report(entries);
+  }
+
+  private static Probe probe(Path path) {
+    try {
+      if (!Files.isDirectory(path))
+        return new Probe(new Entry(path, false, false, null, null, null, -1, -1, null));
+      boolean writable = Files.isWritable(path);
+      String owner = null;
+      String permissions = null;
+      PosixFileAttributeView posix = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+      if (posix != null) {
+        PosixFileAttributes attributes = posix.readAttributes();
+        owner = attributes.owner().getName();
+        permissions = PosixFilePermissions.toString(attributes.permissions());
+      } else {
+        UserPrincipal principal = Files.getOwner(path);
+        owner = principal.getName();
+      }
+      FileStore store = Files.getFileStore(path);
+      return new Probe(new Entry(path, true, writable, owner, permissions,
+          store.name() + " (" + store.type() + ")", store.getUsableSpace(), store.getTotalSpace(), null));
+    } catch (IOException | RuntimeException e) {
+      return new Probe(path, e);
+    }
+  }
+
+  /** The result of a health check, mapping field names such as {@code "cacheDir"} to the state of the directory.
+    * Fields whose value is {@code null} on the current platform are omitted.
+    */
+  public static final class Report {
+
+    /** The state of each checked directory, by field name, in declaration order. */
+    public final Map<String, Entry> entries;
+
+    Report(Map<String, Entry> entries) {
+      this.entries = Collections.unmodifiableMap(entries);
+    }
+
+    /** Returns {@code true} if every checked directory exists, is writable and could be probed without error. */
+    public boolean isHealthy() {
+      for (Entry entry : entries.values())
+        if (!entry.isHealthy())
+          return false;
+      return true;
+    }
+
+    /** Returns the names of the directories that are missing, not writable, or could not be probed. */
+    public List<String> problems() {
+      List<String> problems = new ArrayList<String>();
+      for (Map.Entry<String, Entry> entry : entries.entrySet())
+        if (!entry.getValue().isHealthy())
+          problems.add(entry.getKey());
+      return problems;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder buf = new StringBuilder("DirectoryHealth (" + Constants.operatingSystemName + "):\n");
+      for (Map.Entry<String, Entry> entry : entries.entrySet())
+        buf.append("  ").append(entry.getKey()).append(" = ").append(entry.getValue()).append('\n');
+      return buf.toString();
+    }
+  }
+
+  /** The state of a single directory at the time it was probed. */
+  public static final class Entry {
+
+    /** The absolute path of the directory. */
+    public final Path path;
+
+    /** Whether the directory exists. */
+    public final boolean exists;
+
+    /** Whether the current user may create files in the directory. */
+    public final boolean writable;
+
+    /** The name of the directory's owner, or {@code null} if it does not exist. */
+    public final String owner;
+
+    /** The POSIX permissions of the directory, for example {@code rwx------}, or {@code null} if not available. */
+    public final String permissions;
+
+    /** The name and type of the file store backing the directory, or {@code null} if it does not exist. */
+    public final String fileStore;
+
+    /** The number of bytes available to this JVM on the file store, or {@code -1} if unknown. */
+    public final long usableSpace;
+
+    /** The size of the file store in bytes, or {@code -1} if unknown. */
+    public final long totalSpace;
+
+    /** The error that prevented probing the directory, or {@code null}. */
+    public final Throwable error;
+
+    Entry(Path path, boolean exists, boolean writable, String owner, String permissions,
+          String fileStore, long usableSpace, long totalSpace, Throwable error) {
+      this.path        = path;
+      this.exists      = exists;
+      this.writable    = writable;
+      this.owner       = owner;
+      this.permissions = permissions;
+      this.fileStore   = fileStore;
+      this.usableSpace = usableSpace;
+      this.totalSpace  = totalSpace;
+      this.error       = error;
+    }
+
+    /** Returns {@code true} if the directory exists, is writable and could be probed without error. */
+    public boolean isHealthy() {
+      return exists && writable && error == null;
+    }
+
+    @Override
+    public String toString() {
+      if (error != null)
+        return "'" + path + "' (error: " + error + ")";
+      if (!exists)
+        return "'" + path + "' (missing)";
+      return "'" + path + "' (" + (writable ? "writable" : "read-only") + ", owner " + owner +
+          (permissions != null ? ", " + permissions : "") + ", " + fileStore + ", " + usableSpace + " of " + totalSpace + " bytes free)";
+    }
+  }
+
+  private static final class Probe {
+    final long probedAt = System.nanoTime();
+    final Entry entry;
+
+    Probe(Entry entry) {
+      this.entry = entry;
+    }
+
+    Probe(Path path, Throwable error) {
+      this(new Entry(path, false, false, null, null, null, -1, -1, error));
+    }
+  }
+}
@@ -0,0 +1,301 @@
+package dev.dirs;
+
+import dev.dirs.impl.ModificationTimes;
+import dev.dirs.impl.ParallelFiles;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** {@code DiskUsage} reports how much space a project takes up in its cache, config, data and state directories,
+  * using an index persisted in its {@link ProjectDirectories#cacheDir}.
+  * <p>
+  * The index records, for each directory, its modification time and the size and number of the files directly
+  * inside it. An {@linkplain #update update} only lists directories whose modification time has changed, and reuses
+  * the recorded totals of all others; changed directories are listed in parallel. {@link #cached} answers from the
+  * index without touching the file system. The index is kept in its own directory, which is not scanned, so that
+  * writing it does not change the modification time of {@link ProjectDirectories#cacheDir}.
+  * <p>
+  * A directory's modification time changes when entries are added, removed or renamed in it, but not when a file in it
+  * is rewritten in place. Files growing in place are therefore only accounted for by a {@link #rescan}, or once their
+  * directory changes for another reason.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * DiskUsage.Report usage = DiskUsage.update(ProjectDirectories.from("com", "Foo Corp", "Bar App"));
+  * System.out.println(usage.bytes.get("cacheDir") + " of " + usage.totalBytes + " bytes are cache");
+  * }</pre>
+  */
+public final class DiskUsage {
+
+  private DiskUsage() {}
+
+  /** The name of the directory in {@link ProjectDirectories#cacheDir} holding the index. */
+  public static final String INDEX_DIRECTORY = "disk-usage";
+
+  private static final String[] DIRECTORIES = { "cacheDir", "configDir", "dataDir", "stateDir" };
+
+  /** Disk usage at the time of the last update. */
+  public static final class Report {
+
+    /** Bytes used per directory, keyed by field name such as {@code "cacheDir"}. Directories that are {@code null} on the current platform are absent. */
+    public final Map<String, Long> bytes;
+
+    /** Bytes used by all directories, counting directories that are the same on the current platform once. */
+    public final long totalBytes;
+
+    /** The number of files in all directories. */
+    public final long files;
+
+    /** The number of directories that were listed by the update that produced this report. */
+    public final long listedDirectories;
+
+    /** The number of directories whose recorded totals were reused by the update that produced this report. */
+    public final long reusedDirectories;
+
+    Report(Map<String, Long> bytes, long totalBytes, long files, long listedDirectories, long reusedDirectories) {
+      this.bytes             = Collections.unmodifiableMap(bytes);
+      this.totalBytes        = totalBytes;
+      this.files             = files;
+      this.listedDirectories = listedDirectories;
+      this.reusedDirectories = reusedDirectories;
+    }
+
+    @Override
+    public String toString() {
+      return "DiskUsage.Report(" + totalBytes + " bytes in " + files + " files: " + bytes + ")";
+    }
+  }
+
+  /** Returns the usage recorded by the last update, without accessing any directory, or updates the index if there is none. */
+  public static Report cached(ProjectDirectories projectDirectories) throws IOException {
+    return cached(roots(projectDirectories), indexFile(projectDirectories));
+  }
+
+  static Report cached(Map<String, Path> roots, Path indexFile) throws IOException {
+    Map<String, Node> index = readIndex(indexFile);
+    if (index.isEmpty())
+      return update(roots, indexFile, false);
+    return report(roots, index, 0, 0);
+  }
+
+  /** Updates the index, listing only directories that have changed since the last update, and returns the new usage. */
+  public static Report update(ProjectDirectories projectDirectories) throws IOException {
+    return update(roots(projectDirectories), indexFile(projectDirectories), false);
+  }
+
+  /** Rebuilds the index from scratch, listing every directory, and returns the new usage. */
+  public static Report rescan(ProjectDirectories projectDirectories) throws IOException {
+    return update(roots(projectDirectories), indexFile(projectDirectories), true);
+  }
+
+  static Report update(Map<String, Path> roots, Path indexFile, boolean full) throws IOException {
+    Map<String, Node> previous = full ? Collections.<String, Node>emptyMap() : readIndex(indexFile);
+    // Created before the walk, so that creating it does not change a directory that has just been recorded.
+    EnsureDirectories.ensure(indexFile.getParent(), EnsureDirectories.PRIVATE);
+    Scan scan = new Scan(previous, indexFile.getParent(), System.currentTimeMillis());
+    List<Directory> dirs = new ArrayList<Directory>();
+    for (Path root : new LinkedHashSet<Path>(roots.values()))
+      dirs.add(new Directory(root, root.toString()));
+    ParallelFiles.walk(dirs, scan);
+
+    AtomicFiles.write(indexFile, formatIndex(scan.index));
+    return report(roots, scan.index, scan.listed.get(), scan.reused.get());
+  }
+
+  /** Scans directories, reusing the recorded totals of those whose modification time has not changed. */
+  private static final class Scan implements ParallelFiles.Visitor<Directory> {
+    final Map<String, Node> index = new ConcurrentHashMap<String, Node>();
+    final AtomicLong listed = new AtomicLong();
+    final AtomicLong reused = new AtomicLong();
+    private final Map<String, Node> previous;
+    private final Path indexDir;
+    private final long now;
+
+    Scan(Map<String, Node> previous, Path indexDir, long now) {
+      this.previous = previous;
+      this.indexDir = indexDir;
+      this.now      = now;
+    }
+
+    @Override
+    public void visit(Directory dir, List<Directory> children) {
+      long modified;
+      try {
+        BasicFileAttributes attributes = Files.readAttributes(dir.path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!attributes.isDirectory())
+          return;
+        modified = attributes.lastModifiedTime().toMillis();
+      } catch (IOException e) {
+        return;
+      }
+      Node old = previous.get(dir.key);
+      Node node;
+      if (old != null && ModificationTimes.isCurrent(old.modified, modified)) {
+        node = old;
+        reused.incrementAndGet();
+      } else {
+        node = list(dir.path, modified);
+        if (node == null)
+          return;
+        listed.incrementAndGet();
+      }
+      index.put(dir.key, node);
+      for (String child : node.children)
+        children.add(new Directory(dir.path.resolve(child), dir.key + "/" + child));
+    }
+
+    private Node list(Path dir, long modified) {
+      long bytes = 0;
+      long files = 0;
+      List<String> children = new ArrayList<String>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+        for (Path child : stream) {
+          BasicFileAttributes attributes;
+          try {
+            attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          } catch (NoSuchFileException e) {
+            continue;
+          }
+          if (attributes.isDirectory()) {
+            if (!child.equals(indexDir))
+              children.add(child.getFileName().toString());
+          } else {
+            bytes += attributes.size();
+            files++;
+          }
+        }
+      } catch (IOException e) {
+        return null;
+      }
+      return new Node(ModificationTimes.record(modified, now), bytes, files, children);
+    }
+  }
+
+  private static final class Directory {
+    final Path path;
+    final String key;
+
+    Directory(Path path, String key) {
+      this.path = path;
+      this.key  = key;
+    }
+  }
+
+  private static Report report(Map<String, Path> roots, Map<String, Node> index, long listed, long reused) {
+    Map<String, Long> bytes = new LinkedHashMap<String, Long>();
+    Map<Path, long[]> totals = new LinkedHashMap<Path, long[]>();
+    for (Map.Entry<String, Path> root : roots.entrySet()) {
+      long[] total = totals.get(root.getValue());
+      if (total == null) {
+        total = sum(index, root.getValue().toString());
+        totals.put(root.getValue(), total);
+      }
+      bytes.put(root.getKey(), total[0]);
+    }
+    long totalBytes = 0;
+    long files = 0;
+    for (long[] total : totals.values()) {
+      totalBytes += total[0];
+      files += total[1];
+    }
+    return new Report(bytes, totalBytes, files, listed, reused);
+  }
+
+  /** Returns the bytes and files below the directory {@code key}, following the children recorded in the index. */
+  private static long[] sum(Map<String, Node> index, String key) {
+    long[] total = new long[2];
+    List<String> pending = new ArrayList<String>();
+    pending.add(key);
+    while (!pending.isEmpty()) {
+      String current = pending.remove(pending.size() - 1);
+      Node node = index.get(current);
+      if (node == null)
+        continue;
+      total[0] += node.bytes;
+      total[1] += node.files;
+      for (String child : node.children)
+        pending.add(current + "/" + child);
+    }
+    return total;
+  }
+
+  private static Map<String, Path> roots(ProjectDirectories projectDirectories) {
+    Map<String, String> all = projectDirectories.directories();
+    Map<String, Path> roots = new LinkedHashMap<String, Path>();
+    for (String name : DIRECTORIES)
+      if (all.get(name) != null)
+        roots.put(name, Paths.get(all.get(name)).toAbsolutePath().normalize());
+    return roots;
+  }
+
+  private static Path indexFile(ProjectDirectories projectDirectories) {
+    return Paths.get(projectDirectories.cacheDir, INDEX_DIRECTORY, "index").toAbsolutePath().normalize();
+  }
+
+  /** Reads the index: one directory per line with its modification time, bytes, files, key and children, separated by NUL. */
+  private static Map<String, Node> readIndex(Path file) throws IOException {
+    Map<String, Node> index = new HashMap<String, Node>();
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      return index;
+    }
+    for (String line : lines) {
+      String[] fields = line.split("\0", -1);
+      if (fields.length < 4)
+        continue;
+      try {
+        List<String> children = new ArrayList<String>(fields.length - 4);
+        for (int i = 4; i < fields.length; i++)
+          children.add(fields[i]);
+        index.put(fields[3], new Node(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]), children));
+      } catch (NumberFormatException e) {
+        // The directory is listed again.
+      }
+    }
+    return index;
+  }
+
+  private static byte[] formatIndex(Map<String, Node> index) {
+    StringBuilder buf = new StringBuilder();
+    for (Map.Entry<String, Node> entry : index.entrySet()) {
+      Node node = entry.getValue();
+      buf.append(node.modified).append('\0').append(node.bytes).append('\0').append(node.files).append('\0').append(entry.getKey());
+      for (String child : node.children)
+        buf.append('\0').append(child);
+      buf.append('\n');
+    }
+    return buf.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static final class Node {
+    final long modified;
+    final long bytes;
+    final long files;
+    final List<String> children;
+
+    Node(long modified, long bytes, long files, List<String> children) {
+      this.modified = modified;
+      this.bytes    = bytes;
+      this.files    = files;
+      this.children = children;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package dev.dirs;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** {@code EnsureDirectories} creates the directories computed by this library before they are written to,
+  * and remembers which directories it has created or found, so that later calls for the same directory cost nothing.
+  * <p>
+  * Directories are created with mode {@code 0700} (on file systems supporting POSIX permissions), as required by
+  * the XDG Base Directory specification. Parent directories that are missing are created the same way.
+  * Existing directories are left untouched.
+  * <p>
+  * If a directory is deleted while the JVM is running, call {@link #forget} before ensuring it again.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * ProjectDirectories dirs = ProjectDirectories.from("com", "Foo Corp", "Bar App");
+  * EnsureDirectories.all(dirs);
+  * }</pre>
+  */
+public final class EnsureDirectories {
+
+  private EnsureDirectories() {}
+
+  /** The mode used for directories created by this class. */
+  public static final String PRIVATE = "rwx------";
+
+  private static final Set<Path> ENSURED = ConcurrentHashMap.newKeySet();
+
+  /** Creates all directories of {@code projectDirectories} that are not {@code null} on the current platform.
+    *
+    * @param projectDirectories The project whose cache, config, data, preference and runtime directories are created.
+    */
+  public static void all(ProjectDirectories projectDirectories) throws IOException {
+    for (Map.Entry<String, String> dir : projectDirectories.directories().entrySet())
+      if (dir.getValue() != null)
+        ensure(dir.getValue());
+  }
+
+  /** Creates {@code dir} and any missing parents with mode {@value #PRIVATE}, unless it is already known to exist.
+    *
+    * @param dir A directory path, for example {@link ProjectDirectories#cacheDir}.
+    *
+    * @return The absolute path of the directory.
+    */
+  public static Path ensure(String dir) throws IOException {
+    return ensure(Paths.get(dir), PRIVATE);
+  }
+
+  /** Creates {@code dir} and any missing parents with the given mode, unless it is already known to exist.
+    *
+    * @param dir         The directory to create.
+    * @param permissions The mode of created directories in the format of {@link PosixFilePermissions#fromString},
+    *                    for example {@code "rwx------"}. Ignored on file systems without POSIX permissions.
+    *
+    * @return The absolute path of the directory.
+    */
+  public static Path ensure(Path dir, String permissions) throws IOException {
+    Path absolute = dir.toAbsolutePath().normalize();
+    if (ENSURED.contains(absolute))
+      return absolute;
+
+    Deque<Path> missing = new ArrayDeque<Path>();
+    for (Path current = absolute; current != null && !ENSURED.contains(current); current = current.getParent()) {
+      if (Files.isDirectory(current))
+        break;
+      missing.push(current);
+    }
+    Set<PosixFilePermission> mode = PosixFilePermissions.fromString(permissions);
+    while (!missing.isEmpty())
+      create(missing.pop(), mode);
+    ENSURED.add(absolute);
+    return absolute;
+  }
+
+  /** Forgets that {@code dir} and everything below it have been ensured, for example after deleting them. */
+  public static void forget(Path dir) {
+    Path absolute = dir.toAbsolutePath().normalize();
+    ENSURED.removeIf(path -> path.startsWith(absolute));
+  }
+
+  private static void create(Path dir, Set<PosixFilePermission> mode) throws IOException {
+    boolean posix = Files.getFileStore(existingAncestor(dir)).supportsFileAttributeView("posix");
+    try {
+      if (posix) {
+        Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(mode));
+        // The requested mode was masked by the umask on creation.
+        Files.setPosixFilePermissions(dir, mode);
+      } else {
+        Files.createDirectory(dir);
+      }
+    } catch (FileAlreadyExistsException e) {
+      if (!Files.isDirectory(dir))
+        throw e;
+      // Created concurrently by another thread or process.
+    }
+  }
+
+  private static Path existingAncestor(Path dir) {
+    Path existing = dir.getParent();
+    while (existing != null && !Files.exists(existing))
+      existing = existing.getParent();
+    return existing != null ? existing : dir.getRoot();
+  }
+}
@@ -0,0 +1,212 @@
+package dev.dirs;
+
+import dev.dirs.impl.ModificationTimes;
+import dev.dirs.impl.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** {@code Executables} finds executables by name, like {@code which}, searching {@link BaseDirectories#executableDir}
+  * first and then the directories in {@code PATH}.
+  * <p>
+  * The names of the files in each searched directory are cached, and a directory is only listed again once its
+  * modification time has changed; a lookup therefore costs one {@code stat} per searched directory, plus one to
+  * confirm that the file found is executable. {@link #findAll} resolves several names with a single pass over the
+  * directories.
+  * <p>
+  * On Windows, names without an extension are completed with the extensions in {@code PATHEXT}, and names are
+  * compared ignoring case.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * Map<String, Path> tools = Executables.findAll(Arrays.asList("git", "ssh", "gpg"));
+  * }</pre>
+  */
+public final class Executables {
+
+  private Executables() {}
+
+  private static final boolean WINDOWS         = Constants.operatingSystem == Constants.WIN;
+  private static final String  DEFAULT_PATHEXT = ".COM;.EXE;.BAT;.CMD";
+
+  private static final ConcurrentHashMap<Path, Listing> LISTINGS = new ConcurrentHashMap<Path, Listing>();
+
+  private static volatile Path executableDir;
+  private static volatile boolean executableDirResolved;
+
+  /** Returns the directories searched for executables, in order: {@link BaseDirectories#executableDir}, if any,
+    * followed by the entries of {@code PATH}.
+    */
+  public static List<Path> searchPath() {
+    Set<Path> dirs = new LinkedHashSet<Path>();
+    Path executableDir = executableDir();
+    if (executableDir != null)
+      dirs.add(executableDir);
+    String path = System.getenv("PATH");
+    if (!Util.isNullOrEmpty(path)) {
+      for (String entry : path.split(File.pathSeparator)) {
+        if (entry.isEmpty())
+          continue;
+        try {
+          dirs.add(Paths.get(entry));
+        } catch (InvalidPathException e) {
+          // Ignored, as by the shell.
+        }
+      }
+    }
+    return new ArrayList<Path>(dirs);
+  }
+
+  /** Returns {@link BaseDirectories#executableDir}, or {@code null}. Computed once, as it requires looking up all base
+    * directories; {@link #invalidate} resets it.
+    */
+  private static Path executableDir() {
+    if (!executableDirResolved) {
+      synchronized (Executables.class) {
+        if (!executableDirResolved) {
+          String dir = BaseDirectories.get().executableDir;
+          executableDir = dir == null ? null : Paths.get(dir).normalize();
+          executableDirResolved = true;
+        }
+      }
+    }
+    return executableDir;
+  }
+
+  /** Returns the first executable named {@code name} in the {@linkplain #searchPath search path}, or {@code null}.
+    * Names containing a path separator are not searched for, but returned if they denote an executable file.
+    */
+  public static Path find(String name) {
+    return findAll(Collections.singletonList(name)).get(name);
+  }
+
+  /** Resolves all {@code names} with a single pass over the {@linkplain #searchPath search path}.
+    *
+    * @param names The names of the executables to find.
+    *
+    * @return The executables found, by name, in the order of {@code names}. Names that were not found are absent.
+    */
+  public static Map<String, Path> findAll(Collection<String> names) {
+    return findAll(searchPath(), names);
+  }
+
+  /** Forgets all cached directory listings, and the cached {@link BaseDirectories#executableDir}. */
+  public static void invalidate() {
+    synchronized (Executables.class) {
+      executableDirResolved = false;
+    }
+    LISTINGS.clear();
+  }
+
+  static Map<String, Path> findAll(List<Path> searchPath, Collection<String> names) {
+    Map<String, Path> found = new LinkedHashMap<String, Path>();
+    Map<String, List<String>> pending = new LinkedHashMap<String, List<String>>();
+    for (String name : names) {
+      if (name.indexOf('/') >= 0 || (WINDOWS && name.indexOf('\\') >= 0)) {
+        Path path = Paths.get(name);
+        if (Files.isRegularFile(path) && Files.isExecutable(path))
+          found.put(name, path);
+      } else if (!name.isEmpty()) {
+        pending.put(name, candidates(name));
+      }
+    }
+    for (Path dir : searchPath) {
+      if (pending.isEmpty())
+        break;
+      Set<String> listing = listing(dir);
+      if (listing.isEmpty())
+        continue;
+      for (Map.Entry<String, List<String>> entry : new ArrayList<Map.Entry<String, List<String>>>(pending.entrySet())) {
+        for (String candidate : entry.getValue()) {
+          if (!listing.contains(WINDOWS ? candidate.toLowerCase(Locale.ROOT) : candidate))
+            continue;
+          Path path = dir.resolve(candidate);
+          if (Files.isRegularFile(path) && Files.isExecutable(path)) {
+            found.put(entry.getKey(), path);
+            pending.remove(entry.getKey());
+            break;
+          }
+        }
+      }
+    }
+    // Restore the order of the names.
+    Map<String, Path> ordered = new LinkedHashMap<String, Path>();
+    for (String name : names)
+      if (found.containsKey(name))
+        ordered.put(name, found.get(name));
+    return ordered;
+  }
+
+  /** Returns the file names to look for: on Windows, {@code name} completed with each extension in {@code PATHEXT}. */
+  private static List<String> candidates(String name) {
+    List<String> candidates = new ArrayList<String>();
+    if (!WINDOWS) {
+      candidates.add(name);
+      return candidates;
+    }
+    String pathext = System.getenv("PATHEXT");
+    String[] extensions = (Util.isNullOrEmpty(pathext) ? DEFAULT_PATHEXT : pathext).split(";");
+    String lower = name.toLowerCase(Locale.ROOT);
+    for (String extension : extensions) {
+      if (!extension.isEmpty() && lower.endsWith(extension.toLowerCase(Locale.ROOT))) {
+        candidates.add(name);
+        return candidates;
+      }
+    }
+    for (String extension : extensions)
+      if (!extension.isEmpty())
+        candidates.add(name + extension.toLowerCase(Locale.ROOT));
+    return candidates;
+  }
+
+  /** Returns the cached names in {@code dir}, listing it again if its modification time has changed. */
+  private static Set<String> listing(Path dir) {
+    long modified;
+    try {
+      modified = Files.getLastModifiedTime(dir).toMillis();
+    } catch (IOException e) {
+      LISTINGS.remove(dir);
+      return Collections.emptySet();
+    }
+    Listing cached = LISTINGS.get(dir);
+    if (cached != null && ModificationTimes.isCurrent(cached.modified, modified))
+      return cached.names;
+    Set<String> names = new HashSet<String>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path entry : stream) {
+        String name = entry.getFileName().toString();
+        names.add(WINDOWS ? name.toLowerCase(Locale.ROOT) : name);
+      }
+    } catch (IOException e) {
+      return Collections.emptySet();
+    }
+    LISTINGS.put(dir, new Listing(ModificationTimes.record(modified, System.currentTimeMillis()), names));
+    return names;
+  }
+
+  private static final class Listing {
+    final long modified;
+    final Set<String> names;
+
+    Listing(long modified, Set<String> names) {
+      this.modified = modified;
+      this.names    = names;
+    }
+  }
+}
@@ -0,0 +1,353 @@
+package dev.dirs;
+
+import dev.dirs.impl.ModificationTimes;
+import dev.dirs.impl.OpenType;
+import dev.dirs.impl.ParallelFiles;
+import dev.dirs.impl.Util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** {@code FontIndex} lists the TrueType and OpenType fonts installed for the current user and system-wide,
+  * by family and style.
+  * <p>
+  * The search directories are {@link UserDirectories#fontDir} and the platform's font directories: on Linux and BSD,
+  * {@code ~/.fonts} and the {@code fonts} directories in {@code $XDG_DATA_DIRS} (which include {@code /usr/share/fonts});
+  * on macOS, {@code /Library/Fonts}, {@code /System/Library/Fonts} and {@code /Network/Library/Fonts}; on Windows,
+  * the system and per-user font directories.
+  * <p>
+  * Only the {@code name} table of each font is read. The index is persisted, and a {@linkplain #refresh refresh} only
+  * reads the fonts in directories whose modification time has changed; changed directories are scanned in parallel.
+  * Replacing a font file in place, under the same name, does not change the modification time of its directory.
+  * Lookups are answered from memory.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * FontIndex fonts = FontIndex.open(ProjectDirectories.from("com", "Foo Corp", "Bar App"), UserDirectories.get());
+  * FontIndex.Face face = fonts.find("DejaVu Sans", "Bold");
+  * }</pre>
+  */
+public final class FontIndex {
+
+  private static final String[] EXTENSIONS = { ".ttf", ".otf", ".ttc", ".otc" };
+
+  private final Path indexFile;
+  private final List<Path> searchDirectories;
+  private volatile Map<String, Dir> dirs;
+  private volatile Map<String, List<Face>> byFamily;
+
+  private FontIndex(Path indexFile, List<Path> searchDirectories) {
+    this.indexFile         = indexFile;
+    this.searchDirectories = searchDirectories;
+  }
+
+  /** A font face: a font file, or one font of a collection. */
+  public static final class Face {
+
+    /** The font file. */
+    public final Path path;
+
+    /** The index of the face in a font collection, {@code 0} for other font files. */
+    public final int index;
+
+    /** The family name, such as {@code "DejaVu Sans"}. Typographic family names are preferred where present. */
+    public final String family;
+
+    /** The style name, such as {@code "Bold Oblique"}. */
+    public final String style;
+
+    Face(Path path, int index, String family, String style) {
+      this.path   = path;
+      this.index  = index;
+      this.family = family;
+      this.style  = style;
+    }
+
+    @Override
+    public String toString() {
+      return family + " " + style + " (" + path + (index > 0 ? "#" + index : "") + ")";
+    }
+  }
+
+  /** Opens the index persisted in the cache directory of {@code projectDirectories} and refreshes it.
+    *
+    * @param projectDirectories The project whose {@link ProjectDirectories#cacheDir} holds the index.
+    * @param userDirectories    The user directories providing {@link UserDirectories#fontDir}.
+    *
+    * @return An up-to-date {@code FontIndex}.
+    */
+  public static FontIndex open(ProjectDirectories projectDirectories, UserDirectories userDirectories) throws IOException {
+    return open(Paths.get(projectDirectories.cacheDir, "fonts.index"), searchDirectories(userDirectories));
+  }
+
+  /** Opens the index persisted in {@code indexFile} over the given directories and refreshes it.
+    *
+    * @param indexFile         The file the index is persisted in.
+    * @param searchDirectories The directories to search for fonts, including their sub-directories.
+    *
+    * @return An up-to-date {@code FontIndex}.
+    */
+  public static FontIndex open(Path indexFile, List<Path> searchDirectories) throws IOException {
+    FontIndex index = new FontIndex(indexFile, new ArrayList<Path>(searchDirectories));
+    index.dirs = readIndex(indexFile);
+    index.refresh();
+    return index;
+  }
+
+  /** Returns the platform's font search directories, whether or not they exist. */
+  public static List<Path> searchDirectories(UserDirectories userDirectories) {
+    Set<String> dirs = new LinkedHashSet<String>();
+    if (userDirectories.fontDir != null)
+      dirs.add(userDirectories.fontDir);
+    switch (Constants.operatingSystem) {
+      case Constants.LIN:
+      case Constants.BSD:
+      case Constants.SOLARIS:
+      case Constants.AIX:
+      case Constants.IBMI:
+        dirs.add(userDirectories.homeDir + "/.fonts");
+        String dataDirs = System.getenv("XDG_DATA_DIRS");
+        for (String dataDir : (Util.isNullOrEmpty(dataDirs) ? "/usr/local/share:/usr/share" : dataDirs).split(":"))
+          if (dataDir.startsWith("/"))
+            dirs.add(dataDir.replaceAll("/+$", "") + "/fonts");
+        dirs.add("/usr/share/fonts");
+        break;
+      case Constants.MAC:
+        dirs.add("/Library/Fonts");
+        dirs.add("/System/Library/Fonts");
+        dirs.add("/Network/Library/Fonts");
+        break;
+      case Constants.WIN:
+        String windir = System.getenv("WINDIR");
+        dirs.add((Util.isNullOrEmpty(windir) ? "C:\\Windows" : windir) + "\\Fonts");
+        String localAppData = System.getenv("LOCALAPPDATA");
+        if (!Util.isNullOrEmpty(localAppData))
+          dirs.add(localAppData + "\\Microsoft\\Windows\\Fonts");
+        break;
+      default:
+        break;
+    }
+    List<Path> paths = new ArrayList<Path>(dirs.size());
+    for (String dir : dirs)
+      paths.add(Paths.get(dir).toAbsolutePath().normalize());
+    return paths;
+  }
+
+  /** Rescans the directories whose modification time has changed since the last refresh, and persists the index if anything changed. */
+  public synchronized void refresh() throws IOException {
+    Map<String, Dir> previous = dirs;
+    Map<String, Dir> current = new ConcurrentHashMap<String, Dir>();
+    ParallelFiles.walk(withoutNested(searchDirectories), new Scan(previous, current, System.currentTimeMillis()));
+
+    boolean changed = current.size() != previous.size();
+    for (Map.Entry<String, Dir> dir : current.entrySet())
+      changed |= previous.get(dir.getKey()) != dir.getValue();
+    dirs = current;
+    byFamily = group(current);
+    if (changed) {
+      EnsureDirectories.ensure(indexFile.getParent(), EnsureDirectories.PRIVATE);
+      AtomicFiles.write(indexFile, formatIndex(current));
+    }
+  }
+
+  /** Returns all faces, in no particular order. */
+  public List<Face> faces() {
+    List<Face> faces = new ArrayList<Face>();
+    for (List<Face> family : byFamily.values())
+      faces.addAll(family);
+    return faces;
+  }
+
+  /** Returns the names of all families, sorted case-insensitively. */
+  public SortedSet<String> families() {
+    SortedSet<String> families = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+    for (List<Face> family : byFamily.values())
+      families.add(family.get(0).family);
+    return families;
+  }
+
+  /** Returns the faces of the family named {@code family}, ignoring case, or an empty list. */
+  public List<Face> find(String family) {
+    List<Face> faces = byFamily.get(family.toLowerCase(Locale.ROOT));
+    return faces != null ? faces : Collections.<Face>emptyList();
+  }
+
+  /** Returns the face of the family named {@code family} with the style {@code style}, ignoring case, or {@code null}. */
+  public Face find(String family, String style) {
+    for (Face face : find(family))
+      if (face.style.equalsIgnoreCase(style))
+        return face;
+    return null;
+  }
+
+  /** Lists directories, reusing the recorded faces of those whose modification time has not changed. */
+  private static final class Scan implements ParallelFiles.Visitor<Path> {
+    private final Map<String, Dir> previous;
+    private final Map<String, Dir> current;
+    private final long now;
+
+    Scan(Map<String, Dir> previous, Map<String, Dir> current, long now) {
+      this.previous = previous;
+      this.current  = current;
+      this.now      = now;
+    }
+
+    @Override
+    public void visit(Path dir, List<Path> children) {
+      long modified;
+      try {
+        BasicFileAttributes attributes = Files.readAttributes(dir, BasicFileAttributes.class);
+        if (!attributes.isDirectory())
+          return;
+        modified = attributes.lastModifiedTime().toMillis();
+      } catch (IOException e) {
+        return;
+      }
+      String key = dir.toString();
+      Dir old = previous.get(key);
+      Dir scanned = old != null && ModificationTimes.isCurrent(old.modified, modified) ? old : list(dir, modified);
+      if (scanned == null)
+        return;
+      current.put(key, scanned);
+      for (String child : scanned.children)
+        children.add(dir.resolve(child));
+    }
+
+    private Dir list(Path dir, long modified) {
+      List<String> children = new ArrayList<String>();
+      List<Face> faces = new ArrayList<Face>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+        for (Path child : stream) {
+          String name = child.getFileName().toString();
+          if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+            children.add(name);
+          } else if (isFont(name)) {
+            try {
+              List<String[]> names = OpenType.faces(child);
+              for (int i = 0; i < names.size(); i++)
+                faces.add(new Face(child, i, names.get(i)[0], names.get(i)[1]));
+            } catch (IOException e) {
+              // Damaged or not actually a font.
+            }
+          }
+        }
+      } catch (IOException e) {
+        return null;
+      }
+      return new Dir(ModificationTimes.record(modified, now), children, faces);
+    }
+  }
+
+  private static boolean isFont(String name) {
+    String lower = name.toLowerCase(Locale.ROOT);
+    for (String extension : EXTENSIONS)
+      if (lower.endsWith(extension))
+        return true;
+    return false;
+  }
+
+  /** Drops directories below other search directories, which are already scanned as part of those. */
+  private static List<Path> withoutNested(List<Path> dirs) {
+    List<Path> roots = new ArrayList<Path>();
+    for (Path dir : dirs) {
+      boolean nested = false;
+      for (Path other : dirs)
+        nested |= !other.equals(dir) && dir.startsWith(other);
+      if (!nested && !roots.contains(dir))
+        roots.add(dir);
+    }
+    return roots;
+  }
+
+  private static Map<String, List<Face>> group(Map<String, Dir> dirs) {
+    Map<String, List<Face>> byFamily = new HashMap<String, List<Face>>();
+    for (Dir dir : dirs.values())
+      for (Face face : dir.faces)
+        byFamily.computeIfAbsent(face.family.toLowerCase(Locale.ROOT), family -> new ArrayList<Face>()).add(face);
+    return byFamily;
+  }
+
+  /** Reads the index: a line per directory with its modification time, path and sub-directories,
+    * followed by a line per face with its file name, index, family and style. Fields are separated by NUL.
+    */
+  private static Map<String, Dir> readIndex(Path file) throws IOException {
+    Map<String, Dir> dirs = new HashMap<String, Dir>();
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      return dirs;
+    }
+    Path dir = null;
+    Dir current = null;
+    for (String line : lines) {
+      String[] fields = line.split("\0", -1);
+      try {
+        if (fields[0].equals("D") && fields.length >= 3) {
+          dir = Paths.get(fields[2]);
+          List<String> children = new ArrayList<String>();
+          for (int i = 3; i < fields.length; i++)
+            children.add(fields[i]);
+          current = new Dir(Long.parseLong(fields[1]), children, new ArrayList<Face>());
+          dirs.put(fields[2], current);
+        } else if (fields[0].equals("F") && fields.length == 5 && current != null) {
+          current.faces.add(new Face(dir.resolve(fields[1]), Integer.parseInt(fields[2]), fields[3], fields[4]));
+        }
+      } catch (RuntimeException e) {
+        // A damaged index only causes directories to be scanned again.
+        return new HashMap<String, Dir>();
+      }
+    }
+    return dirs;
+  }
+
+  private static byte[] formatIndex(Map<String, Dir> dirs) {
+    StringBuilder buf = new StringBuilder();
+    for (Map.Entry<String, Dir> entry : dirs.entrySet()) {
+      Dir dir = entry.getValue();
+      buf.append("D\0").append(dir.modified).append('\0').append(entry.getKey());
+      for (String child : dir.children)
+        buf.append('\0').append(child);
+      buf.append('\n');
+      for (Face face : dir.faces) {
+        buf.append("F\0").append(face.path.getFileName()).append('\0').append(face.index)
+           .append('\0').append(clean(face.family)).append('\0').append(clean(face.style)).append('\n');
+      }
+    }
+    return buf.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String clean(String name) {
+    return name.replace('\0', ' ').replace('\n', ' ').replace('\r', ' ');
+  }
+
+  private static final class Dir {
+    final long modified;
+    final List<String> children;
+    final List<Face> faces;
+
+    Dir(long modified, List<String> children, List<Face> faces) {
+      this.modified = modified;
+      this.children = children;
+      this.faces    = faces;
+    }
+  }
+}
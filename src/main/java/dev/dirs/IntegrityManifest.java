@@ -0,0 +1,346 @@
+package dev.dirs;
+
+import dev.dirs.impl.ModificationTimes;
+import dev.dirs.impl.ParallelFiles;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32C;
+
+/** {@code IntegrityManifest} records the CRC32C checksum of every file in a project's {@link ProjectDirectories#dataDir},
+  * and verifies the files against it, to detect files that were damaged or only partially written, for example by a
+  * crash.
+  * <p>
+  * Applications call {@link #update} after they have finished writing, and {@link #verify} when they start. The
+  * directory is walked and the files are checksummed in parallel; files are read through memory mappings, except small
+  * ones, which are cheaper to read. Files whose size and modification time are the same as when they were recorded
+  * are skipped, so a pass over a large, mostly unchanged directory only costs one {@code stat} per file.
+  * {@link #verify(boolean)} checksums all files instead, which also detects damage that left the metadata intact.
+  * <p>
+  * The manifest is stored in {@code dataDir} as {@value #MANIFEST_FILE}, one line per file with its size, modification
+  * time, checksum and relative path, and is replaced atomically.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * IntegrityManifest manifest = IntegrityManifest.of(ProjectDirectories.from("com", "Foo Corp", "Bar App"));
+  * IntegrityManifest.Report report = manifest.verify();
+  * if (!report.isIntact())
+  *   restoreFromBackup(report.changed, report.missing);
+  * }</pre>
+  */
+public final class IntegrityManifest {
+
+  /** The name of the manifest file in the data directory. */
+  public static final String MANIFEST_FILE = ".integrity";
+
+  private static final long MAP_MIN   = 64 * 1024;
+  private static final long MAP_CHUNK = 64L * 1024 * 1024;
+
+  private final Path root;
+  private final Path manifestFile;
+
+  private IntegrityManifest(Path root, Path manifestFile) {
+    this.root         = root;
+    this.manifestFile = manifestFile;
+  }
+
+  /** Returns the manifest of the data directory of {@code projectDirectories}. */
+  public static IntegrityManifest of(ProjectDirectories projectDirectories) {
+    Path root = Paths.get(projectDirectories.dataDir);
+    return of(root, root.resolve(MANIFEST_FILE));
+  }
+
+  static IntegrityManifest of(Path root, Path manifestFile) {
+    return new IntegrityManifest(root.toAbsolutePath().normalize(), manifestFile.toAbsolutePath().normalize());
+  }
+
+  /** The outcome of an update or a verification. Paths are relative to the data directory, with {@code /} as separator. */
+  public static final class Report {
+
+    /** The files whose content differs from the manifest. After a verification, these files are damaged,
+      * or were written without updating the manifest afterwards.
+      */
+    public final List<String> changed;
+
+    /** The files in the manifest that no longer exist. */
+    public final List<String> missing;
+
+    /** The files that are not in the manifest. */
+    public final List<String> added;
+
+    /** The number of files that were checksummed. */
+    public final long filesChecked;
+
+    /** The number of bytes that were checksummed. */
+    public final long bytesChecked;
+
+    /** The number of files skipped because their size and modification time had not changed. */
+    public final long filesSkipped;
+
+    Report(List<String> changed, List<String> missing, List<String> added, long filesChecked, long bytesChecked, long filesSkipped) {
+      this.changed      = Collections.unmodifiableList(changed);
+      this.missing      = Collections.unmodifiableList(missing);
+      this.added        = Collections.unmodifiableList(added);
+      this.filesChecked = filesChecked;
+      this.bytesChecked = bytesChecked;
+      this.filesSkipped = filesSkipped;
+    }
+
+    /** Returns {@code true} if no file changed, was removed or was added. */
+    public boolean isIntact() {
+      return changed.isEmpty() && missing.isEmpty() && added.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+      return "IntegrityManifest.Report(" + changed.size() + " changed, " + missing.size() + " missing, " + added.size() + " added, " +
+          filesChecked + " files checked, " + bytesChecked + " bytes, " + filesSkipped + " skipped)";
+    }
+  }
+
+  /** Records the current content of the data directory, checksumming only the files that changed since the last update.
+    *
+    * @return The differences between the previous manifest and the new one.
+    */
+  public Report update() throws IOException {
+    Map<String, Entry> previous = read();
+    Scan scan = scan(previous, false);
+    StringBuilder manifest = new StringBuilder();
+    for (Map.Entry<String, Entry> file : scan.current.entrySet()) {
+      Entry entry = file.getValue();
+      manifest.append(entry.size).append(' ').append(entry.modified).append(' ').append(String.format("%08x", entry.checksum))
+          .append(' ').append(file.getKey()).append('\n');
+    }
+    AtomicFiles.write(manifestFile, manifest.toString().getBytes(StandardCharsets.UTF_8));
+    return scan.report(previous);
+  }
+
+  /** Verifies the data directory against the manifest, skipping files whose size and modification time are unchanged.
+    * The manifest is not modified.
+    */
+  public Report verify() throws IOException {
+    return verify(false);
+  }
+
+  /** Verifies the data directory against the manifest. The manifest is not modified.
+    *
+    * @param full Whether to checksum all files, including those whose size and modification time are unchanged.
+    */
+  public Report verify(boolean full) throws IOException {
+    Map<String, Entry> previous = read();
+    return scan(previous, full).report(previous);
+  }
+
+  private Scan scan(Map<String, Entry> previous, boolean full) throws IOException {
+    Scan scan = new Scan();
+    if (Files.isDirectory(root)) {
+      Walk walk = new Walk(this, previous, full, System.currentTimeMillis());
+      ParallelFiles.walk(Collections.singletonList(new Pending("", root, -1, 0)), walk);
+      for (Checked file : walk.files)
+        scan.add(file);
+    }
+    return scan;
+  }
+
+  /** Returns whether {@code name}, directly in the data directory, belongs to the manifest or to {@link AtomicFiles}. */
+  private boolean isOwnFile(String name) {
+    String manifestName = manifestFile.getFileName().toString();
+    return manifestFile.getParent().equals(root) && (name.equals(manifestName) || name.startsWith("." + manifestName + ".")) ||
+        name.equals(AtomicFiles.TRANSACTIONS_DIR);
+  }
+
+  /** Lists directories, adding their sub-directories and the files that need to be checksummed as children, so that
+    * files are checksummed in parallel with the walk.
+    */
+  private static final class Walk implements ParallelFiles.Visitor<Pending> {
+    final Queue<Checked> files = new ConcurrentLinkedQueue<Checked>();
+    private final IntegrityManifest manifest;
+    private final Map<String, Entry> previous;
+    private final boolean full;
+    private final long now;
+
+    Walk(IntegrityManifest manifest, Map<String, Entry> previous, boolean full, long now) {
+      this.manifest = manifest;
+      this.previous = previous;
+      this.full     = full;
+      this.now      = now;
+    }
+
+    @Override
+    public void visit(Pending pending, List<Pending> children) throws IOException {
+      if (pending.size >= 0) {
+        Checked checked = checksum(pending);
+        if (checked != null)
+          files.add(checked);
+        return;
+      }
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(pending.path)) {
+        for (Path child : stream) {
+          String fileName = child.getFileName().toString();
+          if (pending.name.isEmpty() && manifest.isOwnFile(fileName))
+            continue;
+          String childName = pending.name.isEmpty() ? fileName : pending.name + "/" + fileName;
+          BasicFileAttributes attributes;
+          try {
+            attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          } catch (NoSuchFileException e) {
+            continue;
+          }
+          if (attributes.isDirectory()) {
+            children.add(new Pending(childName, child, -1, 0));
+          } else if (attributes.isRegularFile()) {
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            Entry before = previous.get(childName);
+            if (!full && before != null && before.size == size && ModificationTimes.isCurrent(before.modified, modified))
+              files.add(new Checked(childName, before, false));
+            else
+              children.add(new Pending(childName, child, size, ModificationTimes.record(modified, now)));
+          }
+        }
+      } catch (NoSuchFileException e) {
+        // Deleted during the walk.
+      }
+    }
+
+    /** Returns the checksum of the first {@code file.size} bytes of the file, or {@code null} if it no longer exists. */
+    private static Checked checksum(Pending file) throws IOException {
+      CRC32C crc = new CRC32C();
+      long length;
+      try (FileChannel channel = FileChannel.open(file.path, StandardOpenOption.READ)) {
+        // The file may have been truncated since it was listed; mapping past its end would fault.
+        length = Math.min(file.size, channel.size());
+        if (length < MAP_MIN) {
+          ByteBuffer buffer = ByteBuffer.allocate((int) length);
+          while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            // Read until full or at the end of the file.
+          }
+          buffer.flip();
+          crc.update(buffer);
+        } else {
+          for (long position = 0; position < length; position += MAP_CHUNK) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_CHUNK, length - position));
+            crc.update(mapped);
+          }
+        }
+      } catch (NoSuchFileException e) {
+        return null;
+      }
+      return new Checked(file.name, new Entry(length, file.modified, (int) crc.getValue()), true);
+    }
+  }
+
+  /** A directory to list, with a size of {@code -1}, or a file to checksum, in a walk. */
+  private static final class Pending {
+    final String name;
+    final Path path;
+    final long size;
+    final long modified;
+
+    Pending(String name, Path path, long size, long modified) {
+      this.name     = name;
+      this.path     = path;
+      this.size     = size;
+      this.modified = modified;
+    }
+  }
+
+  /** Collects the files found by a walk, and compares them with the manifest. */
+  private static final class Scan {
+    final Map<String, Entry> current = new TreeMap<String, Entry>();
+    long filesChecked;
+    long bytesChecked;
+    long filesSkipped;
+
+    void add(Checked file) {
+      current.put(file.name, file.entry);
+      if (file.checked) {
+        filesChecked++;
+        bytesChecked += file.entry.size;
+      } else {
+        filesSkipped++;
+      }
+    }
+
+    Report report(Map<String, Entry> previous) {
+      List<String> changed = new ArrayList<String>();
+      List<String> missing = new ArrayList<String>();
+      List<String> added = new ArrayList<String>();
+      for (Map.Entry<String, Entry> file : current.entrySet()) {
+        Entry before = previous.get(file.getKey());
+        if (before == null)
+          added.add(file.getKey());
+        else if (before.size != file.getValue().size || before.checksum != file.getValue().checksum)
+          changed.add(file.getKey());
+      }
+      for (String name : previous.keySet())
+        if (!current.containsKey(name))
+          missing.add(name);
+      return new Report(changed, missing, added, filesChecked, bytesChecked, filesSkipped);
+    }
+  }
+
+  /** Reads the manifest, one file per line: size, modification time in milliseconds, CRC32C and relative path. */
+  private Map<String, Entry> read() throws IOException {
+    Map<String, Entry> manifest = new TreeMap<String, Entry>();
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(manifestFile, StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      return manifest;
+    }
+    for (String line : lines) {
+      String[] fields = line.split(" ", 4);
+      if (fields.length != 4)
+        continue;
+      try {
+        manifest.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Integer.parseUnsignedInt(fields[2], 16)));
+      } catch (NumberFormatException e) {
+        // A damaged line makes the file appear as added.
+      }
+    }
+    return manifest;
+  }
+
+  private static final class Checked {
+    final String name;
+    final Entry entry;
+    final boolean checked;
+
+    Checked(String name, Entry entry, boolean checked) {
+      this.name    = name;
+      this.entry   = entry;
+      this.checked = checked;
+    }
+  }
+
+  private static final class Entry {
+    final long size;
+    final long modified;
+    final int checksum;
+
+    Entry(long size, long modified, int checksum) {
+      this.size     = size;
+      this.modified = modified;
+      this.checksum = checksum;
+    }
+  }
+}
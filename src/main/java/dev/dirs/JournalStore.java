@@ -0,0 +1,677 @@
+package dev.dirs;
+
+import dev.dirs.impl.FileUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/** {@code JournalStore} is an embedded, append-only key-value store persisted below a {@link ProjectDirectories#dataDir}.
+  * <p>
+  * Updates are appended to segment files and become durable before {@link JournalStore#put} or
+  * {@link JournalStore#remove} return. Concurrent writers share a single {@code fsync}: while one thread
+  * flushes the journal, other threads append their records and are made durable together by the next flush.
+  * <p>
+  * Sealed segments are rewritten in the background once most of their records have been superseded, and deleted once
+  * none are left. They are accompanied by hint files that allow the in-memory index to be rebuilt on open without reading
+  * any values.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * try (JournalStore store = JournalStore.open(ProjectDirectories.from("com", "Foo Corp", "Bar App"), "state")) {
+  *   store.put("window.width", "1280".getBytes(StandardCharsets.UTF_8));
+  * }
+  * }</pre>
+  */
+public final class JournalStore implements AutoCloseable {
+
+  static final long DEFAULT_SEGMENT_SIZE = 4L * 1024 * 1024;
+
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String HINT_SUFFIX    = ".hint";
+  private static final String TEMP_SUFFIX    = ".tmp";
+  private static final int    HEADER_SIZE    = 12;
+  private static final int    HINT_MAGIC     = 0x4A484E54;
+  private static final int    TOMBSTONE      = -1;
+  private static final double COMPACTION_THRESHOLD = 0.5;
+
+  private final Path directory;
+  private final long segmentSize;
+
+  private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<String, Location>();
+  private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+  private final ReentrantReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+  private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "journal-compactor");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /** Serializes {@link #compact} with background compaction, which would otherwise rewrite the same segment at once. */
+  private final Object compactionLock = new Object();
+
+  private final Object writeLock = new Object();
+  private volatile Segment active;
+  private long written;
+
+  private final Object syncLock = new Object();
+  private long synced;
+  private boolean syncing;
+
+  private volatile boolean closed;
+
+  private JournalStore(Path directory, long segmentSize) {
+    this.directory   = directory;
+    this.segmentSize = segmentSize;
+  }
+
+  /** Opens the journal named {@code name} in the data directory of the given project, creating it if necessary.
+    *
+    * @param projectDirectories The project whose {@link ProjectDirectories#dataDir} contains the journal.
+    * @param name               The name of the journal, used as a sub-directory of {@code <dataDir>/journal}.
+    *
+    * @return An open {@code JournalStore}, which must be closed after use.
+    */
+  public static JournalStore open(ProjectDirectories projectDirectories, String name) throws IOException {
+    return open(Paths.get(projectDirectories.dataDir, "journal", name));
+  }
+
+  /** Opens the journal stored in {@code directory}, creating it if necessary.
+    *
+    * @param directory The directory containing the segment files of the journal.
+    *
+    * @return An open {@code JournalStore}, which must be closed after use.
+    */
+  public static JournalStore open(Path directory) throws IOException {
+    return open(directory, DEFAULT_SEGMENT_SIZE);
+  }
+
+  static JournalStore open(Path directory, long segmentSize) throws IOException {
+    Files.createDirectories(directory);
+    JournalStore store = new JournalStore(directory, segmentSize);
+    try {
+      store.load();
+    } catch (IOException | RuntimeException e) {
+      store.closeSegments();
+      throw e;
+    }
+    return store;
+  }
+
+  /** Returns the value most recently stored for {@code key}, or {@code null} if there is none. */
+  public byte[] get(String key) throws IOException {
+    ensureOpen();
+    segmentsLock.readLock().lock();
+    try {
+      Location location = index.get(key);
+      if (location == null)
+        return null;
+      ByteBuffer value = ByteBuffer.allocate(location.length);
+      FileUtil.readFully(segments.get(location.segment).channel, value, location.offset);
+      return value.array();
+    } finally {
+      segmentsLock.readLock().unlock();
+    }
+  }
+
+  /** Returns {@code true} if a value is stored for {@code key}. */
+  public boolean containsKey(String key) {
+    return index.containsKey(key);
+  }
+
+  /** Returns a snapshot of all keys currently stored. */
+  public Set<String> keys() {
+    return Collections.unmodifiableSet(new HashSet<String>(index.keySet()));
+  }
+
+  /** Returns the number of keys currently stored. */
+  public int size() {
+    return index.size();
+  }
+
+  /** Stores {@code value} for {@code key}, returning once the update is durable. */
+  public void put(String key, byte[] value) throws IOException {
+    if (value == null)
+      throw new NullPointerException("value");
+    append(key, value);
+  }
+
+  /** Removes the value stored for {@code key}, returning once the removal is durable. */
+  public void remove(String key) throws IOException {
+    append(key, null);
+  }
+
+  /** Rewrites all sealed segments containing superseded records, regardless of how many records are still live. */
+  public void compact() throws IOException {
+    ensureOpen();
+    for (Long id : sealedSegmentIds())
+      compactSegment(id);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed)
+      return;
+    closed = true;
+    compactor.shutdown();
+    try {
+      compactor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (writeLock) {
+      active.channel.force(false);
+    }
+    closeSegments();
+  }
+
+  private void append(String key, byte[] value) throws IOException {
+    awaitDurable(write(key, value));
+  }
+
+  /** Appends the record for {@code key} without waiting for it to become durable, returning its ticket for {@link #awaitDurable}. */
+  long write(String key, byte[] value) throws IOException {
+    ensureOpen();
+    ByteBuffer record = encode(key, value);
+    int recordSize = record.remaining();
+    long ticket;
+    synchronized (writeLock) {
+      if (active.size > 0 && active.size + recordSize > segmentSize)
+        roll();
+      long offset = active.size;
+      FileUtil.writeFully(active.channel, record, offset);
+      active.size += recordSize;
+      ticket = ++written;
+      int keyLength = recordSize - HEADER_SIZE - (value == null ? 0 : value.length);
+      Location previous;
+      if (value == null) {
+        previous = index.remove(key);
+        active.tombstones += recordSize;
+        active.entries.add(new HintEntry(key, offset + HEADER_SIZE + keyLength, TOMBSTONE));
+      } else {
+        previous = index.put(key, new Location(active.id, offset + HEADER_SIZE + keyLength, value.length));
+        active.entries.add(new HintEntry(key, offset + HEADER_SIZE + keyLength, value.length));
+      }
+      if (previous != null)
+        markDead(key, previous);
+    }
+    return ticket;
+  }
+
+  /** Returns {@code true} if the record with the given ticket has been flushed. */
+  boolean isDurable(long ticket) {
+    synchronized (syncLock) {
+      return synced >= ticket;
+    }
+  }
+
+  /** Group commit: the first thread to find its record unsynced becomes the leader and flushes
+    * every record appended so far; threads arriving during the flush wait and are covered by the next one.
+    */
+  private void awaitDurable(long ticket) throws IOException {
+    while (true) {
+      synchronized (syncLock) {
+        while (syncing && synced < ticket) {
+          try {
+            syncLock.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for journal sync", e);
+          }
+        }
+        if (synced >= ticket)
+          return;
+        syncing = true;
+      }
+      long target = 0;
+      boolean success = false;
+      try {
+        FileChannel channel;
+        synchronized (writeLock) {
+          target  = written;
+          channel = active.channel;
+        }
+        try {
+          channel.force(false);
+        } catch (ClosedChannelException e) {
+          // The segment was sealed in the meantime, which flushed it, and compacted since, which closed its channel.
+          ensureOpen();
+        }
+        success = true;
+      } finally {
+        synchronized (syncLock) {
+          syncing = false;
+          if (success)
+            synced = Math.max(synced, target);
+          syncLock.notifyAll();
+        }
+      }
+    }
+  }
+
+  private void roll() throws IOException {
+    active.channel.force(false);
+    synchronized (syncLock) {
+      synced = Math.max(synced, written);
+      syncLock.notifyAll();
+    }
+    Segment sealed = active;
+    writeHint(sealed, sealed.entries);
+    sealed.entries = null;
+    Segment next = openSegment(sealed.id + 1);
+    segmentsLock.writeLock().lock();
+    try {
+      segments.put(next.id, next);
+    } finally {
+      segmentsLock.writeLock().unlock();
+    }
+    active = next;
+    FileUtil.fsyncDirectory(directory);
+    scheduleCompaction();
+  }
+
+  private void markDead(String key, Location location) {
+    Segment segment;
+    segmentsLock.readLock().lock();
+    try {
+      segment = segments.get(location.segment);
+    } finally {
+      segmentsLock.readLock().unlock();
+    }
+    if (segment != null)
+      segment.dead += HEADER_SIZE + key.getBytes(StandardCharsets.UTF_8).length + location.length;
+  }
+
+  private void scheduleCompaction() {
+    List<Long> candidates = new ArrayList<Long>();
+    long activeId = active.id;
+    segmentsLock.readLock().lock();
+    try {
+      long oldestId = segments.firstKey();
+      for (Segment segment : segments.values()) {
+        // Tombstones are only garbage once no older segment can hold the values they remove.
+        long garbage = segment.dead + (segment.id == oldestId ? segment.tombstones : 0);
+        if (segment.id != activeId && segment.size > 0 && garbage >= segment.size * COMPACTION_THRESHOLD)
+          candidates.add(segment.id);
+      }
+    } finally {
+      segmentsLock.readLock().unlock();
+    }
+    try {
+      for (final Long id : candidates) {
+        compactor.execute(() -> {
+          try {
+            // Deleting a segment makes the next one the oldest, whose tombstones may now be dropped.
+            if (!closed && compactSegment(id))
+              scheduleCompaction();
+          } catch (IOException e) {
+            // The segment stays as it is and will be considered again after the next roll-over.
+          }
+        });
+      }
+    } catch (RejectedExecutionException e) {
+      // Closed in the meantime.
+    }
+  }
+
+  private List<Long> sealedSegmentIds() {
+    long activeId = active.id;
+    segmentsLock.readLock().lock();
+    try {
+      List<Long> ids = new ArrayList<Long>(segments.keySet());
+      ids.remove((Long) activeId);
+      return ids;
+    } finally {
+      segmentsLock.readLock().unlock();
+    }
+  }
+
+  /** Rewrites the segment {@code id} without its superseded records, returning {@code true} if none were left and it was deleted. */
+  private boolean compactSegment(long id) throws IOException {
+    synchronized (compactionLock) {
+      return compactSegmentLocked(id);
+    }
+  }
+
+  private boolean compactSegmentLocked(long id) throws IOException {
+    Segment old;
+    boolean oldest;
+    segmentsLock.readLock().lock();
+    try {
+      old = segments.get(id);
+      oldest = segments.firstKey() == id;
+    } finally {
+      segmentsLock.readLock().unlock();
+    }
+    if (old == null || old.dead == 0 && (!oldest || old.tombstones == 0))
+      return false;
+
+    Path tempSegment = directory.resolve(segmentName(id) + TEMP_SUFFIX);
+    List<HintEntry> kept = new ArrayList<HintEntry>();
+    try (FileChannel out = FileChannel.open(tempSegment, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      long outOffset = 0;
+      for (Record record : scan(old.channel, old.size)) {
+        boolean live = record.valueLength == TOMBSTONE
+            ? !oldest
+            : new Location(id, record.valueOffset(), record.valueLength).equals(index.get(record.key));
+        if (!live)
+          continue;
+        ByteBuffer bytes = ByteBuffer.allocate(record.size());
+        FileUtil.readFully(old.channel, bytes, record.offset);
+        bytes.flip();
+        FileUtil.writeFully(out, bytes, outOffset);
+        kept.add(new HintEntry(record.key, outOffset + HEADER_SIZE + record.keyLength, record.valueLength));
+        outOffset += record.size();
+      }
+      out.force(false);
+    }
+
+    // Records were dropped because the index points to newer ones, which must be durable before the old ones disappear.
+    long ticket;
+    synchronized (writeLock) {
+      ticket = written;
+    }
+    awaitDurable(ticket);
+
+    segmentsLock.writeLock().lock();
+    try {
+      Files.deleteIfExists(directory.resolve(segmentName(id) + HINT_SUFFIX));
+      if (kept.isEmpty()) {
+        Files.delete(directory.resolve(segmentName(id) + SEGMENT_SUFFIX));
+        Files.delete(tempSegment);
+        old.channel.close();
+        segments.remove(id);
+      } else {
+        Files.move(tempSegment, directory.resolve(segmentName(id) + SEGMENT_SUFFIX), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Segment replacement = openSegment(id);
+        old.channel.close();
+        long dead = 0;
+        long tombstones = 0;
+        for (HintEntry entry : kept) {
+          if (entry.valueLength == TOMBSTONE) {
+            tombstones += HEADER_SIZE + entry.key.getBytes(StandardCharsets.UTF_8).length;
+            continue;
+          }
+          Location current = index.get(entry.key);
+          if (current != null && current.segment == id)
+            index.replace(entry.key, current, new Location(id, entry.valueOffset, entry.valueLength));
+          else
+            dead += HEADER_SIZE + entry.key.getBytes(StandardCharsets.UTF_8).length + entry.valueLength;
+        }
+        replacement.dead       = dead;
+        replacement.tombstones = tombstones;
+        segments.put(id, replacement);
+        writeHint(replacement, kept);
+      }
+    } finally {
+      segmentsLock.writeLock().unlock();
+    }
+    FileUtil.fsyncDirectory(directory);
+    return kept.isEmpty();
+  }
+
+  private void load() throws IOException {
+    List<Long> ids = new ArrayList<Long>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for (Path file : stream) {
+        String fileName = file.getFileName().toString();
+        if (fileName.endsWith(TEMP_SUFFIX))
+          Files.delete(file);
+        else if (fileName.endsWith(SEGMENT_SUFFIX))
+          ids.add(Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()), 16));
+      }
+    }
+    Collections.sort(ids);
+    if (ids.isEmpty())
+      ids.add(0L);
+
+    for (Long id : ids)
+      segments.put(id, openSegment(id));
+    active = segments.lastEntry().getValue();
+
+    // Hint files are read in parallel, but applied in segment order so that later updates win.
+    List<Segment> ordered = new ArrayList<Segment>(segments.values());
+    List<List<HintEntry>> hints = new ArrayList<List<HintEntry>>(Collections.nCopies(ordered.size(), (List<HintEntry>) null));
+    IntStream.range(0, ordered.size() - 1).parallel().forEach(i -> hints.set(i, readHint(ordered.get(i))));
+    for (int i = 0; i < ordered.size(); i++) {
+      Segment segment = ordered.get(i);
+      List<HintEntry> entries = hints.get(i);
+      if (entries == null) {
+        entries = new ArrayList<HintEntry>();
+        long valid = 0;
+        for (Record record : scan(segment.channel, segment.size)) {
+          entries.add(new HintEntry(record.key, record.valueOffset(), record.valueLength));
+          valid = record.offset + record.size();
+        }
+        if (valid < segment.size) {
+          // A torn write at the end of the journal: drop the incomplete record.
+          segment.channel.truncate(valid);
+          segment.size = valid;
+        }
+        if (segment != active)
+          writeHint(segment, entries);
+      }
+      for (HintEntry entry : entries) {
+        if (entry.valueLength == TOMBSTONE)
+          segment.tombstones += HEADER_SIZE + entry.key.getBytes(StandardCharsets.UTF_8).length;
+        Location previous = entry.valueLength == TOMBSTONE
+            ? index.remove(entry.key)
+            : index.put(entry.key, new Location(segment.id, entry.valueOffset, entry.valueLength));
+        if (previous != null)
+          markDead(entry.key, previous);
+      }
+      if (segment == active)
+        active.entries = entries;
+    }
+  }
+
+  private void writeHint(Segment segment, List<HintEntry> entries) throws IOException {
+    int capacity = 16;
+    for (HintEntry entry : entries)
+      capacity += 16 + entry.key.getBytes(StandardCharsets.UTF_8).length;
+    ByteBuffer buffer = ByteBuffer.allocate(capacity);
+    buffer.putInt(HINT_MAGIC).putLong(segment.size).putInt(entries.size());
+    for (HintEntry entry : entries) {
+      byte[] key = entry.key.getBytes(StandardCharsets.UTF_8);
+      buffer.putInt(key.length).put(key).putLong(entry.valueOffset).putInt(entry.valueLength);
+    }
+    buffer.flip();
+    Path temp = directory.resolve(segmentName(segment.id) + HINT_SUFFIX + TEMP_SUFFIX);
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      FileUtil.writeFully(channel, buffer, 0);
+      channel.force(false);
+    }
+    Files.move(temp, directory.resolve(segmentName(segment.id) + HINT_SUFFIX), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /** Returns the entries of the hint file of {@code segment}, or {@code null} if it is missing or does not match the segment. */
+  private List<HintEntry> readHint(Segment segment) {
+    Path hint = directory.resolve(segmentName(segment.id) + HINT_SUFFIX);
+    try {
+      if (!Files.exists(hint))
+        return null;
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(hint));
+      if (buffer.getInt() != HINT_MAGIC || buffer.getLong() != segment.size)
+        return null;
+      int count = buffer.getInt();
+      List<HintEntry> entries = new ArrayList<HintEntry>(count);
+      for (int i = 0; i < count; i++) {
+        byte[] key = new byte[buffer.getInt()];
+        buffer.get(key);
+        entries.add(new HintEntry(new String(key, StandardCharsets.UTF_8), buffer.getLong(), buffer.getInt()));
+      }
+      return entries;
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static List<Record> scan(FileChannel channel, long size) throws IOException {
+    List<Record> records = new ArrayList<Record>();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    long offset = 0;
+    while (offset + HEADER_SIZE <= size) {
+      header.clear();
+      FileUtil.readFully(channel, header, offset);
+      header.flip();
+      int checksum    = header.getInt();
+      int keyLength   = header.getInt();
+      int valueLength = header.getInt();
+      if (keyLength < 0 || valueLength < TOMBSTONE)
+        break;
+      long end = offset + HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+      if (end > size)
+        break;
+      ByteBuffer body = ByteBuffer.allocate((int) (end - offset - 4));
+      FileUtil.readFully(channel, body, offset + 4);
+      CRC32C crc = new CRC32C();
+      crc.update(body.array());
+      if ((int) crc.getValue() != checksum)
+        break;
+      String key = new String(body.array(), 8, keyLength, StandardCharsets.UTF_8);
+      records.add(new Record(key, offset, keyLength, valueLength));
+      offset = end;
+    }
+    return records;
+  }
+
+  private static ByteBuffer encode(String key, byte[] value) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    int valueLength = value == null ? 0 : value.length;
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + valueLength);
+    buffer.putInt(0).putInt(keyBytes.length).putInt(value == null ? TOMBSTONE : value.length).put(keyBytes);
+    if (value != null)
+      buffer.put(value);
+    CRC32C crc = new CRC32C();
+    crc.update(buffer.array(), 4, buffer.capacity() - 4);
+    buffer.putInt(0, (int) crc.getValue());
+    buffer.flip();
+    return buffer;
+  }
+
+  private Segment openSegment(long id) throws IOException {
+    FileChannel channel = FileChannel.open(directory.resolve(segmentName(id) + SEGMENT_SUFFIX),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    return new Segment(id, channel, channel.size());
+  }
+
+  private void closeSegments() throws IOException {
+    IOException failure = null;
+    for (Segment segment : segments.values()) {
+      try {
+        segment.channel.close();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+    if (failure != null)
+      throw failure;
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed)
+      throw new IOException("journal " + directory + " is closed");
+  }
+
+  private static String segmentName(long id) {
+    return String.format("%016x", id);
+  }
+
+  private static final class Segment {
+    final long id;
+    final FileChannel channel;
+    long size;
+    volatile long dead;
+    /** Bytes taken by tombstones, which can only be dropped once the segment is the oldest. */
+    volatile long tombstones;
+    /** Index entries of the active segment, written out as its hint file once it is sealed. */
+    List<HintEntry> entries = new ArrayList<HintEntry>();
+
+    Segment(long id, FileChannel channel, long size) {
+      this.id      = id;
+      this.channel = channel;
+      this.size    = size;
+    }
+  }
+
+  private static final class Location {
+    final long segment;
+    final long offset;
+    final int  length;
+
+    Location(long segment, long offset, int length) {
+      this.segment = segment;
+      this.offset  = offset;
+      this.length  = length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Location)) return false;
+      Location that = (Location) o;
+      return segment == that.segment && offset == that.offset && length == that.length;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(segment) * 31 + Long.hashCode(offset);
+    }
+  }
+
+  private static final class Record {
+    final String key;
+    final long offset;
+    final int keyLength;
+    final int valueLength;
+
+    Record(String key, long offset, int keyLength, int valueLength) {
+      this.key         = key;
+      this.offset      = offset;
+      this.keyLength   = keyLength;
+      this.valueLength = valueLength;
+    }
+
+    long valueOffset() {
+      return offset + HEADER_SIZE + keyLength;
+    }
+
+    int size() {
+      return HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+    }
+  }
+
+  private static final class HintEntry {
+    final String key;
+    final long valueOffset;
+    final int valueLength;
+
+    HintEntry(String key, long valueOffset, int valueLength) {
+      this.key         = key;
+      this.valueOffset = valueOffset;
+      this.valueLength = valueLength;
+    }
+  }
+}
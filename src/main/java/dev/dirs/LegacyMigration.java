@@ -0,0 +1,376 @@
+package dev.dirs;
+
+import dev.dirs.impl.DirectorySync;
+import dev.dirs.impl.ParallelFiles;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** {@code LegacyMigration} moves the content of a legacy dot-directory, such as {@code ~/.barapp},
+  * into the directories computed by {@link ProjectDirectories}, in the background.
+  * <p>
+  * Each entry of the mapping moves one file or directory below the legacy directory to a target path.
+  * The empty key {@code ""} moves all remaining entries into the given directory. Where source and target are on the
+  * same {@link FileStore}, entries are renamed, which moves whole directory trees at once. Otherwise files are copied
+  * in parallel, keeping the modes of files and directories, each one made durable at its target before the source is deleted.
+  * <p>
+  * An interrupted migration is resumed by starting it again: whatever is still in the legacy directory has not been
+  * migrated yet. The total size is recorded in a {@value #PROGRESS_FILE} file in the legacy directory, so that
+  * {@link #progress()} remains meaningful across restarts. The file is also locked while a migration runs,
+  * so only one process at a time migrates the same directory.
+  * <p>
+  * Files that already exist at their target are compared byte by byte: identical copies are dropped from the legacy
+  * directory, files with different content are left there and reported as conflicts. The legacy directory is deleted once it is empty.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * ProjectDirectories dirs = ProjectDirectories.from("com", "Foo Corp", "Bar App");
+  * Map<String, String> mapping = new LinkedHashMap<>();
+  * mapping.put("cache", dirs.cacheDir);
+  * mapping.put("barapp.conf", dirs.configDir + "/barapp.conf");
+  * mapping.put("", dirs.dataDir);
+  * LegacyMigration migration = LegacyMigration.start(Paths.get(System.getProperty("user.home"), ".barapp"), mapping);
+  * migration.result().thenAccept(result -> log.info("migrated legacy directory: " + result));
+  * }</pre>
+  */
+public final class LegacyMigration {
+
+  /** The name of the file recording the progress of a migration, in the legacy directory. */
+  public static final String PROGRESS_FILE = ".migration";
+
+  private final Path legacyDir;
+  private final Map<String, String> mapping;
+  private final CompletableFuture<Result> result = new CompletableFuture<Result>();
+
+  private final AtomicLong total    = new AtomicLong(-1);
+  private final AtomicLong migrated = new AtomicLong();
+  private final AtomicLong renamed  = new AtomicLong();
+  private final AtomicLong copied   = new AtomicLong();
+  private final List<Path> conflicts = Collections.synchronizedList(new ArrayList<Path>());
+
+  private LegacyMigration(Path legacyDir, Map<String, String> mapping) {
+    this.legacyDir = legacyDir;
+    this.mapping   = mapping;
+  }
+
+  /** The outcome of a migration. */
+  public static final class Result {
+
+    /** The number of files and directories that were moved by renaming them. */
+    public final long renamed;
+
+    /** The number of files that were copied to another file system. */
+    public final long copied;
+
+    /** Files left in the legacy directory because a different file already exists at their target. */
+    public final List<Path> conflicts;
+
+    Result(long renamed, long copied, List<Path> conflicts) {
+      this.renamed   = renamed;
+      this.copied    = copied;
+      this.conflicts = Collections.unmodifiableList(conflicts);
+    }
+
+    @Override
+    public String toString() {
+      return "LegacyMigration.Result(" + renamed + " renamed, " + copied + " copied, " + conflicts.size() + " conflicts)";
+    }
+  }
+
+  /** Starts migrating {@code legacyDir} on a background thread, or resumes an interrupted migration.
+    *
+    * @param legacyDir The legacy directory. If it does not exist, the migration completes immediately.
+    * @param mapping   Paths relative to {@code legacyDir}, mapped to the paths they are moved to, in the order they are migrated.
+    *                  The empty path maps the entries not mapped otherwise to the directory they are moved into.
+    *
+    * @return The running migration.
+    */
+  public static LegacyMigration start(Path legacyDir, Map<String, String> mapping) {
+    LegacyMigration migration = new LegacyMigration(legacyDir.toAbsolutePath().normalize(), new LinkedHashMap<String, String>(mapping));
+    Thread thread = new Thread(migration::run, "legacy-migration");
+    thread.setDaemon(true);
+    thread.start();
+    return migration;
+  }
+
+  /** Returns the outcome of the migration, which completes exceptionally if the migration failed
+    * or another process is already migrating the same directory.
+    */
+  public CompletableFuture<Result> result() {
+    return result;
+  }
+
+  /** Returns the fraction of bytes migrated so far, between {@code 0} and {@code 1}, including those migrated before a restart. */
+  public double progress() {
+    if (result.isDone())
+      return 1;
+    long total = this.total.get();
+    return total <= 0 ? 0 : Math.min(1, (double) migrated.get() / total);
+  }
+
+  private void run() {
+    try {
+      if (!Files.isDirectory(legacyDir)) {
+        result.complete(new Result(0, 0, conflicts));
+        return;
+      }
+      Path progressFile = legacyDir.resolve(PROGRESS_FILE);
+      try (FileChannel channel = FileChannel.open(progressFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        FileLock lock;
+        try {
+          lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+          lock = null;
+        }
+        if (lock == null)
+          throw new IOException(legacyDir + " is being migrated by another process");
+        try {
+          startProgress(channel);
+          ExecutorService copiers = Executors.newFixedThreadPool(ParallelFiles.PARALLELISM, r -> {
+            Thread thread = new Thread(r, "legacy-migration-copy");
+            thread.setDaemon(true);
+            return thread;
+          });
+          try {
+            for (Map.Entry<String, String> entry : mapping.entrySet()) {
+              if (entry.getKey().isEmpty())
+                continue;
+              migrate(legacyDir.resolve(entry.getKey()), Paths.get(entry.getValue()), copiers);
+            }
+            String rest = mapping.get("");
+            if (rest != null) {
+              try (DirectoryStream<Path> stream = Files.newDirectoryStream(legacyDir)) {
+                for (Path source : stream)
+                  if (!isMapped(source))
+                    migrate(source, Paths.get(rest).resolve(source.getFileName().toString()), copiers);
+              }
+            }
+          } finally {
+            copiers.shutdown();
+          }
+        } finally {
+          lock.release();
+        }
+      }
+      Files.delete(progressFile);
+      try {
+        Files.deleteIfExists(legacyDir);
+      } catch (DirectoryNotEmptyException e) {
+        // Conflicts or unmapped entries remain.
+      }
+      result.complete(new Result(renamed.get(), copied.get(), new ArrayList<Path>(conflicts)));
+    } catch (Throwable t) {
+      result.completeExceptionally(t);
+    }
+  }
+
+  /** Reads the total size recorded by an earlier run, or records the current size of the legacy directory as the total. */
+  private void startProgress(FileChannel channel) throws IOException {
+    long remaining = sizeOf(legacyDir);
+    ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), 64));
+    channel.read(buffer, 0);
+    String recorded = new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII).trim();
+    long total;
+    try {
+      total = Math.max(Long.parseLong(recorded), remaining);
+    } catch (NumberFormatException e) {
+      total = remaining;
+      channel.truncate(0);
+      channel.write(ByteBuffer.wrap((total + "\n").getBytes(StandardCharsets.US_ASCII)), 0);
+      channel.force(false);
+    }
+    this.total.set(total);
+    this.migrated.set(total - remaining);
+  }
+
+  private boolean isMapped(Path source) {
+    String name = source.getFileName().toString();
+    return name.equals(PROGRESS_FILE) || mapping.containsKey(name);
+  }
+
+  /** Moves {@code source} to {@code target}, renaming where possible and merging into existing directories. */
+  private void migrate(Path source, Path target, ExecutorService copiers) throws IOException {
+    if (!Files.exists(source, LinkOption.NOFOLLOW_LINKS))
+      return;
+    boolean directory = Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS);
+    if (!sameStore(source, target)) {
+      copyTree(source, target, copiers);
+      return;
+    }
+    if (!Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+      long size = directory ? sizeOf(source) : Files.size(source);
+      EnsureDirectories.ensure(target.getParent(), EnsureDirectories.PRIVATE);
+      // Left by a run that was interrupted while copying this file.
+      if (!directory)
+        Files.deleteIfExists(temporaryFile(target));
+      try {
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        // For example across bind mounts of the same file system.
+        copyTree(source, target, copiers);
+        return;
+      }
+      DirectorySync.sync(target.getParent());
+      renamed.incrementAndGet();
+      migrated.addAndGet(size);
+    } else if (directory && Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(source)) {
+        for (Path child : stream)
+          migrate(child, target.resolve(child.getFileName().toString()), copiers);
+      }
+      deleteIfEmpty(source);
+    } else {
+      resolveExisting(source, target);
+    }
+  }
+
+  /** Copies the tree at {@code source} in parallel, deleting each source file once its copy is durable. */
+  private void copyTree(Path source, Path target, ExecutorService copiers) throws IOException {
+    final List<Future<?>> pending = new ArrayList<Future<?>>();
+    final List<Path> directories = new ArrayList<Path>();
+    EnsureDirectories.ensure(target.getParent(), EnsureDirectories.PRIVATE);
+    Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+        EnsureDirectories.ensure(target.resolve(source.relativize(dir).toString()), permissionsOf(dir));
+        directories.add(dir);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+        Path to = target.resolve(source.relativize(file).toString());
+        pending.add(copiers.submit(() -> {
+          copyFile(file, to, attributes);
+          return null;
+        }));
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    IOException failure = null;
+    for (Future<?> future : pending) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted while migrating " + source, e);
+      } catch (ExecutionException e) {
+        if (failure == null)
+          failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+      }
+    }
+    if (failure != null)
+      throw failure;
+    for (int i = directories.size() - 1; i >= 0; i--)
+      deleteIfEmpty(directories.get(i));
+  }
+
+  private void copyFile(Path source, Path target, BasicFileAttributes attributes) throws IOException {
+    if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+      resolveExisting(source, target);
+      return;
+    }
+    if (attributes.isSymbolicLink()) {
+      Files.createSymbolicLink(target, Files.readSymbolicLink(source));
+    } else {
+      Path temp = temporaryFile(target);
+      Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+    // The source is only deleted once the rename of its copy is durable.
+    DirectorySync.sync(target.getParent());
+    Files.delete(source);
+    copied.incrementAndGet();
+    migrated.addAndGet(attributes.size());
+  }
+
+  /** Deletes {@code source} if {@code target} has the same content, as a copy left by an interrupted run does,
+    * or reports a conflict.
+    */
+  private void resolveExisting(Path source, Path target) throws IOException {
+    BasicFileAttributes from = Files.readAttributes(source, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    BasicFileAttributes to = Files.readAttributes(target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    if (from.isRegularFile() && to.isRegularFile() && from.size() == to.size()
+        && Files.mismatch(source, target) == -1) {
+      Files.delete(source);
+      migrated.addAndGet(from.size());
+    } else {
+      conflicts.add(source);
+    }
+  }
+
+  private static Path temporaryFile(Path target) {
+    return target.resolveSibling("." + target.getFileName() + ".migrating");
+  }
+
+  /** Returns the mode of {@code dir}, so that copied directories keep it, or {@value EnsureDirectories#PRIVATE}
+    * on file systems without POSIX permissions.
+    */
+  private static String permissionsOf(Path dir) throws IOException {
+    try {
+      return PosixFilePermissions.toString(Files.getPosixFilePermissions(dir, LinkOption.NOFOLLOW_LINKS));
+    } catch (UnsupportedOperationException e) {
+      return EnsureDirectories.PRIVATE;
+    }
+  }
+
+  private static void deleteIfEmpty(Path dir) throws IOException {
+    try {
+      Files.deleteIfExists(dir);
+    } catch (DirectoryNotEmptyException e) {
+      // Holds conflicts.
+    }
+  }
+
+  private static boolean sameStore(Path source, Path target) throws IOException {
+    Path existing = target.getParent();
+    while (existing != null && !Files.exists(existing))
+      existing = existing.getParent();
+    return existing != null && Files.getFileStore(source).equals(Files.getFileStore(existing));
+  }
+
+  private static long sizeOf(Path root) throws IOException {
+    final long[] size = { 0 };
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+        if (attributes.isRegularFile() && !file.getFileName().toString().equals(PROGRESS_FILE))
+          size[0] += attributes.size();
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return size[0];
+  }
+}
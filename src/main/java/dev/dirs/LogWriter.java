@@ -0,0 +1,343 @@
+package dev.dirs;
+
+import dev.dirs.impl.FileUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/** {@code LogWriter} appends log or history records to a file in a project's {@link ProjectDirectories#stateDir},
+  * batching writes on a background thread.
+  * <p>
+  * Callers only enqueue records; a dedicated thread drains whatever has accumulated and writes it with a single
+  * system call. The file is rotated once it exceeds a size or age limit; rotated files are compressed with gzip
+  * in the background, and the oldest ones are deleted beyond a configurable number.
+  * <p>
+  * On platforms without a state directory, {@link ProjectDirectories#dataLocalDir} is used instead,
+  * as it is not roaming and therefore not synchronized between machines.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * try (LogWriter log = LogWriter.open(ProjectDirectories.from("com", "Foo Corp", "Bar App"), "requests")) {
+  *   log.append("GET /index.html 200");
+  * }
+  * }</pre>
+  */
+public final class LogWriter implements AutoCloseable {
+
+  /** The default size after which the log file is rotated. */
+  public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+  /** The default age after which the log file is rotated. */
+  public static final Duration DEFAULT_MAX_AGE = Duration.ofDays(1);
+
+  /** The default number of rotated files that are kept. */
+  public static final int DEFAULT_MAX_FILES = 10;
+
+  private static final int QUEUE_CAPACITY = 8192;
+  private static final Object CLOSE = new Object();
+  private static final DateTimeFormatter ROTATION_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+  private static final ExecutorService COMPRESSOR = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "log-writer-compressor");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Path directory;
+  private final String name;
+  private final Path file;
+  private final long maxBytes;
+  private final long maxAgeMillis;
+  private final int maxFiles;
+  /** Matches the names of rotated files, {@code <name>.<yyyyMMdd-HHmmss>[-<n>].log[.gz]}, but not those of other logs. */
+  private final Pattern rotatedName;
+
+  private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<Object>(QUEUE_CAPACITY);
+  private final Thread writer;
+
+  private FileChannel channel;
+  private long size;
+  private long openedAt;
+  private volatile IOException failure;
+  private volatile boolean closed;
+
+  private LogWriter(Path directory, String name, long maxBytes, Duration maxAge, int maxFiles) throws IOException {
+    this.directory    = directory;
+    this.name         = name;
+    this.file         = directory.resolve(name + ".log");
+    this.maxBytes     = maxBytes;
+    this.maxAgeMillis = maxAge.toMillis();
+    this.maxFiles     = maxFiles;
+    this.rotatedName  = Pattern.compile(Pattern.quote(name) + "\\.(\\d{8}-\\d{6})(?:-(\\d{1,9}))?\\.log(\\.gz)?");
+    openFile();
+    this.writer = new Thread(this::run, "log-writer-" + name);
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /** Opens the log named {@code name} in the state directory of the given project, with the default rotation settings.
+    *
+    * @param projectDirectories The project whose {@link ProjectDirectories#stateDir} (or {@link ProjectDirectories#dataLocalDir}) contains the log.
+    * @param name               The name of the log, used as the file name {@code <name>.log} in the {@code logs} sub-directory.
+    *
+    * @return An open {@code LogWriter}, which must be closed to write out all records.
+    */
+  public static LogWriter open(ProjectDirectories projectDirectories, String name) throws IOException {
+    String root = projectDirectories.stateDir != null ? projectDirectories.stateDir : projectDirectories.dataLocalDir;
+    return open(Paths.get(root, "logs"), name, DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE, DEFAULT_MAX_FILES);
+  }
+
+  /** Opens the log named {@code name} in {@code directory}.
+    *
+    * @param directory The directory containing the log and its rotated files.
+    * @param name      The name of the log, used as the file name {@code <name>.log}.
+    * @param maxBytes  The size after which the log file is rotated.
+    * @param maxAge    The age after which the log file is rotated.
+    * @param maxFiles  The number of rotated files to keep.
+    *
+    * @return An open {@code LogWriter}, which must be closed to write out all records.
+    */
+  public static LogWriter open(Path directory, String name, long maxBytes, Duration maxAge, int maxFiles) throws IOException {
+    EnsureDirectories.ensure(directory, EnsureDirectories.PRIVATE);
+    LogWriter log = new LogWriter(directory, name, maxBytes, maxAge, maxFiles);
+    // Rotated files of an earlier process may not have been compressed before it exited.
+    COMPRESSOR.execute(log::compressLeftovers);
+    return log;
+  }
+
+  /** Returns the path of the current log file. */
+  public Path file() {
+    return file;
+  }
+
+  /** Enqueues {@code line}, followed by a line break, to be appended to the log. Blocks only while the queue is full. */
+  public void append(String line) throws IOException {
+    byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+    byte[] record = Arrays.copyOf(bytes, bytes.length + 1);
+    record[bytes.length] = '\n';
+    enqueue(record);
+  }
+
+  /** Enqueues {@code record} to be appended to the log as is. Blocks only while the queue is full. */
+  public void append(byte[] record) throws IOException {
+    enqueue(record);
+  }
+
+  /** Returns once all records enqueued before this call have been handed to the operating system. */
+  public void flush() throws IOException {
+    CompletableFuture<Void> marker = new CompletableFuture<Void>();
+    enqueue(marker);
+    try {
+      marker.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while flushing " + file);
+    } catch (ExecutionException e) {
+      throw new IOException("failed to write " + file, e.getCause());
+    }
+  }
+
+  /** Writes out all enqueued records and closes the log file. Rotated files may still be compressed afterwards. */
+  @Override
+  public void close() throws IOException {
+    if (closed)
+      return;
+    try {
+      flush();
+    } finally {
+      closed = true;
+      // A sentinel rather than an interrupt, which would close the channel in the middle of a write.
+      try {
+        queue.put(CLOSE);
+        writer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      channel.close();
+    }
+  }
+
+  private void enqueue(Object element) throws IOException {
+    if (closed)
+      throw new IOException("log " + file + " is closed");
+    if (failure != null)
+      throw failure;
+    try {
+      queue.put(element);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while appending to " + file);
+    }
+  }
+
+  private void run() {
+    List<Object> batch = new ArrayList<Object>();
+    boolean stop = false;
+    while (!stop) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        continue;
+      }
+      queue.drainTo(batch);
+      stop = batch.contains(CLOSE);
+      write(batch);
+      batch.clear();
+    }
+  }
+
+  /** Writes the records of {@code batch} with one gathering write, then completes the flush markers contained in it. */
+  @SuppressWarnings("unchecked")
+  private void write(List<Object> batch) {
+    List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(batch.size());
+    long bytes = 0;
+    for (Object element : batch) {
+      if (element instanceof byte[]) {
+        buffers.add(ByteBuffer.wrap((byte[]) element));
+        bytes += ((byte[]) element).length;
+      }
+    }
+    try {
+      if (failure == null && bytes > 0) {
+        if (size > 0 && (size + bytes > maxBytes || System.currentTimeMillis() - openedAt > maxAgeMillis))
+          rotate();
+        ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+        long remaining = bytes;
+        while (remaining > 0)
+          remaining -= channel.write(array);
+        size += bytes;
+      }
+    } catch (IOException e) {
+      failure = e;
+    }
+    for (Object element : batch) {
+      if (element instanceof CompletableFuture) {
+        if (failure != null)
+          ((CompletableFuture<Void>) element).completeExceptionally(failure);
+        else
+          ((CompletableFuture<Void>) element).complete(null);
+      }
+    }
+  }
+
+  private void openFile() throws IOException {
+    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    size = channel.size();
+    openedAt = size == 0 ? System.currentTimeMillis()
+        : Files.readAttributes(file, BasicFileAttributes.class).creationTime().toMillis();
+  }
+
+  private void rotate() throws IOException {
+    channel.close();
+    String stamp = LocalDateTime.now().format(ROTATION_FORMAT);
+    Path rotated = directory.resolve(name + "." + stamp + ".log");
+    for (int i = 1; Files.exists(rotated) || Files.exists(rotated.resolveSibling(rotated.getFileName() + ".gz")); i++)
+      rotated = directory.resolve(name + "." + stamp + "-" + i + ".log");
+    Files.move(file, rotated, StandardCopyOption.ATOMIC_MOVE);
+    openFile();
+    final Path compress = rotated;
+    COMPRESSOR.execute(() -> {
+      compress(compress);
+      prune();
+    });
+  }
+
+  private void compressLeftovers() {
+    try {
+      for (Path rotated : rotatedFiles())
+        if (!rotated.getFileName().toString().endsWith(".gz"))
+          compress(rotated);
+    } catch (IOException e) {
+      // Left uncompressed; tried again the next time the log is opened.
+    }
+    prune();
+  }
+
+  /** Returns the rotated files of this log, compressed or not. */
+  private List<Path> rotatedFiles() throws IOException {
+    List<Path> rotated = new ArrayList<Path>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, name + ".*")) {
+      for (Path path : stream)
+        if (rotatedName.matcher(path.getFileName().toString()).matches())
+          rotated.add(path);
+    }
+    return rotated;
+  }
+
+  /** Compresses {@code rotated} into {@code <rotated>.gz} through a temporary file, then deletes it. */
+  private static void compress(Path rotated) {
+    Path target = rotated.resolveSibling(rotated.getFileName() + ".gz");
+    Path temp   = rotated.resolveSibling(rotated.getFileName() + ".gz.tmp");
+    try {
+      try (InputStream in = Files.newInputStream(rotated);
+           OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), 64 * 1024)) {
+        in.transferTo(out);
+      }
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      Files.delete(rotated);
+    } catch (IOException e) {
+      try {
+        Files.deleteIfExists(temp);
+      } catch (IOException ignored) {
+        // Nothing left to clean up.
+      }
+    }
+  }
+
+  /** Deletes the oldest rotated files beyond {@link #maxFiles}, ordered by the timestamp and collision index in their names. */
+  private void prune() {
+    List<Path> rotated;
+    try {
+      rotated = rotatedFiles();
+    } catch (IOException e) {
+      return;
+    }
+    if (rotated.size() <= maxFiles)
+      return;
+    rotated.sort(Comparator.comparing((Path path) -> stamp(path)).thenComparingInt(path -> collision(path)));
+    for (Path path : rotated.subList(0, rotated.size() - maxFiles)) {
+      try {
+        FileUtil.deleteRecursively(path);
+      } catch (IOException e) {
+        // Retried on the next rotation.
+      }
+    }
+  }
+
+  private String stamp(Path rotated) {
+    Matcher matcher = rotatedName.matcher(rotated.getFileName().toString());
+    return matcher.matches() ? matcher.group(1) : "";
+  }
+
+  private int collision(Path rotated) {
+    Matcher matcher = rotatedName.matcher(rotated.getFileName().toString());
+    return matcher.matches() && matcher.group(2) != null ? Integer.parseInt(matcher.group(2)) : 0;
+  }
+}
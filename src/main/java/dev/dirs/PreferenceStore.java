@@ -0,0 +1,414 @@
+package dev.dirs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** {@code PreferenceStore} is a small typed key-value store backed by a memory-mapped file in a {@link ProjectDirectories#preferenceDir}.
+  * <p>
+  * Values are stored in fixed-size binary slots, so reads neither parse nor allocate (except for strings).
+  * Updates are written straight into the mapping, where they are immediately visible to other processes
+  * that have the same file open, and are flushed to disk periodically instead of on every change.
+  * <p>
+  * Readers do not block: a sequence counter in the file header allows them to detect and retry reads
+  * that overlapped an update. Writers in different processes are serialized with a file lock. A reader that keeps
+  * finding an update in progress waits for the file lock instead, and repairs the counter if the writer died.
+  * <p>
+  * Keys are limited to {@value #MAX_KEY_LENGTH} and string values to {@value #MAX_STRING_LENGTH} bytes of UTF-8.
+  * Removed keys keep their slot, which is reused if the key is set again.
+  */
+public final class PreferenceStore implements AutoCloseable {
+
+  /** The maximum length of a key, in bytes of UTF-8. */
+  public static final int MAX_KEY_LENGTH = 56;
+
+  /** The maximum length of a string value, in bytes of UTF-8. */
+  public static final int MAX_STRING_LENGTH = 64;
+
+  static final int DEFAULT_CAPACITY = 512;
+  static final long FLUSH_INTERVAL_MILLIS = 1000;
+  static final int  MAX_SPINS = 10000;
+
+  private static final int MAGIC        = 0x44505246;
+  private static final int VERSION      = 1;
+  private static final int HEADER_SIZE  = 64;
+  private static final int SLOT_SIZE    = 128;
+  private static final int SEQUENCE     = 8;
+  private static final int COUNT        = 16;
+  private static final int CAPACITY     = 20;
+  private static final int TYPE         = 0;
+  private static final int KEY_LENGTH   = 1;
+  private static final int VALUE_LENGTH = 2;
+  private static final int KEY          = 8;
+  private static final int VALUE        = 64;
+
+  private static final byte REMOVED = 0;
+  private static final byte BOOLEAN = 1;
+  private static final byte INT     = 2;
+  private static final byte LONG    = 3;
+  private static final byte DOUBLE  = 4;
+  private static final byte STRING  = 5;
+
+  private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+  private static final VarHandle INTS  = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+  private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "preference-store-flusher");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /** Writers within this JVM are serialized per file, as file locks are held on behalf of the whole process. */
+  private static final ConcurrentHashMap<Path, ReentrantLock> WRITE_LOCKS = new ConcurrentHashMap<Path, ReentrantLock>();
+
+  private final Path file;
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+  private final ReentrantLock writeLock;
+  private final ScheduledFuture<?> flushTask;
+
+  private final Map<String, Integer> slots = new ConcurrentHashMap<String, Integer>();
+  private int knownCount;
+  private volatile boolean dirty;
+  private volatile boolean closed;
+
+  private PreferenceStore(Path file, FileChannel channel, MappedByteBuffer buffer, int capacity, ReentrantLock writeLock) {
+    this.file      = file;
+    this.channel   = channel;
+    this.buffer    = buffer;
+    this.capacity  = capacity;
+    this.writeLock = writeLock;
+    this.flushTask = FLUSHER.scheduleWithFixedDelay(this::flushIfDirty, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /** Opens the preference store named {@code name} in the preference directory of the given project, creating it if necessary.
+    *
+    * @param projectDirectories The project whose {@link ProjectDirectories#preferenceDir} contains the store.
+    * @param name               The name of the store, used as the file name {@code <name>.prefs}.
+    *
+    * @return An open {@code PreferenceStore}, which must be closed after use.
+    */
+  public static PreferenceStore open(ProjectDirectories projectDirectories, String name) throws IOException {
+    return open(Paths.get(projectDirectories.preferenceDir, name + ".prefs"));
+  }
+
+  /** Opens the preference store in {@code file}, creating it if necessary.
+    *
+    * @param file The file backing the store.
+    *
+    * @return An open {@code PreferenceStore}, which must be closed after use.
+    */
+  public static PreferenceStore open(Path file) throws IOException {
+    return open(file, DEFAULT_CAPACITY);
+  }
+
+  static PreferenceStore open(Path file, int capacity) throws IOException {
+    file = file.toAbsolutePath().normalize();
+    Path parent = file.getParent();
+    if (parent != null)
+      Files.createDirectories(parent);
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    ReentrantLock writeLock = WRITE_LOCKS.computeIfAbsent(file, p -> new ReentrantLock());
+    writeLock.lock();
+    try {
+      MappedByteBuffer buffer;
+      FileLock lock = channel.lock();
+      try {
+        if (channel.size() == 0) {
+          buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+          buffer.order(ByteOrder.nativeOrder());
+          buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(CAPACITY, capacity);
+          buffer.force();
+        } else {
+          capacity = readCapacity(channel, file);
+          buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+          buffer.order(ByteOrder.nativeOrder());
+        }
+      } finally {
+        lock.release();
+      }
+      return new PreferenceStore(file, channel, buffer, capacity, writeLock);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private static int readCapacity(FileChannel channel, Path file) throws IOException {
+    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+    header.order(ByteOrder.nativeOrder());
+    if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+      throw new IOException(file + " is not a preference store");
+    int capacity = header.getInt(CAPACITY);
+    if (capacity <= 0 || channel.size() < HEADER_SIZE + (long) capacity * SLOT_SIZE)
+      throw new IOException(file + " is truncated");
+    return capacity;
+  }
+
+  /** Returns the boolean stored for {@code key}, or {@code defaultValue} if there is none or it has a different type. */
+  public boolean getBoolean(String key, boolean defaultValue) {
+    return (boolean) read(key, BOOLEAN, defaultValue);
+  }
+
+  /** Returns the int stored for {@code key}, or {@code defaultValue} if there is none or it has a different type. */
+  public int getInt(String key, int defaultValue) {
+    return (int) read(key, INT, defaultValue);
+  }
+
+  /** Returns the long stored for {@code key}, or {@code defaultValue} if there is none or it has a different type. */
+  public long getLong(String key, long defaultValue) {
+    return (long) read(key, LONG, defaultValue);
+  }
+
+  /** Returns the double stored for {@code key}, or {@code defaultValue} if there is none or it has a different type. */
+  public double getDouble(String key, double defaultValue) {
+    return (double) read(key, DOUBLE, defaultValue);
+  }
+
+  /** Returns the string stored for {@code key}, or {@code defaultValue} if there is none or it has a different type. */
+  public String getString(String key, String defaultValue) {
+    return (String) read(key, STRING, defaultValue);
+  }
+
+  /** Stores {@code value} for {@code key}, replacing a value of any type. */
+  public void putBoolean(String key, boolean value) throws IOException {
+    write(key, BOOLEAN, value ? 1 : 0, null);
+  }
+
+  /** Stores {@code value} for {@code key}, replacing a value of any type. */
+  public void putInt(String key, int value) throws IOException {
+    write(key, INT, value, null);
+  }
+
+  /** Stores {@code value} for {@code key}, replacing a value of any type. */
+  public void putLong(String key, long value) throws IOException {
+    write(key, LONG, value, null);
+  }
+
+  /** Stores {@code value} for {@code key}, replacing a value of any type. */
+  public void putDouble(String key, double value) throws IOException {
+    write(key, DOUBLE, Double.doubleToRawLongBits(value), null);
+  }
+
+  /** Stores {@code value} for {@code key}, replacing a value of any type. */
+  public void putString(String key, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > MAX_STRING_LENGTH)
+      throw new IllegalArgumentException("value for key '" + key + "' exceeds " + MAX_STRING_LENGTH + " bytes");
+    write(key, STRING, 0, bytes);
+  }
+
+  /** Removes the value stored for {@code key}, if any. */
+  public void remove(String key) throws IOException {
+    if (slotOf(key) >= 0)
+      write(key, REMOVED, 0, null);
+  }
+
+  /** Returns {@code true} if a value of any type is stored for {@code key}. */
+  public boolean contains(String key) {
+    return read(key, (byte) -1, null) != null;
+  }
+
+  /** Returns the keys that currently have a value. */
+  public List<String> keys() {
+    refreshSlots();
+    List<String> keys = new ArrayList<String>();
+    for (String key : slots.keySet())
+      if (contains(key))
+        keys.add(key);
+    return keys;
+  }
+
+  /** Forces all updates made so far to disk, instead of waiting for the next periodic flush. */
+  public void flush() {
+    dirty = false;
+    buffer.force();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed)
+      return;
+    closed = true;
+    flushTask.cancel(false);
+    flush();
+    channel.close();
+  }
+
+  private void flushIfDirty() {
+    if (dirty && !closed)
+      flush();
+  }
+
+  /** Reads the value of {@code key} under the sequence counter, retrying while a writer is active.
+    * A negative {@code type} accepts values of any type.
+    */
+  private Object read(String key, byte type, Object defaultValue) {
+    int slot = slotOf(key);
+    if (slot < 0)
+      return defaultValue;
+    int base = HEADER_SIZE + slot * SLOT_SIZE;
+    int spins = 0;
+    while (true) {
+      long before = (long) LONGS.getAcquire(buffer, SEQUENCE);
+      if ((before & 1) != 0) {
+        if (++spins < MAX_SPINS) {
+          Thread.onSpinWait();
+        } else {
+          spins = 0;
+          awaitWriter();
+        }
+        continue;
+      }
+      byte actual = buffer.get(base + TYPE);
+      Object value;
+      if (actual == REMOVED || type >= 0 && actual != type) {
+        value = defaultValue;
+      } else {
+        switch (actual) {
+          case BOOLEAN: value = buffer.getLong(base + VALUE) != 0; break;
+          case INT:     value = (int) buffer.getLong(base + VALUE); break;
+          case LONG:    value = buffer.getLong(base + VALUE); break;
+          case DOUBLE:  value = Double.longBitsToDouble(buffer.getLong(base + VALUE)); break;
+          case STRING:  value = readString(base + VALUE, buffer.getShort(base + VALUE_LENGTH)); break;
+          default:      value = defaultValue;
+        }
+      }
+      VarHandle.acquireFence();
+      if ((long) LONGS.getVolatile(buffer, SEQUENCE) == before)
+        return value;
+    }
+  }
+
+  /** Waits for the current writer by taking the write lock. A sequence that is still odd then belongs to a writer
+    * that died in the middle of an update, and is made even again.
+    */
+  private void awaitWriter() {
+    try {
+      writeLock.lock();
+      try {
+        FileLock lock = channel.lock();
+        try {
+          long sequence = (long) LONGS.getVolatile(buffer, SEQUENCE);
+          if ((sequence & 1) != 0)
+            LONGS.setRelease(buffer, SEQUENCE, sequence + 1);
+        } finally {
+          lock.release();
+        }
+      } finally {
+        writeLock.unlock();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private String readString(int offset, int length) {
+    if (length < 0 || length > MAX_STRING_LENGTH)
+      return null; // torn read, which the sequence check will reject
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++)
+      bytes[i] = buffer.get(offset + i);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private void write(String key, byte type, long value, byte[] string) throws IOException {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    if (keyBytes.length == 0 || keyBytes.length > MAX_KEY_LENGTH)
+      throw new IllegalArgumentException("key '" + key + "' must be between 1 and " + MAX_KEY_LENGTH + " bytes");
+    if (closed)
+      throw new IOException("preference store " + file + " is closed");
+    writeLock.lock();
+    try {
+      FileLock lock = channel.lock();
+      try {
+        int slot = slotOf(key);
+        if (slot < 0) {
+          int count = (int) INTS.getVolatile(buffer, COUNT);
+          if (count >= capacity)
+            throw new IllegalStateException("preference store " + file + " is full (" + capacity + " keys)");
+          slot = count;
+        }
+        int base = HEADER_SIZE + slot * SLOT_SIZE;
+        long sequence = (long) LONGS.getVolatile(buffer, SEQUENCE);
+        // An odd sequence under the lock was left by a writer that died in the middle of an update.
+        sequence += sequence & 1;
+        LONGS.setVolatile(buffer, SEQUENCE, sequence + 1);
+        buffer.put(base + TYPE, type);
+        buffer.put(base + KEY_LENGTH, (byte) keyBytes.length);
+        for (int i = 0; i < keyBytes.length; i++)
+          buffer.put(base + KEY + i, keyBytes[i]);
+        if (string != null) {
+          buffer.putShort(base + VALUE_LENGTH, (short) string.length);
+          for (int i = 0; i < string.length; i++)
+            buffer.put(base + VALUE + i, string[i]);
+        } else {
+          buffer.putLong(base + VALUE, value);
+        }
+        if (slot == (int) INTS.getVolatile(buffer, COUNT))
+          INTS.setVolatile(buffer, COUNT, slot + 1);
+        LONGS.setRelease(buffer, SEQUENCE, sequence + 2);
+        slots.put(key, slot);
+        dirty = true;
+      } finally {
+        lock.release();
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private int slotOf(String key) {
+    Integer slot = slots.get(key);
+    if (slot == null) {
+      refreshSlots();
+      slot = slots.get(key);
+    }
+    return slot == null ? -1 : slot;
+  }
+
+  /** Picks up keys added since the last refresh, by this or another process. Slots are append-only, so known keys never move. */
+  private synchronized void refreshSlots() {
+    int count = Math.min((int) INTS.getAcquire(buffer, COUNT), capacity);
+    for (int slot = knownCount; slot < count; slot++) {
+      int base = HEADER_SIZE + slot * SLOT_SIZE;
+      int length = buffer.get(base + KEY_LENGTH);
+      byte[] key = new byte[length];
+      for (int i = 0; i < length; i++)
+        key[i] = buffer.get(base + KEY + i);
+      slots.put(new String(key, StandardCharsets.UTF_8), slot);
+    }
+    knownCount = Math.max(knownCount, count);
+  }
+
+  @Override
+  public String toString() {
+    Map<String, Object> values = new HashMap<String, Object>();
+    for (String key : keys())
+      values.put(key, read(key, (byte) -1, null));
+    return "PreferenceStore (" + file + "): " + values;
+  }
+}
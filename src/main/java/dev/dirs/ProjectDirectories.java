@@ -5,6 +5,8 @@ import dev.dirs.impl.MacOs;
 import dev.dirs.impl.Util;
 import dev.dirs.impl.Windows;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 
 /** {@code ProjectDirectories} computes the location of cache, config or data directories for a specific application,
@@ -31,7 +33,8 @@ public final class ProjectDirectories {
       final String dataDir,
       final String dataLocalDir,
       final String preferenceDir,
-      final String runtimeDir) {
+      final String runtimeDir,
+      final String stateDir) {
 
     Objects.requireNonNull(projectPath);
 
@@ -42,6 +45,7 @@ public final class ProjectDirectories {
     this.dataLocalDir  = dataLocalDir;
     this.preferenceDir = preferenceDir;
     this.runtimeDir    = runtimeDir;
+    this.stateDir      = stateDir;
   }
 
   /** Returns the project path fragment used to compute the project's cache/config/data directories.
@@ -200,7 +204,7 @@ public final class ProjectDirectories {
     * </tr>
     * <tr>
     * <td>Linux/BSD</td>
-    * <td>{@code $XDG_RUNTIME_DIR}</td>
+    * <td>{@code $XDG_RUNTIME_DIR}/{@code <project_path>}, or else the fallback of {@link BaseDirectories#runtimeDir}/{@code <project_path>}</td>
     * <td>/run/user/1001/barapp</td>
     * </tr>
     * <tr>
@@ -217,6 +221,37 @@ public final class ProjectDirectories {
     */
   public final String runtimeDir;
 
+  /** Returns the path to the project's state directory,
+    * in which {@code <project_path>} is the value of {@link ProjectDirectories#projectPath}.
+    * <p>
+    * The state directory is meant for data that should persist between restarts of the application, but that does not
+    * belong in {@link ProjectDirectories#dataDir}, such as logs and history.
+    * <br><br>
+    * <table border="1" cellpadding="1" cellspacing="0">
+    * <tr>
+    * <th align="left">Platform</th>
+    * <th align="left">Value</th>
+    * <th align="left">Example</th>
+    * </tr>
+    * <tr>
+    * <td>Linux/BSD</td>
+    * <td>{@code $XDG_STATE_HOME}/{@code <project_path>} or {@code $HOME}/.local/state/{@code <project_path>}</td>
+    * <td>/home/alice/.local/state/barapp</td>
+    * </tr>
+    * <tr>
+    * <td>macOS</td>
+    * <td>–</td>
+    * <td>{@code null}</td>
+    * </tr>
+    * <tr>
+    * <td>Windows</td>
+    * <td>–</td>
+    * <td>{@code null}</td>
+    * </tr>
+    * </table>
+    */
+  public final String stateDir;
+
   /** Creates a {@code ProjectDirectories} instance directly from a path.
     * <p>
     * The argument is used verbatim and is not adapted to operating system standards.
@@ -235,6 +270,7 @@ public final class ProjectDirectories {
     String dataLocalDir;
     String preferenceDir;
     String runtimeDir = null;
+    String stateDir   = null;
     switch (Constants.operatingSystem) {
       case Constants.LIN:
       case Constants.BSD:
@@ -248,6 +284,7 @@ public final class ProjectDirectories {
         dataLocalDir  = dataDir;
         preferenceDir = configDir;
         runtimeDir    = Linux.runtimeDir(path);
+        stateDir      = Util.defaultIfNullOrEmptyExtended(System.getenv("XDG_STATE_HOME"),  path, homeDir + "/.local/state/", path);
         break;
       case Constants.MAC:
         homeDir       = System.getProperty("user.home");
@@ -269,7 +306,7 @@ public final class ProjectDirectories {
       default:
         throw new UnsupportedOperatingSystemException("Project directories are not supported on " + Constants.operatingSystemName);
     }
-    return new ProjectDirectories(path, cacheDir, configDir, dataDir, dataLocalDir, preferenceDir, runtimeDir);
+    return new ProjectDirectories(path, cacheDir, configDir, dataDir, dataLocalDir, preferenceDir, runtimeDir, stateDir);
   }
 
   /** Creates a {@code ProjectDirectories} instance from values describing the project.
@@ -316,6 +353,19 @@ public final class ProjectDirectories {
     return fromPath(path);
   }
 
+  /** Returns the directories of this instance by field name, in declaration order. Values may be {@code null}. */
+  Map<String, String> directories() {
+    Map<String, String> dirs = new LinkedHashMap<String, String>();
+    dirs.put("cacheDir",      cacheDir);
+    dirs.put("configDir",     configDir);
+    dirs.put("dataDir",       dataDir);
+    dirs.put("dataLocalDir",  dataLocalDir);
+    dirs.put("preferenceDir", preferenceDir);
+    dirs.put("runtimeDir",    runtimeDir);
+    dirs.put("stateDir",      stateDir);
+    return dirs;
+  }
+
   @Override
   public String toString() {
     return "ProjectDirectories (" + Constants.operatingSystemName + "):\n" +
@@ -325,7 +375,8 @@ public final class ProjectDirectories {
         "  dataDir       = '" + dataDir + "'\n" +
         "  dataLocalDir  = '" + dataLocalDir + "'\n" +
         "  preferenceDir = '" + preferenceDir + "'\n" +
-        "  runtimeDir    = '" + runtimeDir + "'\n";
+        "  runtimeDir    = '" + runtimeDir + "'\n" +
+        "  stateDir      = '" + stateDir + "'\n";
   }
 
   @Override
@@ -348,6 +399,8 @@ public final class ProjectDirectories {
       return false;
     if (runtimeDir    != null ? !runtimeDir   .equals(that.runtimeDir)    : that.runtimeDir    != null)
       return false;
+    if (stateDir      != null ? !stateDir     .equals(that.stateDir)      : that.stateDir      != null)
+      return false;
     return true;
   }
 
@@ -360,6 +413,7 @@ public final class ProjectDirectories {
     result = 31 * result + (dataLocalDir  != null ? dataLocalDir .hashCode() : 0);
     result = 31 * result + (preferenceDir != null ? preferenceDir.hashCode() : 0);
     result = 31 * result + (runtimeDir    != null ? runtimeDir   .hashCode() : 0);
+    result = 31 * result + (stateDir      != null ? stateDir     .hashCode() : 0);
     return result;
   }
 }
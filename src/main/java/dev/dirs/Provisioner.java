@@ -0,0 +1,249 @@
+package dev.dirs;
+
+import dev.dirs.impl.Util;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** {@code Provisioner} copies default files bundled as class path resources into a project's
+  * {@link ProjectDirectories#configDir} and {@link ProjectDirectories#dataDir}.
+  * <p>
+  * The files to copy are listed in a manifest resource, one per line, each starting with {@code config/} or
+  * {@code data/} to select the target directory. Blank lines and lines starting with {@code #} are ignored.
+  * Resources are looked up relative to the manifest:
+  * <pre>
+  * # defaults/manifest.txt
+  * config/settings.json
+  * data/themes/dark.css
+  * </pre>
+  * Resources are read and compared in parallel. A file is written if it is missing, or if it still has the content
+  * provisioned last time and the bundled default has changed since. Files the user has modified are left alone.
+  * All files written to one directory are published with a single {@link AtomicFiles.Transaction}, so a crash leaves
+  * either all or none of them in place. The checksums of the provisioned content are kept in a
+  * {@value #CHECKSUMS_FILE} file in each directory, published in the same transaction.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * ProjectDirectories dirs = ProjectDirectories.from("com", "Foo Corp", "Bar App");
+  * Provisioner.provision(dirs, BarApp.class.getClassLoader(), "defaults/manifest.txt");
+  * }</pre>
+  */
+public final class Provisioner {
+
+  private Provisioner() {}
+
+  /** The name of the file recording the checksums of provisioned files, in each target directory. */
+  public static final String CHECKSUMS_FILE = ".provisioned";
+
+  private static final String CONFIG_PREFIX = "config/";
+  private static final String DATA_PREFIX   = "data/";
+
+  /** The outcome of provisioning, as paths relative to their target directory, prefixed like in the manifest. */
+  public static final class Result {
+
+    /** Files that were missing or outdated, and have been written. */
+    public final List<String> written;
+
+    /** Files that already had the bundled content. */
+    public final List<String> unchanged;
+
+    /** Files that differ from the bundled content because they have been modified, and were left alone. */
+    public final List<String> kept;
+
+    Result(List<String> written, List<String> unchanged, List<String> kept) {
+      this.written   = Collections.unmodifiableList(written);
+      this.unchanged = Collections.unmodifiableList(unchanged);
+      this.kept      = Collections.unmodifiableList(kept);
+    }
+
+    @Override
+    public String toString() {
+      return "Provisioner.Result(written: " + written + ", unchanged: " + unchanged + ", kept: " + kept + ")";
+    }
+  }
+
+  /** Provisions the files listed in the manifest resource {@code manifest} into the directories of {@code projectDirectories}.
+    *
+    * @param projectDirectories The project whose config and data directories receive the files.
+    * @param loader             The class loader to load the manifest and the files from.
+    * @param manifest           The resource name of the manifest, for example {@code "defaults/manifest.txt"}.
+    *
+    * @return The outcome for each file listed in the manifest.
+    *
+    * @throws IOException If the manifest or one of the resources listed in it cannot be read, or the files cannot be published.
+    *                     Nothing is published to a directory if one of its files could not be read.
+    */
+  public static Result provision(ProjectDirectories projectDirectories, ClassLoader loader, String manifest) throws IOException {
+    return provision(projectDirectories.configDir, projectDirectories.dataDir, loader, manifest);
+  }
+
+  static Result provision(String configDir, String dataDir, ClassLoader loader, String manifest) throws IOException {
+    List<String> entries = readManifest(loader, manifest);
+    String base = manifest.lastIndexOf('/') >= 0 ? manifest.substring(0, manifest.lastIndexOf('/') + 1) : "";
+    Map<String, List<String>> byRoot = new LinkedHashMap<String, List<String>>();
+    for (String entry : entries) {
+      String root;
+      if (entry.startsWith(CONFIG_PREFIX))
+        root = configDir;
+      else if (entry.startsWith(DATA_PREFIX))
+        root = dataDir;
+      else
+        throw new IOException("manifest " + manifest + " lists '" + entry + "', which starts with neither " + CONFIG_PREFIX + " nor " + DATA_PREFIX);
+      byRoot.computeIfAbsent(root, r -> new ArrayList<String>()).add(entry);
+    }
+
+    List<String> written   = new ArrayList<String>();
+    List<String> unchanged = new ArrayList<String>();
+    List<String> kept      = new ArrayList<String>();
+    for (Map.Entry<String, List<String>> root : byRoot.entrySet())
+      provision(EnsureDirectories.ensure(root.getKey()), loader, base, root.getValue(), written, unchanged, kept);
+    return new Result(written, unchanged, kept);
+  }
+
+  private static void provision(Path root, ClassLoader loader, String base, List<String> entries,
+                                List<String> written, List<String> unchanged, List<String> kept) throws IOException {
+    Map<String, String> checksums = readChecksums(root.resolve(CHECKSUMS_FILE));
+    boolean checksumsChanged = false;
+    try (AtomicFiles.Transaction transaction = AtomicFiles.begin(root)) {
+      Map<String, Future<Outcome>> pending = new LinkedHashMap<String, Future<Outcome>>();
+      try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+        for (String entry : entries) {
+          String relative = entry.substring(entry.indexOf('/') + 1);
+          String previous = checksums.get(relative);
+          pending.put(entry, executor.submit(() -> provision(transaction, root, loader, base + entry, relative, previous)));
+        }
+      }
+      for (Map.Entry<String, Future<Outcome>> entry : pending.entrySet()) {
+        Outcome outcome = await(entry.getValue());
+        String relative = entry.getKey().substring(entry.getKey().indexOf('/') + 1);
+        if (outcome.written) {
+          written.add(entry.getKey());
+        } else if (outcome.checksum.equals(outcome.existing)) {
+          unchanged.add(entry.getKey());
+        } else {
+          kept.add(entry.getKey());
+          continue;
+        }
+        if (!outcome.checksum.equals(checksums.put(relative, outcome.checksum)))
+          checksumsChanged = true;
+      }
+      if (checksumsChanged)
+        transaction.write(CHECKSUMS_FILE, formatChecksums(checksums));
+      transaction.commit();
+    }
+  }
+
+  /** Stages the resource for {@code relative} if the file is missing or still has the previously provisioned content. */
+  private static Outcome provision(AtomicFiles.Transaction transaction, Path root, ClassLoader loader, String resource,
+                                   String relative, String previous) throws IOException {
+    byte[] content;
+    try (InputStream in = loader.getResourceAsStream(resource)) {
+      if (in == null)
+        throw new NoSuchFileException(resource, null, "resource not found");
+      content = in.readAllBytes();
+    }
+    String checksum = sha256(content);
+    String existing;
+    try {
+      existing = sha256(Files.readAllBytes(root.resolve(relative)));
+    } catch (NoSuchFileException e) {
+      existing = null;
+    }
+    if (existing == null || (!existing.equals(checksum) && existing.equals(previous))) {
+      transaction.write(relative, content);
+      return new Outcome(checksum, existing, true);
+    }
+    return new Outcome(checksum, existing, false);
+  }
+
+  private static Outcome await(Future<Outcome> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while provisioning", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private static List<String> readManifest(ClassLoader loader, String manifest) throws IOException {
+    InputStream in = loader.getResourceAsStream(manifest);
+    if (in == null)
+      throw new NoSuchFileException(manifest, null, "manifest resource not found");
+    List<String> entries = new ArrayList<String>();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (!line.isEmpty() && !line.startsWith("#"))
+          entries.add(line);
+      }
+    }
+    return entries;
+  }
+
+  /** Reads the checksums file, in the format of {@code sha256sum}: the hex digest, two spaces and the relative path. */
+  private static Map<String, String> readChecksums(Path file) throws IOException {
+    Map<String, String> checksums = new LinkedHashMap<String, String>();
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      return checksums;
+    }
+    for (String line : lines) {
+      int separator = line.indexOf("  ");
+      if (separator > 0)
+        checksums.put(line.substring(separator + 2), line.substring(0, separator));
+    }
+    return checksums;
+  }
+
+  private static byte[] formatChecksums(Map<String, String> checksums) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (Map.Entry<String, String> checksum : checksums.entrySet())
+      out.writeBytes((checksum.getValue() + "  " + checksum.getKey() + "\n").getBytes(StandardCharsets.UTF_8));
+    return out.toByteArray();
+  }
+
+  private static String sha256(byte[] content) {
+    try {
+      return Util.toHexString(MessageDigest.getInstance("SHA-256").digest(content));
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static final class Outcome {
+    final String checksum;
+    final String existing;
+    final boolean written;
+
+    Outcome(String checksum, String existing, boolean written) {
+      this.checksum = checksum;
+      this.existing = existing;
+      this.written  = written;
+    }
+  }
+}
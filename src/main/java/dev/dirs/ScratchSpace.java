@@ -0,0 +1,297 @@
+package dev.dirs;
+
+import dev.dirs.impl.FileUtil;
+import dev.dirs.impl.OwnedDirectories;
+import dev.dirs.impl.Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** {@code ScratchSpace} is a temporary working directory for a project, placed on the fastest storage that has room for it.
+  * <p>
+  * The candidates are the project's {@link ProjectDirectories#runtimeDir}, its {@link ProjectDirectories#cacheDir}
+  * and a directory in {@code java.io.tmpdir} that only the current user can access. Memory-backed file systems are
+  * preferred if they can hold the requested size with room to spare; among the remaining candidates, the one with the
+  * highest measured write throughput wins if probing is requested, and otherwise the first one in the order above.
+  * <p>
+  * A scratch space is deleted when it is closed, when the JVM exits, and – if the JVM crashed – the next time
+  * a scratch space is allocated in the same location.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * try (ScratchSpace scratch = ScratchSpace.allocate(ProjectDirectories.from("com", "Foo Corp", "Bar App"), 2L << 30)) {
+  *   sortRuns(scratch.path());
+  * }
+  * }</pre>
+  */
+public final class ScratchSpace implements AutoCloseable {
+
+  private static final String PREFIX = "scratch-";
+  private static final long   PID    = ProcessHandle.current().pid();
+
+  private static final int  PROBE_SIZE       = 4 * 1024 * 1024;
+  private static final long MINIMUM_HEADROOM = 64L * 1024 * 1024;
+
+  private static final Set<ScratchSpace>       OPEN    = ConcurrentHashMap.newKeySet();
+  private static final Set<Path>               SWEPT   = ConcurrentHashMap.newKeySet();
+  private static final ConcurrentHashMap<FileStore, Double> THROUGHPUT = new ConcurrentHashMap<FileStore, Double>();
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      for (ScratchSpace scratch : OPEN)
+        scratch.delete();
+    }, "scratch-space-cleanup"));
+  }
+
+  private final Path path;
+  private final String storeType;
+  private final boolean memoryBacked;
+
+  private ScratchSpace(Path path, String storeType, boolean memoryBacked) {
+    this.path         = path;
+    this.storeType    = storeType;
+    this.memoryBacked = memoryBacked;
+  }
+
+  /** Allocates a scratch space for about {@code expectedSize} bytes without probing write throughput.
+    *
+    * @see ScratchSpace#allocate(ProjectDirectories, long, boolean)
+    */
+  public static ScratchSpace allocate(ProjectDirectories projectDirectories, long expectedSize) throws IOException {
+    return allocate(projectDirectories, expectedSize, false);
+  }
+
+  /** Allocates a scratch space for about {@code expectedSize} bytes on the best-suited candidate location.
+    *
+    * @param projectDirectories The project to allocate the scratch space for.
+    * @param expectedSize       The number of bytes the caller expects to write.
+    * @param probe              Whether disk-backed candidates should be ranked by a short write benchmark.
+    *                           Results are cached per {@link FileStore} for the lifetime of the JVM.
+    *
+    * @return A new, empty {@code ScratchSpace}, which should be closed after use.
+    *
+    * @throws IOException If no candidate location has room for {@code expectedSize} bytes.
+    */
+  public static ScratchSpace allocate(ProjectDirectories projectDirectories, long expectedSize, boolean probe) throws IOException {
+    List<Path> bases = new ArrayList<Path>(2);
+    if (projectDirectories.runtimeDir != null)
+      bases.add(Paths.get(projectDirectories.runtimeDir, "scratch"));
+    if (projectDirectories.cacheDir != null)
+      bases.add(Paths.get(projectDirectories.cacheDir, "scratch"));
+    Path sharedBase = null;
+    String tmpDir = System.getProperty("java.io.tmpdir");
+    if (!Util.isNullOrEmpty(tmpDir)) {
+      String user = Util.trimLowercaseReplaceWhitespace(System.getProperty("user.name", ""), "-", false);
+      String project = projectDirectories.projectPath.replace('/', '-').replace('\\', '-');
+      sharedBase = Paths.get(tmpDir, "dirs-" + user + "-" + project);
+    }
+    return allocate(bases, sharedBase, expectedSize, probe);
+  }
+
+  /** Allocates a scratch space below the best-suited of {@code bases}, which are created if needed, or of {@code sharedBase},
+    * a directory in a location shared with other users, which is only used if it is private to the current user.
+    */
+  static ScratchSpace allocate(List<Path> bases, Path sharedBase, long expectedSize, boolean probe) throws IOException {
+    List<Candidate> usable = new ArrayList<Candidate>();
+    for (Candidate candidate : candidates(bases, sharedBase)) {
+      if (!candidate.fits(expectedSize))
+        continue;
+      if (probe && !candidate.memoryBacked) {
+        try {
+          candidate.throughput = throughput(candidate);
+        } catch (IOException e) {
+          // Not writable, for example a temporary directory taken by another user.
+          continue;
+        }
+      }
+      usable.add(candidate);
+    }
+
+    while (!usable.isEmpty()) {
+      Candidate best = usable.get(0);
+      for (Candidate candidate : usable)
+        if (candidate.isBetterThan(best))
+          best = candidate;
+      try {
+        // Only the chosen base is created.
+        best.create();
+      } catch (IOException e) {
+        usable.remove(best);
+        continue;
+      }
+      if (SWEPT.add(best.base))
+        sweep(best.base);
+      Path path = Files.createDirectory(best.base.resolve(PREFIX + PID + "-" + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE)));
+      ScratchSpace scratch = new ScratchSpace(path, best.store.type(), best.memoryBacked);
+      OPEN.add(scratch);
+      return scratch;
+    }
+    throw new IOException("no scratch location has " + expectedSize + " bytes available");
+  }
+
+  /** Returns the directory of this scratch space. */
+  public Path path() {
+    return path;
+  }
+
+  /** Returns the type of the file system backing this scratch space, for example {@code tmpfs} or {@code ext4}. */
+  public String storeType() {
+    return storeType;
+  }
+
+  /** Returns {@code true} if this scratch space is backed by memory rather than by a disk. */
+  public boolean isMemoryBacked() {
+    return memoryBacked;
+  }
+
+  /** Deletes the scratch space and everything in it. */
+  @Override
+  public void close() throws IOException {
+    if (OPEN.remove(this))
+      FileUtil.deleteRecursively(path);
+  }
+
+  @Override
+  public String toString() {
+    return "ScratchSpace (" + storeType + "): " + path;
+  }
+
+  private void delete() {
+    try {
+      FileUtil.deleteRecursively(path);
+    } catch (IOException e) {
+      // Left for the sweep of the next allocation.
+    }
+  }
+
+  private static List<Candidate> candidates(List<Path> bases, Path sharedBase) {
+    List<Candidate> candidates = new ArrayList<Candidate>(bases.size() + 1);
+    for (int i = 0; i <= bases.size(); i++) {
+      try {
+        if (i < bases.size())
+          candidates.add(new Candidate(bases.get(i), false, i));
+        else if (sharedBase != null)
+          candidates.add(new Candidate(sharedBase, true, i));
+      } catch (IOException e) {
+        // Unusable candidate, for example on a file system that has gone away.
+      }
+    }
+    return candidates;
+  }
+
+  /** Deletes scratch spaces below {@code base} that were left behind by processes which are no longer running. */
+  private static void sweep(Path base) {
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(base, PREFIX + "*")) {
+      for (Path entry : stream) {
+        String name = entry.getFileName().toString();
+        int dash = name.indexOf('-', PREFIX.length());
+        if (dash < 0)
+          continue;
+        try {
+          long pid = Long.parseLong(name.substring(PREFIX.length(), dash));
+          if (pid != PID && !ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false))
+            FileUtil.deleteRecursively(entry);
+        } catch (NumberFormatException | IOException e) {
+          // Not one of ours, or busy: leave it alone.
+        }
+      }
+    } catch (IOException e) {
+      // Nothing to sweep.
+    }
+  }
+
+  /** Returns the write throughput of the store of {@code candidate}, probing it below the candidate's base the first time. */
+  private static double throughput(Candidate candidate) throws IOException {
+    Double cached = THROUGHPUT.get(candidate.store);
+    if (cached != null)
+      return cached;
+    // Measured outside the map, as computeIfAbsent would block other lookups during the disk I/O.
+    double measured = probe(candidate);
+    Double concurrent = THROUGHPUT.putIfAbsent(candidate.store, measured);
+    return concurrent != null ? concurrent : measured;
+  }
+
+  /** Measures sequential write throughput below the base of {@code candidate}, in bytes per second. */
+  private static double probe(Candidate candidate) throws IOException {
+    candidate.create();
+    Path file = Files.createTempFile(candidate.base, ".probe", null);
+    try {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(PROBE_SIZE);
+      long start = System.nanoTime();
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+        FileUtil.writeFully(channel, buffer, 0);
+        channel.force(false);
+      }
+      long elapsed = Math.max(System.nanoTime() - start, 1);
+      return PROBE_SIZE * 1e9 / elapsed;
+    } finally {
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        // Ignored, the probe file is tiny.
+      }
+    }
+  }
+
+  private static final class Candidate {
+    final Path base;
+    final boolean shared;
+    final int order;
+    final FileStore store;
+    final boolean memoryBacked;
+    final long usable;
+    final long total;
+    double throughput;
+
+    Candidate(Path base, boolean shared, int order) throws IOException {
+      this.base   = base;
+      this.shared = shared;
+      this.order  = order;
+      Path existing = base.toAbsolutePath();
+      while (existing != null && !Files.exists(existing))
+        existing = existing.getParent();
+      if (existing == null)
+        throw new IOException("no existing ancestor of " + base);
+      this.store        = Files.getFileStore(existing);
+      this.memoryBacked = FileUtil.isMemoryBacked(store);
+      this.usable       = store.getUsableSpace();
+      this.total        = store.getTotalSpace();
+    }
+
+    /** Memory-backed stores must keep a tenth of their capacity free, as filling them up starves the whole system. */
+    boolean fits(long size) {
+      long headroom = memoryBacked ? Math.max(MINIMUM_HEADROOM, total / 10) : MINIMUM_HEADROOM;
+      return usable - headroom >= size;
+    }
+
+    boolean isBetterThan(Candidate other) {
+      if (memoryBacked != other.memoryBacked)
+        return memoryBacked;
+      if (throughput != other.throughput)
+        return throughput > other.throughput;
+      return order < other.order;
+    }
+
+    /** Creates the base directory. Other users can create files in the location of a shared base,
+      * so it is only used if it is a directory private to this user.
+      */
+    void create() throws IOException {
+      if (shared)
+        OwnedDirectories.ensurePrivate(base);
+      else
+        EnsureDirectories.ensure(base, EnsureDirectories.PRIVATE);
+    }
+  }
+}
@@ -0,0 +1,311 @@
+package dev.dirs;
+
+import dev.dirs.impl.DirectorySync;
+import dev.dirs.impl.MacOs;
+import dev.dirs.impl.Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** {@code SharedCache} is a cache shared by all applications of an organization, in which large, immutable content such
+  * as runtimes is stored once and made available to each application's {@link ProjectDirectories#cacheDir} as hard links.
+  * <p>
+  * The root of the cache is derived from the qualifier and organization with the rules {@link ProjectDirectories#from}
+  * applies to applications:
+  * <ul>
+  * <li>Linux/BSD: {@code $XDG_CACHE_HOME/<organization>}, lowercased and without whitespace</li>
+  * <li>macOS: {@code ~/Library/Caches/<qualifier>.<organization>}</li>
+  * <li>Windows: {@code {FOLDERID_LocalAppData}\<organization>\cache}</li>
+  * </ul>
+  * <p>
+  * Content is addressed by its SHA-256 hash, which is computed while it is added, so identical content is stored once
+  * regardless of which application added it. Names can be bound to hashes with {@link #name}, for example to look up a
+  * runtime by version. Objects are made read-only, because every link to them shares the same content: applications
+  * must replace imported files instead of modifying them.
+  * <p>
+  * {@link #importInto} links an object into a project's cache, which costs no space; if the project's cache is on a
+  * different file system, or the file system has no hard links, the object is copied instead. On Unix-like systems,
+  * {@link #collectGarbage} deletes objects no application has linked and no name refers to.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * SharedCache shared = SharedCache.of("com", "Foo Corp");
+  * String hash = shared.lookup("jre-21");
+  * if (hash == null)
+  *   shared.name("jre-21", hash = shared.put(download()));
+  * shared.importInto(ProjectDirectories.from("com", "Foo Corp", "Bar App"), hash, "runtime/jre-21.zip");
+  * }</pre>
+  */
+public final class SharedCache {
+
+  private static final String OBJECTS        = "objects";
+  private static final String NAMES          = "names";
+  private static final String TEMP           = "tmp";
+  private static final long   MIN_AGE_MILLIS = 10 * 60 * 1000;
+
+  private final Path root;
+
+  private SharedCache(Path root) {
+    this.root = root;
+  }
+
+  /** Returns the cache shared by the applications of {@code organization}.
+    *
+    * @param qualifier    The reverse domain name notation of the organization, as passed to {@link ProjectDirectories#from}.
+    * @param organization The name of the organization, as passed to {@link ProjectDirectories#from}. Must not be empty.
+    */
+  public static SharedCache of(String qualifier, String organization) {
+    if (Util.isNullOrEmpty(organization))
+      throw new IllegalArgumentException("organization must not be null or empty");
+    String path;
+    switch (Constants.operatingSystem) {
+      case Constants.LIN:
+      case Constants.BSD:
+      case Constants.SOLARIS:
+      case Constants.IBMI:
+      case Constants.AIX:
+        path = Util.trimLowercaseReplaceWhitespace(organization, "", true);
+        break;
+      case Constants.MAC:
+        path = MacOs.applicationPath(qualifier, organization, null);
+        break;
+      case Constants.WIN:
+        path = organization;
+        break;
+      default:
+        throw new UnsupportedOperatingSystemException("Shared caches are not supported on " + Constants.operatingSystemName);
+    }
+    return of(Paths.get(ProjectDirectories.fromPath(path).cacheDir));
+  }
+
+  static SharedCache of(Path root) {
+    return new SharedCache(root.toAbsolutePath().normalize());
+  }
+
+  /** Returns the root directory of the cache. */
+  public Path root() {
+    return root;
+  }
+
+  /** Adds the content of {@code in}, which is not closed, returning its SHA-256 hash. Adding content that is already
+    * present only costs reading it.
+    */
+  public String put(InputStream in) throws IOException {
+    Path tempDir = EnsureDirectories.ensure(root.resolve(TEMP), EnsureDirectories.PRIVATE);
+    Path temp = tempDir.resolve(Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE));
+    try {
+      MessageDigest digest = sha256();
+      try (OutputStream out = new DigestOutputStream(Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW), digest)) {
+        in.transferTo(out);
+      }
+      String hash = Util.toHexString(digest.digest());
+      Path object = object(hash);
+      if (!refresh(object)) {
+        EnsureDirectories.ensure(object.getParent(), EnsureDirectories.PRIVATE);
+        publish(temp, object);
+        object.toFile().setReadOnly();
+        DirectorySync.sync(object.getParent());
+      }
+      return hash;
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /** Adds the content of {@code file}, returning its SHA-256 hash. */
+  public String put(Path file) throws IOException {
+    try (InputStream in = Files.newInputStream(file)) {
+      return put(in);
+    }
+  }
+
+  /** Sets the modification time of {@code object} to now, returning {@code false} if it does not exist. An object that was
+    * just added again is then not old enough for {@link #collectGarbage}, which could otherwise delete it before the caller
+    * of {@link #put} links it.
+    */
+  private static boolean refresh(Path object) throws IOException {
+    try {
+      Files.setLastModifiedTime(object, FileTime.fromMillis(System.currentTimeMillis()));
+      return true;
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+  }
+
+  /** Moves {@code temp} to {@code object}, unless another process has added the object in the meantime. */
+  private static void publish(Path temp, Path object) throws IOException {
+    try {
+      // On Windows, a plain rename fails if the target exists. Elsewhere it would replace the target, unlike a link.
+      if (Constants.operatingSystem == Constants.WIN)
+        Files.move(temp, object);
+      else
+        Files.createLink(object, temp);
+    } catch (FileAlreadyExistsException e) {
+      // Added concurrently.
+    } catch (UnsupportedOperationException | FileSystemException e) {
+      if (!Files.exists(object))
+        Files.move(temp, object);
+    }
+  }
+
+  /** Returns the object with the given hash, or {@code null} if it is not in the cache. The object must not be modified. */
+  public Path get(String hash) {
+    Path object = object(hash);
+    return Files.isRegularFile(object) ? object : null;
+  }
+
+  /** Binds {@code name} to the object with the given hash, replacing an earlier binding. */
+  public void name(String name, String hash) throws IOException {
+    if (get(hash) == null)
+      throw new NoSuchFileException(object(hash).toString(), null, "no object with this hash in the shared cache");
+    AtomicFiles.write(nameFile(name), hash.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  /** Returns the hash bound to {@code name}, or {@code null} if the name is not bound or its object no longer exists. */
+  public String lookup(String name) throws IOException {
+    String hash;
+    try {
+      hash = new String(Files.readAllBytes(nameFile(name)), StandardCharsets.US_ASCII).trim();
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    return isHash(hash) && get(hash) != null ? hash : null;
+  }
+
+  /** Makes the object with the given hash available as {@code relativePath} in the cache directory of {@code projectDirectories}.
+    *
+    * @return The file in the project's cache directory.
+    */
+  public Path importInto(ProjectDirectories projectDirectories, String hash, String relativePath) throws IOException {
+    Path cacheDir = Paths.get(projectDirectories.cacheDir).toAbsolutePath().normalize();
+    Path target = cacheDir.resolve(relativePath).normalize();
+    if (!target.startsWith(cacheDir) || target.equals(cacheDir))
+      throw new IllegalArgumentException("not a path within the cache directory: " + relativePath);
+    return link(hash, target);
+  }
+
+  /** Makes the object with the given hash available as {@code target}, replacing an existing file, as a hard link if possible
+    * and as a copy otherwise.
+    *
+    * @return {@code target}.
+    */
+  public Path link(String hash, Path target) throws IOException {
+    Path object = get(hash);
+    if (object == null)
+      throw new NoSuchFileException(object(hash).toString(), null, "no object with this hash in the shared cache");
+    Path dir = target.toAbsolutePath().getParent();
+    EnsureDirectories.ensure(dir, EnsureDirectories.PRIVATE);
+    if (Files.exists(target, LinkOption.NOFOLLOW_LINKS) && Files.isSameFile(target, object))
+      return target;
+    Path temp = dir.resolve("." + target.getFileName() + "-" + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE));
+    try {
+      try {
+        Files.createLink(temp, object);
+      } catch (UnsupportedOperationException | FileSystemException e) {
+        // Another file system, or no hard links: the content is copied, and owned by the project alone.
+        Files.copy(object, temp);
+        temp.toFile().setWritable(true, true);
+      }
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    DirectorySync.sync(dir);
+    return target;
+  }
+
+  /** Deletes the objects that are not linked from any project, are not bound to a name, and were last added more than
+    * ten minutes ago. Objects are kept on platforms that do not report link counts.
+    *
+    * @return The hashes of the deleted objects.
+    */
+  public synchronized List<String> collectGarbage() throws IOException {
+    Set<String> named = new HashSet<String>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(root.resolve(NAMES))) {
+      for (Path nameFile : stream)
+        if (!nameFile.getFileName().toString().startsWith("."))
+          named.add(new String(Files.readAllBytes(nameFile), StandardCharsets.US_ASCII).trim());
+    } catch (NoSuchFileException e) {
+      // No names bound.
+    }
+    List<String> deleted = new ArrayList<String>();
+    long addedBefore = System.currentTimeMillis() - MIN_AGE_MILLIS;
+    try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(root.resolve(OBJECTS))) {
+      for (Path prefix : prefixes) {
+        try (DirectoryStream<Path> objects = Files.newDirectoryStream(prefix)) {
+          for (Path object : objects) {
+            String hash = object.getFileName().toString();
+            if (!isHash(hash) || named.contains(hash) || Files.getLastModifiedTime(object).toMillis() > addedBefore)
+              continue;
+            int links;
+            try {
+              links = (Integer) Files.getAttribute(object, "unix:nlink");
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+              return deleted;
+            }
+            // Only the cache itself links to the object. A project linking it at this moment fails with a NoSuchFileException.
+            if (links == 1) {
+              Files.deleteIfExists(object);
+              deleted.add(hash);
+            }
+          }
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // No objects yet.
+    }
+    return deleted;
+  }
+
+  private Path object(String hash) {
+    if (!isHash(hash))
+      throw new IllegalArgumentException("not a SHA-256 hash: " + hash);
+    return root.resolve(OBJECTS).resolve(hash.substring(0, 2)).resolve(hash);
+  }
+
+  private Path nameFile(String name) {
+    if (name.isEmpty() || name.startsWith(".") || name.contains("/") || name.contains("\\"))
+      throw new IllegalArgumentException("invalid name: " + name);
+    return root.resolve(NAMES).resolve(name);
+  }
+
+  private static boolean isHash(String hash) {
+    if (hash.length() != 64)
+      return false;
+    for (int i = 0; i < hash.length(); i++) {
+      char c = hash.charAt(i);
+      if ((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+        return false;
+    }
+    return true;
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -0,0 +1,276 @@
+package dev.dirs;
+
+import dev.dirs.impl.FileUtil;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/** {@code SharedCounters} is a file of named 64-bit counters that is mapped into memory by all processes of an
+  * application on a host, which update the counters without locks and can read all of them at any time.
+  * <p>
+  * The file is created in the project's {@link ProjectDirectories#runtimeDir}, which is usually memory-backed and
+  * emptied when the user logs out, so that counters start from zero after a reboot. On platforms without a runtime
+  * directory, it is created in the {@link ProjectDirectories#cacheDir} instead.
+  * <p>
+  * The file has a fixed number of slots, each on its own 64-byte cache line so that processes updating different
+  * counters do not contend. A slot holds a counter's value, state and name. Slots are claimed in order with a
+  * compare-and-set on their state; processes looking up a name wait for a slot being claimed before comparing names,
+  * so that every name gets a single slot. A slot whose claim takes longer than a second, because its process died or
+  * stalled, is abandoned: it is skipped from then on, and a stalled process claims another slot once it resumes.
+  * Values are updated with atomic operations directly in the mapping.
+  * <p>
+  * {@link #snapshot} reads each counter atomically, but not all counters at the same instant.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * SharedCounters counters = SharedCounters.open(ProjectDirectories.from("com", "Foo Corp", "Bar App"), "metrics");
+  * SharedCounters.Counter requests = counters.counter("requests");
+  * requests.increment();
+  * }</pre>
+  */
+public final class SharedCounters implements AutoCloseable {
+
+  /** The number of slots in files created by {@link #open(ProjectDirectories, String)}. */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  /** The longest name of a counter, in UTF-8 bytes. */
+  public static final int MAX_NAME_BYTES = 51;
+
+  private static final long MAGIC       = 0x44495253434E5452L; // "DIRSCNTR"
+  private static final int  VERSION     = 1;
+  private static final int  HEADER_SIZE = 64;
+  private static final int  SLOT_SIZE   = 64;
+
+  private static final int  FREE      = 0;
+  private static final int  CLAIMING  = 1;
+  private static final int  READY     = 2;
+  private static final int  ABANDONED = 3;
+
+  // Offsets within a slot.
+  private static final int  VALUE       = 0;
+  private static final int  STATE       = 8;
+  private static final int  NAME_LENGTH = 12;
+  private static final int  NAME        = 13;
+
+  /** How long to wait for a slot claimed by another process, which may have died while claiming it. */
+  private static final long CLAIM_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+  private static final VarHandle INTS  = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+  private final Path file;
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+
+  private SharedCounters(Path file, FileChannel channel, MappedByteBuffer buffer, int capacity) {
+    this.file     = file;
+    this.channel  = channel;
+    this.buffer   = buffer;
+    this.capacity = capacity;
+  }
+
+  /** Opens or creates the counter file {@code <name>.counters} of {@code projectDirectories}. */
+  public static SharedCounters open(ProjectDirectories projectDirectories, String name) throws IOException {
+    String dir = projectDirectories.runtimeDir != null ? projectDirectories.runtimeDir : projectDirectories.cacheDir;
+    return open(Paths.get(dir, name + ".counters"), DEFAULT_CAPACITY);
+  }
+
+  /** Opens the counter file at {@code file}, creating it with {@code capacity} slots if it does not exist.
+    * The capacity of an existing file is kept.
+    *
+    * @throws IOException If the file cannot be mapped or is not a counter file.
+    */
+  public static SharedCounters open(Path file, int capacity) throws IOException {
+    if (capacity <= 0)
+      throw new IllegalArgumentException("capacity must be positive, but was " + capacity);
+    if (!Files.exists(file))
+      create(file, capacity);
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      long size = channel.size();
+      if (size < HEADER_SIZE)
+        throw new IOException(file + " is not a counter file");
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      buffer.order(ByteOrder.nativeOrder());
+      if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION)
+        throw new IOException(file + " is not a counter file of this version");
+      int slots = buffer.getInt(12);
+      if (slots <= 0 || HEADER_SIZE + (long) slots * SLOT_SIZE > size)
+        throw new IOException(file + " is damaged");
+      return new SharedCounters(file, channel, buffer, slots);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /** Creates the file complete with its header under a temporary name, then links it to its name, so that other
+    * processes never see a partially initialized file. Losing the race to another process is not an error.
+    */
+  private static void create(Path file, int capacity) throws IOException {
+    EnsureDirectories.ensure(file.toAbsolutePath().getParent(), EnsureDirectories.PRIVATE);
+    Path temp = file.resolveSibling("." + file.getFileName() + "-" + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE));
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+        header.putLong(MAGIC).putInt(VERSION).putInt(capacity);
+        header.clear();
+        FileUtil.writeFully(channel, header, 0);
+        // Sparse: slots read as zero, which is the free state.
+        FileUtil.writeFully(channel, ByteBuffer.allocate(1), HEADER_SIZE + (long) capacity * SLOT_SIZE - 1);
+      }
+      try {
+        Files.createLink(file, temp);
+      } catch (FileAlreadyExistsException e) {
+        // Created by another process in the meantime.
+      } catch (UnsupportedOperationException e) {
+        if (!Files.exists(file))
+          Files.move(temp, file);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /** Returns the number of slots of the file. */
+  public int capacity() {
+    return capacity;
+  }
+
+  /** Returns the counter named {@code name}, claiming a slot for it if no process has used it yet.
+    *
+    * @throws IllegalArgumentException If the name is empty or longer than {@link #MAX_NAME_BYTES} in UTF-8.
+    * @throws IllegalStateException    If all slots are in use.
+    */
+  public Counter counter(String name) {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length == 0 || bytes.length > MAX_NAME_BYTES)
+      throw new IllegalArgumentException("counter names must have 1 to " + MAX_NAME_BYTES + " UTF-8 bytes: " + name);
+    for (int slot = 0; slot < capacity; slot++) {
+      int offset = HEADER_SIZE + slot * SLOT_SIZE;
+      int state = (int) INTS.getAcquire(buffer, offset + STATE);
+      if (state == FREE && INTS.compareAndSet(buffer, offset + STATE, FREE, CLAIMING)) {
+        buffer.put(offset + NAME_LENGTH, (byte) bytes.length);
+        buffer.put(offset + NAME, bytes);
+        if (INTS.compareAndSet(buffer, offset + STATE, CLAIMING, READY))
+          return new Counter(name, offset);
+        // Claimed so slowly that other processes abandoned the slot: carry on with the next one.
+        continue;
+      }
+      if (awaitReady(offset) && nameEquals(offset, bytes))
+        return new Counter(name, offset);
+    }
+    throw new IllegalStateException("all " + capacity + " slots of " + file + " are in use");
+  }
+
+  /** Waits while another process claims the slot at {@code offset}, returning whether it became ready.
+    * A claim that does not complete in time is abandoned, so that no later lookup waits for it again.
+    */
+  private boolean awaitReady(int offset) {
+    long deadline = System.nanoTime() + CLAIM_TIMEOUT_NANOS;
+    while (true) {
+      int state = (int) INTS.getAcquire(buffer, offset + STATE);
+      if (state == READY)
+        return true;
+      if (state != CLAIMING)
+        return false;
+      if (System.nanoTime() - deadline > 0 && INTS.compareAndSet(buffer, offset + STATE, CLAIMING, ABANDONED))
+        return false;
+      Thread.onSpinWait();
+    }
+  }
+
+  private boolean nameEquals(int offset, byte[] name) {
+    if ((buffer.get(offset + NAME_LENGTH) & 0xFF) != name.length)
+      return false;
+    for (int i = 0; i < name.length; i++)
+      if (buffer.get(offset + NAME + i) != name[i])
+        return false;
+    return true;
+  }
+
+  /** Returns the current value of every counter, by name, in the order their slots were claimed. */
+  public Map<String, Long> snapshot() {
+    Map<String, Long> values = new LinkedHashMap<String, Long>();
+    for (int slot = 0; slot < capacity; slot++) {
+      int offset = HEADER_SIZE + slot * SLOT_SIZE;
+      int state = (int) INTS.getAcquire(buffer, offset + STATE);
+      if (state == FREE)
+        break;
+      if (state != READY)
+        continue;
+      byte[] name = new byte[buffer.get(offset + NAME_LENGTH) & 0xFF];
+      buffer.get(offset + NAME, name);
+      values.put(new String(name, StandardCharsets.UTF_8), (long) LONGS.getVolatile(buffer, offset + VALUE));
+    }
+    return values;
+  }
+
+  /** Closes the file. The mapping is released once the counters obtained from it are no longer reachable. */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  @Override
+  public String toString() {
+    return "SharedCounters: " + file;
+  }
+
+  /** A counter in a {@link SharedCounters} file. Safe for use by any number of threads. */
+  public final class Counter {
+    private final String name;
+    private final int offset;
+
+    Counter(String name, int offset) {
+      this.name   = name;
+      this.offset = offset;
+    }
+
+    /** Returns the name of the counter. */
+    public String name() {
+      return name;
+    }
+
+    /** Adds {@code delta} to the counter, returning the new value. */
+    public long add(long delta) {
+      return (long) LONGS.getAndAdd(buffer, offset + VALUE, delta) + delta;
+    }
+
+    /** Adds one to the counter, returning the new value. */
+    public long increment() {
+      return add(1);
+    }
+
+    /** Returns the current value of the counter. */
+    public long get() {
+      return (long) LONGS.getVolatile(buffer, offset + VALUE);
+    }
+
+    /** Sets the counter to {@code value}, for counters used as gauges. */
+    public void set(long value) {
+      LONGS.setVolatile(buffer, offset + VALUE, value);
+    }
+
+    @Override
+    public String toString() {
+      return name + " = " + get();
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package dev.dirs;
+
+import dev.dirs.impl.OwnedDirectories;
+import dev.dirs.impl.Util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/** {@code SingleInstance} ensures that only one process of an application runs at a time,
+  * and hands the arguments of later launches over to it through a Unix domain socket.
+  * <p>
+  * The socket is bound in the project's {@link ProjectDirectories#runtimeDir}. If that directory is not available,
+  * or the resulting path exceeds the platform's limit for socket addresses (108 bytes on Linux, 104 on macOS and BSD),
+  * a name derived from a hash of the project path is used in a directory of the temporary directory that is named after
+  * a hash of the user name, and that must be owned by the user and only accessible by them.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * SingleInstance instance = SingleInstance.acquire(ProjectDirectories.from("com", "Foo Corp", "Bar App"), args,
+  *     forwarded -> openWindows(forwarded));
+  * if (instance == null)
+  *   return; // the arguments were handed to the running instance
+  * }</pre>
+  */
+public final class SingleInstance implements AutoCloseable {
+
+  private static final int  ACK             = 1;
+  private static final long CONNECT_TIMEOUT = 5000;
+  private static final long READ_TIMEOUT    = 5000;
+
+  private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "single-instance-timeout");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Path socket;
+  private final FileChannel lockChannel;
+  private final FileLock lock;
+  private final ServerSocketChannel server;
+  private final Thread acceptor;
+
+  private SingleInstance(Path socket, FileChannel lockChannel, FileLock lock, ServerSocketChannel server, Consumer<List<String>> handler) {
+    this.socket      = socket;
+    this.lockChannel = lockChannel;
+    this.lock        = lock;
+    this.server      = server;
+    this.acceptor    = Thread.ofVirtual().name("single-instance-" + socket.getFileName()).unstarted(() -> accept(handler));
+    this.acceptor.start();
+  }
+
+  /** Becomes the running instance of the given project, or forwards {@code args} to the instance that is already running.
+    *
+    * @param projectDirectories The project whose {@link ProjectDirectories#runtimeDir} holds the socket.
+    * @param args               The arguments of this launch, forwarded if another instance is running.
+    * @param handler            Receives the arguments of later launches while this instance is running.
+    *                           It is called on a dedicated thread, one launch at a time.
+    *
+    * @return The {@code SingleInstance} to close when this process exits, or {@code null} if another instance
+    * is running and has received {@code args}.
+    */
+  public static SingleInstance acquire(ProjectDirectories projectDirectories, String[] args, Consumer<List<String>> handler) throws IOException {
+    Path socket = socketPath(projectDirectories);
+    if (projectDirectories.runtimeDir != null && socket.startsWith(Paths.get(projectDirectories.runtimeDir).toAbsolutePath()))
+      EnsureDirectories.ensure(socket.getParent(), EnsureDirectories.PRIVATE);
+    else
+      // Other users can create files in the temporary directory, and must not be able to take over the socket.
+      OwnedDirectories.ensurePrivate(socket.getParent());
+
+    FileChannel lockChannel = FileChannel.open(socket.resolveSibling(socket.getFileName() + ".lock"),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    FileLock lock;
+    try {
+      lock = lockChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // The running instance is this very process.
+      lock = null;
+    } catch (IOException | RuntimeException e) {
+      lockChannel.close();
+      throw e;
+    }
+    if (lock == null) {
+      lockChannel.close();
+      forward(socket, args);
+      return null;
+    }
+    try {
+      // Holding the lock means that any socket file left behind belongs to a process that has died.
+      Files.deleteIfExists(socket);
+      ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+      server.bind(UnixDomainSocketAddress.of(socket));
+      return new SingleInstance(socket, lockChannel, lock, server, handler);
+    } catch (IOException | RuntimeException e) {
+      lockChannel.close();
+      throw e;
+    }
+  }
+
+  /** Returns the path of the socket the running instance of the given project listens on. */
+  public static Path socketPath(ProjectDirectories projectDirectories) {
+    if (projectDirectories.runtimeDir != null) {
+      Path path = Paths.get(projectDirectories.runtimeDir, "instance.sock").toAbsolutePath();
+      if (fitsSocketAddress(path))
+        return path;
+    }
+    String dir = "dirs-" + hash(System.getProperty("user.name"));
+    String name = hash(projectDirectories.projectPath) + ".sock";
+    Path path = Paths.get(System.getProperty("java.io.tmpdir"), dir, name).toAbsolutePath();
+    if (fitsSocketAddress(path) || Constants.operatingSystem == Constants.WIN)
+      return path;
+    return Paths.get("/tmp", dir, name);
+  }
+
+  /** Returns the path of the socket this instance listens on. */
+  public Path socket() {
+    return socket;
+  }
+
+  /** Stops accepting forwarded launches and releases the instance, allowing the next launch to become the running instance. */
+  @Override
+  public void close() throws IOException {
+    try {
+      server.close();
+      acceptor.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      Files.deleteIfExists(socket);
+      lock.release();
+      lockChannel.close();
+    }
+  }
+
+  private void accept(Consumer<List<String>> handler) {
+    while (server.isOpen()) {
+      try (SocketChannel client = server.accept()) {
+        // A client that never sends its arguments must not hold up the launches after it: closing it ends the read.
+        ScheduledFuture<?> timeout = TIMEOUTS.schedule(() -> closeQuietly(client), READ_TIMEOUT, TimeUnit.MILLISECONDS);
+        List<String> args = new ArrayList<String>();
+        try {
+          DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+          int count = in.readInt();
+          for (int i = 0; i < count; i++)
+            args.add(in.readUTF());
+          client.write(ByteBuffer.wrap(new byte[] { ACK }));
+        } finally {
+          timeout.cancel(false);
+        }
+        handler.accept(args);
+      } catch (IOException | RuntimeException e) {
+        // A misbehaving client must not take down the running instance. Once the server is closed, the loop ends.
+      }
+    }
+  }
+
+  private static void closeQuietly(SocketChannel client) {
+    try {
+      client.close();
+    } catch (IOException e) {
+      // The client is abandoned either way.
+    }
+  }
+
+  private static void forward(Path socket, String[] args) throws IOException {
+    long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+    while (true) {
+      try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+        DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+        out.writeInt(args.length);
+        for (String arg : args)
+          out.writeUTF(arg);
+        out.flush();
+        ByteBuffer ack = ByteBuffer.allocate(1);
+        if (channel.read(ack) != 1 || ack.get(0) != ACK)
+          throw new IOException("running instance at " + socket + " did not acknowledge the arguments");
+        return;
+      } catch (IOException e) {
+        // The running instance may hold the lock but not yet have bound its socket.
+        if (System.currentTimeMillis() > deadline)
+          throw e;
+        try {
+          Thread.sleep(10);
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted while connecting to " + socket);
+        }
+      }
+    }
+  }
+
+  private static boolean fitsSocketAddress(Path path) {
+    int limit = Constants.operatingSystem == Constants.MAC || Constants.operatingSystem == Constants.BSD ? 104 : 108;
+    // One byte is reserved for the terminating NUL.
+    return path.toString().getBytes(StandardCharsets.UTF_8).length < limit;
+  }
+
+  private static String hash(String value) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+      return Util.toHexString(Arrays.copyOf(digest, 16));
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
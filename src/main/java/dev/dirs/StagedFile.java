@@ -0,0 +1,180 @@
+package dev.dirs;
+
+import dev.dirs.impl.DirectorySync;
+import dev.dirs.impl.FileUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** {@code StagedFile} writes a file, such as a download or an export, under a hidden temporary name next to its final
+  * location, and only gives it its final name once it is complete, so that users never see partial files.
+  * <p>
+  * The content is written to {@code .<name>.part} in the target directory, which is extended to the expected size up
+  * front. Chunks are written at explicit positions, so any number of threads may write different parts of the file at
+  * the same time. {@link #publish} makes the content durable and links it to its final name without replacing existing
+  * files: if the name is taken, {@code name (1).ext}, {@code name (2).ext} and so on are tried, as browsers do.
+  * Closing a file that was not published deletes its content.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * try (StagedFile file = StagedFile.create(UserDirectories.get(), "report.pdf", length)) {
+  *   for (Chunk chunk : chunks)
+  *     file.write(chunk.buffer(), chunk.offset()); // from any thread
+  *   Path saved = file.publish();
+  * }
+  * }</pre>
+  */
+public final class StagedFile implements AutoCloseable {
+
+  private static final String PART_SUFFIX  = ".part";
+  private static final int    MAX_ATTEMPTS = 10000;
+
+  private final Path dir;
+  private final String fileName;
+  private final Path partFile;
+  private final FileChannel channel;
+  private final AtomicLong end = new AtomicLong();
+  private volatile Path published;
+
+  private StagedFile(Path dir, String fileName, Path partFile, FileChannel channel) {
+    this.dir      = dir;
+    this.fileName = fileName;
+    this.partFile = partFile;
+    this.channel  = channel;
+  }
+
+  /** Stages a file named {@code fileName} in the download directory of {@code userDirectories}.
+    *
+    * @throws IOException If the user has no download directory, or the file cannot be created.
+    */
+  public static StagedFile create(UserDirectories userDirectories, String fileName, long expectedSize) throws IOException {
+    if (userDirectories.downloadDir == null)
+      throw new IOException("no download directory is configured");
+    return create(Paths.get(userDirectories.downloadDir), fileName, expectedSize);
+  }
+
+  /** Stages a file named {@code fileName} in {@code dir}.
+    *
+    * @param dir          The directory the file is published in.
+    * @param fileName     The name the file is published under, if it is not taken.
+    * @param expectedSize The size the file is extended to up front, or {@code 0} if it is not known.
+    */
+  public static StagedFile create(Path dir, String fileName, long expectedSize) throws IOException {
+    if (fileName.isEmpty() || fileName.startsWith(".") || !dir.resolve(fileName).getParent().equals(dir))
+      throw new IllegalArgumentException("invalid file name: " + fileName);
+    Files.createDirectories(dir);
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      Path partFile = dir.resolve("." + (attempt == 0 ? fileName : fileName + "-" + attempt) + PART_SUFFIX);
+      FileChannel channel;
+      try {
+        channel = FileChannel.open(partFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      } catch (FileAlreadyExistsException e) {
+        continue;
+      }
+      try {
+        // Extends the file without writing its content; whether the blocks are reserved is up to the file system.
+        if (expectedSize > 0)
+          FileUtil.writeFully(channel, ByteBuffer.allocate(1), expectedSize - 1);
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        Files.deleteIfExists(partFile);
+        throw e;
+      }
+      return new StagedFile(dir, fileName, partFile, channel);
+    }
+    throw new IOException("no free name for a part file of " + fileName + " in " + dir);
+  }
+
+  /** Returns the hidden file the content is written to until it is published. */
+  public Path partFile() {
+    return partFile;
+  }
+
+  /** Writes all remaining bytes of {@code source} starting at {@code position}. May be called by several threads at once. */
+  public void write(ByteBuffer source, long position) throws IOException {
+    long chunkEnd = position + source.remaining();
+    FileUtil.writeFully(channel, source, position);
+    end.accumulateAndGet(chunkEnd, Math::max);
+  }
+
+  /** Transfers up to {@code count} bytes from {@code source} to the file starting at {@code position},
+    * returning the number of bytes transferred. May be called by several threads at once.
+    */
+  public long transferFrom(ReadableByteChannel source, long position, long count) throws IOException {
+    long transferred = 0;
+    while (transferred < count) {
+      long n = channel.transferFrom(source, position + transferred, count - transferred);
+      if (n <= 0)
+        break;
+      transferred += n;
+    }
+    end.accumulateAndGet(position + transferred, Math::max);
+    return transferred;
+  }
+
+  /** Makes the content durable and publishes it under its file name, or the first free name derived from it.
+    * The file is truncated to the end of the last byte written, in case it was extended beyond its actual size.
+    *
+    * @return The path the file was published at.
+    */
+  public synchronized Path publish() throws IOException {
+    if (published != null)
+      return published;
+    if (channel.size() > end.get())
+      channel.truncate(end.get());
+    channel.force(true);
+    channel.close();
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      Path target = dir.resolve(candidate(attempt));
+      try {
+        // A link fails if the name is taken, where a rename would replace the existing file.
+        Files.createLink(target, partFile);
+      } catch (FileAlreadyExistsException e) {
+        continue;
+      } catch (UnsupportedOperationException | FileSystemException e) {
+        // No hard links on this file system, as on FAT: fall back to a rename that rarely races.
+        if (Files.exists(target))
+          continue;
+        Files.move(partFile, target);
+      }
+      Files.deleteIfExists(partFile);
+      DirectorySync.sync(dir);
+      published = target;
+      return target;
+    }
+    throw new IOException("no free name for " + fileName + " in " + dir);
+  }
+
+  /** Returns {@code fileName} for the first attempt, and {@code name (n).ext} for later ones. */
+  private String candidate(int attempt) {
+    if (attempt == 0)
+      return fileName;
+    int dot = fileName.lastIndexOf('.');
+    if (dot <= 0)
+      return fileName + " (" + attempt + ")";
+    return fileName.substring(0, dot) + " (" + attempt + ")" + fileName.substring(dot);
+  }
+
+  /** Discards the content, unless it has been published. */
+  @Override
+  public synchronized void close() throws IOException {
+    if (published != null)
+      return;
+    channel.close();
+    Files.deleteIfExists(partFile);
+  }
+
+  @Override
+  public String toString() {
+    return "StagedFile: " + (published != null ? published : partFile);
+  }
+}
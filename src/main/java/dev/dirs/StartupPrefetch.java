@@ -0,0 +1,228 @@
+package dev.dirs;
+
+import dev.dirs.impl.ParallelFiles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** {@code StartupPrefetch} records which files below a project's directories an application reads while starting,
+  * and reads them ahead in the background on the next start, so that they are in the page cache by the time the
+  * application asks for them.
+  * <p>
+  * Recording is opt-in: files are recorded when they are opened through {@link #newInputStream} or
+  * {@link #newByteChannel}, or passed to {@link #record}. Files outside the project's {@code cacheDir},
+  * {@code configDir}, {@code dataDir}, {@code dataLocalDir} and {@code preferenceDir} are ignored. Paths are stored
+  * relative to the directory they were found in, in the order they were first read, in {@code cacheDir}; the
+  * list is replaced when {@link #finish} is called and the recorded files differ from the previous start.
+  * <p>
+  * Prefetching reads whole files, up to {@link #MAX_FILE_BYTES} bytes each, on a few daemon threads, in the order
+  * they were recorded. Files that no longer exist are skipped. Prefetching never fails the application: read errors
+  * are ignored, and {@link #prefetched} only reports how many files were read.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * ProjectDirectories dirs = ProjectDirectories.from("com", "Foo Corp", "Bar App");
+  * StartupPrefetch prefetch = StartupPrefetch.start(dirs);
+  * try (InputStream in = prefetch.newInputStream(Paths.get(dirs.configDir, "settings.json"))) {
+  *   ...
+  * }
+  * prefetch.finish(); // once the application is up
+  * }</pre>
+  */
+public final class StartupPrefetch {
+
+  /** The largest number of bytes read ahead of each file. */
+  public static final long MAX_FILE_BYTES = 16L * 1024 * 1024;
+
+  private static final String LIST_FILE   = "startup.prefetch";
+  private static final int    MAX_FILES   = 4096;
+  private static final int    BUFFER_SIZE = 64 * 1024;
+
+  private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+  private static final String[] ROOTS = { "cacheDir", "configDir", "dataDir", "dataLocalDir", "preferenceDir" };
+
+  private final Path listFile;
+  private final Map<String, Path> roots;
+  private final List<String> previous;
+  private final Set<String> recorded = new LinkedHashSet<String>();
+  private final CompletableFuture<Integer> prefetched = new CompletableFuture<Integer>();
+  private boolean finished;
+
+  private StartupPrefetch(Path listFile, Map<String, Path> roots, List<String> previous) {
+    this.listFile = listFile;
+    this.roots    = roots;
+    this.previous = previous;
+  }
+
+  /** Starts reading ahead the files recorded during the previous start of the project's application,
+    * and starts recording the files read during this start.
+    */
+  public static StartupPrefetch start(ProjectDirectories projectDirectories) {
+    Map<String, String> dirs = projectDirectories.directories();
+    Map<String, Path> roots = new LinkedHashMap<String, Path>();
+    for (String root : ROOTS)
+      if (dirs.get(root) != null)
+        roots.put(root, Paths.get(dirs.get(root)).toAbsolutePath().normalize());
+    return start(Paths.get(projectDirectories.cacheDir, LIST_FILE), roots);
+  }
+
+  static StartupPrefetch start(Path listFile, Map<String, Path> roots) {
+    StartupPrefetch prefetch = new StartupPrefetch(listFile, roots, load(listFile));
+    prefetch.prefetch();
+    return prefetch;
+  }
+
+  /** Returns a future completing with the number of files read ahead, once prefetching has finished. */
+  public CompletableFuture<Integer> prefetched() {
+    return prefetched;
+  }
+
+  /** Records that {@code file} is read during startup, if it is located below one of the project's directories
+    * and {@link #finish} has not been called yet.
+    */
+  public void record(Path file) {
+    Path absolute = file.toAbsolutePath().normalize();
+    // Nested roots, such as a cacheDir inside the dataDir, are attributed to the innermost one.
+    String best = null;
+    Path bestRoot = null;
+    for (Map.Entry<String, Path> root : roots.entrySet()) {
+      Path dir = root.getValue();
+      if (absolute.startsWith(dir) && !absolute.equals(dir) && (bestRoot == null || dir.getNameCount() > bestRoot.getNameCount())) {
+        best = root.getKey();
+        bestRoot = dir;
+      }
+    }
+    if (best == null)
+      return;
+    String entry = best + '\0' + bestRoot.relativize(absolute).toString().replace(absolute.getFileSystem().getSeparator(), "/");
+    synchronized (recorded) {
+      if (!finished && recorded.size() < MAX_FILES)
+        recorded.add(entry);
+    }
+  }
+
+  /** Records {@code file} and opens it, like {@link Files#newInputStream}. */
+  public InputStream newInputStream(Path file, OpenOption... options) throws IOException {
+    record(file);
+    return Files.newInputStream(file, options);
+  }
+
+  /** Records {@code file} and opens it, like {@link Files#newByteChannel}. */
+  public SeekableByteChannel newByteChannel(Path file, OpenOption... options) throws IOException {
+    record(file);
+    return Files.newByteChannel(file, options);
+  }
+
+  /** Stops recording and stores the files recorded, to be read ahead during the next start.
+    * Calling this method again has no effect.
+    *
+    * @throws IOException If the list of files cannot be stored.
+    */
+  public void finish() throws IOException {
+    List<String> entries;
+    synchronized (recorded) {
+      if (finished)
+        return;
+      finished = true;
+      entries = new ArrayList<String>(recorded);
+    }
+    if (entries.equals(previous))
+      return;
+    StringBuilder list = new StringBuilder();
+    for (String entry : entries)
+      list.append(entry).append('\0');
+    AtomicFiles.write(listFile, list.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Returns the list stored by the previous start, as entries of a root name and a relative path separated by NUL. */
+  private static List<String> load(Path listFile) {
+    try {
+      String content = new String(Files.readAllBytes(listFile), StandardCharsets.UTF_8);
+      List<String> entries = new ArrayList<String>();
+      String[] fields = content.split("\0", -1);
+      for (int i = 0; i + 1 < fields.length; i += 2)
+        entries.add(fields[i] + '\0' + fields[i + 1]);
+      return entries;
+    } catch (IOException e) {
+      // Nothing recorded yet, or unreadable: start without prefetching.
+      return Collections.emptyList();
+    }
+  }
+
+  private void prefetch() {
+    if (previous.isEmpty()) {
+      prefetched.complete(0);
+      return;
+    }
+    ExecutorService readers = Executors.newFixedThreadPool(Math.min(ParallelFiles.PARALLELISM, previous.size()), r -> {
+      Thread thread = new Thread(r, "startup-prefetch");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+    AtomicInteger read = new AtomicInteger();
+    AtomicInteger remaining = new AtomicInteger(previous.size());
+    for (String entry : previous) {
+      readers.execute(() -> {
+        try {
+          Path file = resolve(entry);
+          if (file != null && readAhead(file))
+            read.incrementAndGet();
+        } finally {
+          if (remaining.decrementAndGet() == 0)
+            prefetched.complete(read.get());
+        }
+      });
+    }
+    readers.shutdown();
+  }
+
+  private Path resolve(String entry) {
+    int separator = entry.indexOf('\0');
+    Path root = roots.get(entry.substring(0, separator));
+    if (root == null)
+      return null;
+    Path file = root.resolve(entry.substring(separator + 1)).normalize();
+    // A damaged or foreign list must not make the prefetcher read outside the project's directories.
+    return file.startsWith(root) ? file : null;
+  }
+
+  private static boolean readAhead(Path file) {
+    ByteBuffer buffer = BUFFERS.get();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long position = 0;
+      while (position < MAX_FILE_BYTES) {
+        buffer.clear();
+        int n = channel.read(buffer, position);
+        if (n < 0)
+          break;
+        position += n;
+      }
+      return true;
+    } catch (IOException e) {
+      // Typically deleted since it was recorded.
+      return false;
+    }
+  }
+}
@@ -0,0 +1,295 @@
+package dev.dirs;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/** {@code StoragePressureMonitor} watches the free space of the file systems behind a project's
+  * {@link ProjectDirectories#cacheDir} and {@link ProjectDirectories#dataDir}, and notifies listeners
+  * when it falls below (or recovers above) configurable thresholds.
+  * <p>
+  * A single background thread polls each file system once, no matter how many projects are registered on it.
+  * The polling interval adapts to how quickly space is being consumed: it shortens as the next threshold comes
+  * within reach and lengthens, up to {@link #MAX_INTERVAL_MILLIS}, while usage is stable or shrinking.
+  * A new registration is checked right away, regardless of when its file systems are polled next.
+  * If the cache and data directories are on the same file system, it is watched once, so that each change is reported once.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * StoragePressureMonitor.Registration registration = StoragePressureMonitor.register(
+  *     ProjectDirectories.from("com", "Foo Corp", "Bar App"),
+  *     event -> cache.setShedding(event.threshold >= 0),
+  *     1L << 30, 256L << 20);
+  * }</pre>
+  */
+public final class StoragePressureMonitor {
+
+  private StoragePressureMonitor() {}
+
+  /** The shortest interval between two polls of the same file system. */
+  public static final long MIN_INTERVAL_MILLIS = 250;
+
+  /** The longest interval between two polls of the same file system. */
+  public static final long MAX_INTERVAL_MILLIS = 60_000;
+
+  /** Usable space has to exceed a threshold by this fraction before it counts as recovered, to avoid flapping. */
+  private static final double HYSTERESIS = 0.05;
+
+  private static final ScheduledExecutorService POLLER = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "storage-pressure-monitor");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private static final Map<FileStore, Store> STORES = new HashMap<FileStore, Store>();
+
+  /** Receives storage pressure changes. Called on the monitor's thread, which must not be blocked for long. */
+  public interface Listener {
+    void pressureChanged(Event event);
+  }
+
+  /** A change of the pressure level of a watched directory's file system. */
+  public static final class Event {
+
+    /** The watched directory, such as {@link ProjectDirectories#cacheDir}, which is also reported for the data directory
+      * if both are on the same file system.
+      */
+    public final Path directory;
+
+    /** The file store backing {@link Event#directory}. */
+    public final FileStore store;
+
+    /** The number of bytes available to this JVM on the file store. */
+    public final long usableSpace;
+
+    /** The lowest registered threshold that usable space is currently below, or {@code -1} if it is above all of them. */
+    public final long threshold;
+
+    Event(Path directory, FileStore store, long usableSpace, long threshold) {
+      this.directory   = directory;
+      this.store       = store;
+      this.usableSpace = usableSpace;
+      this.threshold   = threshold;
+    }
+
+    @Override
+    public String toString() {
+      return "StoragePressureMonitor.Event(" + directory + ", " + usableSpace + " bytes usable, " +
+          (threshold < 0 ? "no pressure" : "below " + threshold + " bytes") + ")";
+    }
+  }
+
+  /** Watches the cache and data directories of {@code projectDirectories} until the returned registration is closed.
+    *
+    * @param projectDirectories The project whose {@link ProjectDirectories#cacheDir} and {@link ProjectDirectories#dataDir} are watched.
+    * @param listener           Notified when usable space crosses one of the thresholds, in either direction.
+    * @param thresholds         Amounts of usable space in bytes, in any order.
+    *
+    * @return A {@code Registration}, which stops the notifications when closed.
+    */
+  public static Registration register(ProjectDirectories projectDirectories, Listener listener, long... thresholds) throws IOException {
+    return register(Arrays.asList(Paths.get(projectDirectories.cacheDir), Paths.get(projectDirectories.dataDir)), listener, thresholds);
+  }
+
+  static Registration register(List<Path> directories, Listener listener, long... thresholds) throws IOException {
+    if (thresholds.length == 0)
+      throw new IllegalArgumentException("at least one threshold is required");
+    long[] sorted = thresholds.clone();
+    Arrays.sort(sorted);
+    List<Watch> watches = new ArrayList<Watch>(directories.size());
+    for (Path path : directories) {
+      FileStore store = Files.getFileStore(existingAncestor(path));
+      if (!isWatched(watches, store))
+        watches.add(new Watch(path, store, listener, sorted));
+    }
+    synchronized (STORES) {
+      for (Watch watch : watches) {
+        Store store = STORES.get(watch.store);
+        if (store == null) {
+          store = new Store(watch.store);
+          STORES.put(watch.store, store);
+          store.watches.add(watch);
+          store.schedule(0);
+        } else {
+          store.watches.add(watch);
+          // The next poll of the store may be a long way off, or be running already without the new watch.
+          Store existing = store;
+          POLLER.execute(() -> existing.check(watch));
+        }
+      }
+    }
+    return new Registration(watches);
+  }
+
+  /** An active registration; closing it stops its notifications. */
+  public static final class Registration implements AutoCloseable {
+
+    private final List<Watch> watches;
+
+    Registration(List<Watch> watches) {
+      this.watches = watches;
+    }
+
+    @Override
+    public void close() {
+      synchronized (STORES) {
+        for (Watch watch : watches) {
+          Store store = STORES.get(watch.store);
+          if (store == null)
+            continue;
+          store.watches.remove(watch);
+          if (store.watches.isEmpty()) {
+            store.task.cancel(false);
+            STORES.remove(watch.store);
+          }
+        }
+      }
+    }
+  }
+
+  private static boolean isWatched(List<Watch> watches, FileStore store) {
+    for (Watch watch : watches)
+      if (watch.store.equals(store))
+        return true;
+    return false;
+  }
+
+  private static Path existingAncestor(Path path) {
+    Path existing = path.toAbsolutePath();
+    while (existing.getParent() != null && !Files.exists(existing))
+      existing = existing.getParent();
+    return existing;
+  }
+
+  private static final class Watch {
+    final Path directory;
+    final FileStore store;
+    final Listener listener;
+    final long[] thresholds;
+    long current = -1;
+
+    Watch(Path directory, FileStore store, Listener listener, long[] thresholds) {
+      this.directory  = directory;
+      this.store      = store;
+      this.listener   = listener;
+      this.thresholds = thresholds;
+    }
+
+    /** Returns the threshold that applies to {@code usable}, keeping the current one until space has recovered past the hysteresis. */
+    long thresholdFor(long usable) {
+      long next = -1;
+      for (long threshold : thresholds) {
+        if (usable < threshold) {
+          next = threshold;
+          break;
+        }
+      }
+      if (current >= 0 && (next < 0 || next > current) && usable < current * (1 + HYSTERESIS))
+        return current;
+      return next;
+    }
+
+    /** Returns the closest threshold below {@code usable}, or {@code -1}. */
+    long nextThresholdBelow(long usable) {
+      long below = -1;
+      for (long threshold : thresholds)
+        if (threshold < usable)
+          below = threshold;
+      return below;
+    }
+  }
+
+  private static final class Store {
+    final FileStore store;
+    final List<Watch> watches = new CopyOnWriteArrayList<Watch>();
+    ScheduledFuture<?> task;
+    long lastUsable = -1;
+    long lastPoll;
+    long interval = MIN_INTERVAL_MILLIS;
+
+    Store(FileStore store) {
+      this.store = store;
+    }
+
+    void schedule(long delay) {
+      task = POLLER.schedule(this::poll, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /** Checks a newly added watch without waiting for the next poll. */
+    void check(Watch watch) {
+      try {
+        if (watches.contains(watch))
+          update(watch, store.getUsableSpace());
+      } catch (IOException e) {
+        // Checked by the next poll.
+      }
+    }
+
+    private void poll() {
+      long usable;
+      try {
+        usable = store.getUsableSpace();
+      } catch (IOException e) {
+        synchronized (STORES) {
+          if (STORES.get(store) == this)
+            schedule(MAX_INTERVAL_MILLIS);
+        }
+        return;
+      }
+      long now = System.nanoTime();
+      for (Watch watch : watches)
+        update(watch, usable);
+      interval = nextInterval(usable, now);
+      lastUsable = usable;
+      lastPoll = now;
+      synchronized (STORES) {
+        if (STORES.get(store) == this)
+          schedule(interval);
+      }
+    }
+
+    private void update(Watch watch, long usable) {
+      long threshold = watch.thresholdFor(usable);
+      if (threshold != watch.current) {
+        watch.current = threshold;
+        try {
+          watch.listener.pressureChanged(new Event(watch.directory, store, usable, threshold));
+        } catch (RuntimeException e) {
+          // A failing listener must not stop the monitor for other projects.
+        }
+      }
+    }
+
+    /** Polls a quarter of the projected time until the next threshold is reached, backing off while space is not shrinking. */
+    private long nextInterval(long usable, long now) {
+      if (lastUsable < 0)
+        return MIN_INTERVAL_MILLIS;
+      long consumed = lastUsable - usable;
+      if (consumed <= 0)
+        return Math.min(interval * 2, MAX_INTERVAL_MILLIS);
+      double bytesPerMilli = consumed / Math.max((now - lastPoll) / 1e6, 1);
+      long headroom = Long.MAX_VALUE;
+      for (Watch watch : watches) {
+        long below = watch.nextThresholdBelow(usable);
+        if (below >= 0)
+          headroom = Math.min(headroom, usable - below);
+      }
+      if (headroom == Long.MAX_VALUE)
+        return Math.min(interval * 2, MAX_INTERVAL_MILLIS);
+      long projected = (long) (headroom / bytesPerMilli / 4);
+      return Math.max(MIN_INTERVAL_MILLIS, Math.min(projected, MAX_INTERVAL_MILLIS));
+    }
+  }
+}
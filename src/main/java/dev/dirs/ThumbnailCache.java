@@ -0,0 +1,336 @@
+package dev.dirs;
+
+import dev.dirs.impl.ParallelFiles;
+import dev.dirs.impl.Png;
+import dev.dirs.impl.Util;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** {@code ThumbnailCache} reads and writes thumbnails in the cache shared by desktop applications, as specified by the
+  * <a href="https://specifications.freedesktop.org/thumbnail-spec/latest/">freedesktop.org Thumbnail Managing Standard</a>,
+  * so that thumbnails created by file managers and other applications are reused, and the other way around.
+  * <p>
+  * Thumbnails are stored in {@code thumbnails} in {@link BaseDirectories#cacheDir}, in one directory per {@link Size},
+  * named by the MD5 hash of the URI of the original file. Each carries the URI and the modification time of the original
+  * file in its {@code Thumb::URI} and {@code Thumb::MTime} text chunks, and is only used while these still match.
+  * Files that cannot be read as images are recorded below {@code fail}, so that they are not tried again until they change.
+  * <p>
+  * Missing thumbnails are generated with {@link ImageIO} on a pool of daemon threads. Requests for a thumbnail that is
+  * already being loaded or generated share its result, and recently used thumbnails are kept in memory, up to a budget
+  * in bytes, so that showing a thumbnail again decodes nothing.
+  * <p>
+  * This class requires the {@code java.desktop} module, whose {@link BufferedImage} appears in its API. The module of this
+  * library only requires it statically, so that applications not using thumbnails do not need it: modular applications
+  * using this class must declare {@code requires java.desktop} themselves.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * ThumbnailCache thumbnails = ThumbnailCache.of(BaseDirectories.get(), "bar-app");
+  * thumbnails.get(Paths.get("photo.jpg"), ThumbnailCache.Size.LARGE).thenAccept(image -> show(image));
+  * }</pre>
+  */
+public final class ThumbnailCache {
+
+  /** The sizes of thumbnails, with the directories they are stored in. */
+  public enum Size {
+    NORMAL("normal", 128),
+    LARGE("large", 256),
+    X_LARGE("x-large", 512),
+    XX_LARGE("xx-large", 1024);
+
+    /** The name of the directory holding thumbnails of this size. */
+    public final String directory;
+
+    /** The maximal width and height of thumbnails of this size, in pixels. */
+    public final int pixels;
+
+    Size(String directory, int pixels) {
+      this.directory = directory;
+      this.pixels    = pixels;
+    }
+  }
+
+  /** The default budget of the in-memory cache, in bytes of decoded pixels. */
+  public static final long DEFAULT_MEMORY_BYTES = 64L * 1024 * 1024;
+
+  private static final String KEY_URI      = "Thumb::URI";
+  private static final String KEY_MTIME    = "Thumb::MTime";
+  private static final String KEY_SIZE     = "Thumb::Size";
+  private static final String KEY_SOFTWARE = "Software";
+  private static final String SOFTWARE     = "directories-jvm";
+
+  private static final ExecutorService GENERATORS = Executors.newFixedThreadPool(ParallelFiles.PARALLELISM, r -> {
+    Thread thread = new Thread(r, "thumbnail-generator");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Path root;
+  private final String applicationName;
+  private final long memoryBytes;
+  private final LinkedHashMap<String, Cached> memory = new LinkedHashMap<String, Cached>(16, 0.75f, true);
+  private final ConcurrentHashMap<String, CompletableFuture<BufferedImage>> loading = new ConcurrentHashMap<String, CompletableFuture<BufferedImage>>();
+  private long memoryUsed;
+
+  private ThumbnailCache(Path root, String applicationName, long memoryBytes) {
+    this.root            = root;
+    this.applicationName = applicationName;
+    this.memoryBytes     = memoryBytes;
+  }
+
+  /** Returns the thumbnail cache in the cache directory of {@code baseDirectories}.
+    *
+    * @param baseDirectories The base directories of the current user.
+    * @param applicationName The name under which files that could not be thumbnailed are recorded.
+    */
+  public static ThumbnailCache of(BaseDirectories baseDirectories, String applicationName) {
+    return of(Paths.get(baseDirectories.cacheDir, "thumbnails"), applicationName, DEFAULT_MEMORY_BYTES);
+  }
+
+  /** Returns the thumbnail cache in {@code root}, keeping up to {@code memoryBytes} of decoded thumbnails in memory. */
+  public static ThumbnailCache of(Path root, String applicationName, long memoryBytes) {
+    if (applicationName.isEmpty() || applicationName.contains("/"))
+      throw new IllegalArgumentException("invalid application name: " + applicationName);
+    return new ThumbnailCache(root.toAbsolutePath().normalize(), applicationName, memoryBytes);
+  }
+
+  /** Returns the URI identifying {@code file} in the cache. */
+  public static String uri(Path file) {
+    return file.toAbsolutePath().normalize().toUri().toASCIIString();
+  }
+
+  /** Returns the path of the thumbnail of {@code file} in the given size, whether it exists or not. */
+  public Path thumbnailPath(Path file, Size size) {
+    return root.resolve(size.directory).resolve(md5(uri(file)) + ".png");
+  }
+
+  /** Returns the thumbnail of {@code file} in the given size, loading it from the cache or generating it if necessary.
+    *
+    * @return A future completing with the thumbnail, with {@code null} if {@code file} cannot be read as an image,
+    *         or exceptionally if {@code file} cannot be read or the thumbnail cannot be stored.
+    */
+  // BufferedImage is not re-exported from java.desktop, which this module only requires statically; see the class documentation.
+  @SuppressWarnings("exports")
+  public CompletableFuture<BufferedImage> get(Path file, Size size) {
+    Path original = file.toAbsolutePath().normalize();
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(original, BasicFileAttributes.class);
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    String uri = uri(original);
+    String hash = md5(uri);
+    String key = size.directory + '/' + hash;
+    long mtime = attributes.lastModifiedTime().toMillis() / 1000;
+    synchronized (memory) {
+      Cached cached = memory.get(key);
+      if (cached != null && cached.mtime == mtime && cached.size == attributes.size())
+        return CompletableFuture.completedFuture(cached.image);
+    }
+    CompletableFuture<BufferedImage> created = new CompletableFuture<BufferedImage>();
+    CompletableFuture<BufferedImage> existing = loading.putIfAbsent(key, created);
+    // Copies, so that callers cancelling their future do not affect others waiting for the same thumbnail.
+    if (existing != null)
+      return existing.copy();
+    GENERATORS.execute(() -> {
+      try {
+        BufferedImage image = load(original, uri, hash, mtime, attributes.size(), size);
+        if (image != null)
+          remember(key, new Cached(image, mtime, attributes.size()));
+        created.complete(image);
+      } catch (IOException | RuntimeException | Error e) {
+        created.completeExceptionally(e);
+      } finally {
+        loading.remove(key, created);
+      }
+    });
+    return created.copy();
+  }
+
+  /** Deletes the thumbnails of {@code file} in all sizes, and the record of a failure to thumbnail it. */
+  public void invalidate(Path file) throws IOException {
+    String hash = md5(uri(file));
+    synchronized (memory) {
+      for (Size size : Size.values()) {
+        Cached cached = memory.remove(size.directory + '/' + hash);
+        if (cached != null)
+          memoryUsed -= cached.bytes();
+      }
+    }
+    for (Size size : Size.values())
+      Files.deleteIfExists(root.resolve(size.directory).resolve(hash + ".png"));
+    Files.deleteIfExists(failPath(hash));
+  }
+
+  private BufferedImage load(Path original, String uri, String hash, long mtime, long size, Size tier) throws IOException {
+    Path thumbnail = root.resolve(tier.directory).resolve(hash + ".png");
+    byte[] stored = readIfExists(thumbnail);
+    if (stored != null && isValid(stored, uri, mtime, size)) {
+      BufferedImage image = ImageIO.read(new ByteArrayInputStream(stored));
+      if (image != null)
+        return image;
+    }
+    byte[] failure = readIfExists(failPath(hash));
+    if (failure != null && isValid(failure, uri, mtime, size))
+      return null;
+
+    BufferedImage image;
+    try {
+      image = ImageIO.read(original.toFile());
+    } catch (IOException e) {
+      if (!Files.isReadable(original))
+        throw e;
+      image = null;
+    }
+    if (image == null) {
+      store(failPath(hash), new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB), uri, mtime, size);
+      return null;
+    }
+    BufferedImage scaled = scale(image, tier.pixels);
+    // Thumbnails of thumbnails are not stored, as the standard requires.
+    if (!original.startsWith(root))
+      store(thumbnail, scaled, uri, mtime, size);
+    return scaled;
+  }
+
+  private static boolean isValid(byte[] png, String uri, long mtime, long size) {
+    Map<String, String> text = Png.text(png);
+    if (text == null || !uri.equals(text.get(KEY_URI)) || !String.valueOf(mtime).equals(text.get(KEY_MTIME)))
+      return false;
+    String storedSize = text.get(KEY_SIZE);
+    return storedSize == null || storedSize.equals(String.valueOf(size));
+  }
+
+  /** Writes a thumbnail with its metadata under a temporary name readable only by the user, then renames it. */
+  private void store(Path target, BufferedImage image, String uri, long mtime, long size) throws IOException {
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    if (!ImageIO.write(image, "png", encoded))
+      throw new IOException("no PNG writer is available for " + target);
+    Map<String, String> text = new LinkedHashMap<String, String>();
+    text.put(KEY_URI, uri);
+    text.put(KEY_MTIME, String.valueOf(mtime));
+    text.put(KEY_SIZE, String.valueOf(size));
+    text.put(KEY_SOFTWARE, SOFTWARE);
+    byte[] png = Png.withText(encoded.toByteArray(), text);
+
+    Path dir = target.getParent();
+    EnsureDirectories.ensure(dir, EnsureDirectories.PRIVATE);
+    Path temp = dir.resolve("." + target.getFileName() + "-" + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE));
+    boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    FileAttribute<?>[] attributes = posix
+        ? new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")) }
+        : new FileAttribute<?>[0];
+    try {
+      Files.write(Files.createFile(temp, attributes), png);
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+  }
+
+  private Path failPath(String hash) {
+    return root.resolve("fail").resolve(applicationName).resolve(hash + ".png");
+  }
+
+  /** Scales {@code image} to fit into {@code pixels} squared, halving it in steps to keep quality with bilinear filtering.
+    * Smaller images are kept as they are.
+    */
+  static BufferedImage scale(BufferedImage image, int pixels) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    if (width <= pixels && height <= pixels)
+      return image;
+    double factor = (double) pixels / Math.max(width, height);
+    int targetWidth = Math.max(1, (int) Math.round(width * factor));
+    int targetHeight = Math.max(1, (int) Math.round(height * factor));
+    BufferedImage current = image;
+    do {
+      width = Math.max(targetWidth, width / 2);
+      height = Math.max(targetHeight, height / 2);
+      BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+      Graphics2D graphics = next.createGraphics();
+      try {
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(current, 0, 0, width, height, null);
+      } finally {
+        graphics.dispose();
+      }
+      current = next;
+    } while (width != targetWidth || height != targetHeight);
+    return current;
+  }
+
+  private void remember(String key, Cached cached) {
+    synchronized (memory) {
+      Cached previous = memory.put(key, cached);
+      if (previous != null)
+        memoryUsed -= previous.bytes();
+      memoryUsed += cached.bytes();
+      Iterator<Cached> eldest = memory.values().iterator();
+      while (memoryUsed > memoryBytes && eldest.hasNext()) {
+        memoryUsed -= eldest.next().bytes();
+        eldest.remove();
+      }
+    }
+  }
+
+  private static byte[] readIfExists(Path file) throws IOException {
+    try {
+      return Files.readAllBytes(file);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  private static String md5(String uri) {
+    try {
+      return Util.toHexString(MessageDigest.getInstance("MD5").digest(uri.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static final class Cached {
+    final BufferedImage image;
+    final long mtime;
+    final long size;
+
+    Cached(BufferedImage image, long mtime, long size) {
+      this.image = image;
+      this.mtime = mtime;
+      this.size  = size;
+    }
+
+    long bytes() {
+      return 4L * image.getWidth() * image.getHeight();
+    }
+  }
+}
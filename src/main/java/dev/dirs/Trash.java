@@ -0,0 +1,463 @@
+package dev.dirs;
+
+import dev.dirs.impl.FileUtil;
+import dev.dirs.impl.OwnedDirectories;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** {@code Trash} moves files to the trash shared by desktop applications, as specified by the
+  * <a href="https://specifications.freedesktop.org/trash-spec/latest/">freedesktop.org Trash specification</a>,
+  * so that users can restore them from their file manager.
+  * <p>
+  * Trashing a file is a rename, which is immediate regardless of the size of the file, instead of a recursive deletion.
+  * Files on the file system of the user's home trash, {@code Trash} in {@link BaseDirectories#dataDir}, are moved there.
+  * Files on other file systems are moved to the trash at the top of their mount, {@code .Trash/$uid} if the
+  * administrator has provided a sticky {@code .Trash} directory, or {@code .Trash-$uid} otherwise, so that they never
+  * need to be copied. Each trashed file is described by a {@code .trashinfo} file recording its original path and the
+  * time it was trashed, which is created first, to reserve a unique name.
+  * <p>
+  * {@link #purge} deletes the oldest entries of the home trash on a background thread until the trash fits into a
+  * size budget. Sizes of trashed directories are cached in the {@code directorysizes} file defined by the
+  * specification, so that they are only walked once.
+  * <p>
+  * The trash is only available on platforms following the XDG conventions.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * Trash trash = Trash.of(BaseDirectories.get());
+  * trash.trash(Paths.get(projectDirs.cacheDir, "old-index"));
+  * trash.purge(10L << 30);
+  * }</pre>
+  */
+public final class Trash {
+
+  private static final String FILES          = "files";
+  private static final String INFO           = "info";
+  private static final String INFO_SUFFIX    = ".trashinfo";
+  private static final String SIZES          = "directorysizes";
+  private static final String HEADER         = "[Trash Info]";
+  private static final int    STICKY         = 01000;
+  private static final int    MAX_ATTEMPTS   = 10000;
+
+  private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss");
+
+  private static final ExecutorService PURGER = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "trash-purge");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Path home;
+  private volatile Integer uid;
+
+  private Trash(Path home) {
+    this.home = home;
+  }
+
+  /** Returns the trash of the current user.
+    *
+    * @throws UnsupportedOperatingSystemException If the platform does not follow the XDG conventions.
+    */
+  public static Trash of(BaseDirectories baseDirectories) {
+    switch (Constants.operatingSystem) {
+      case Constants.LIN:
+      case Constants.BSD:
+      case Constants.SOLARIS:
+      case Constants.IBMI:
+      case Constants.AIX:
+        return of(Paths.get(baseDirectories.dataDir, "Trash"));
+      default:
+        throw new UnsupportedOperatingSystemException("The freedesktop.org trash is not supported on " + Constants.operatingSystemName);
+    }
+  }
+
+  static Trash of(Path home) {
+    return new Trash(home.toAbsolutePath().normalize());
+  }
+
+  /** A file in the home trash. */
+  public static final class Entry {
+
+    /** The name of the entry, unique within the trash. */
+    public final String name;
+
+    /** The path the file had before it was trashed. */
+    public final Path originalPath;
+
+    /** The local time the file was trashed at, or {@code null} if it was not recorded. */
+    public final LocalDateTime deletionDate;
+
+    /** The trashed file. */
+    public final Path file;
+
+    Entry(String name, Path originalPath, LocalDateTime deletionDate, Path file) {
+      this.name         = name;
+      this.originalPath = originalPath;
+      this.deletionDate = deletionDate;
+      this.file         = file;
+    }
+
+    @Override
+    public String toString() {
+      return "Trash.Entry(" + originalPath + ", " + deletionDate + ")";
+    }
+  }
+
+  /** Moves {@code file}, which may be a directory, to the trash of its file system.
+    *
+    * @return The path of the file in the trash.
+    *
+    * @throws IOException If the file does not exist, or no trash is available on its file system.
+    *                     The file is never deleted without being trashed.
+    */
+  public Path trash(Path file) throws IOException {
+    Path original = file.toAbsolutePath().normalize();
+    Path parent = original.getParent();
+    if (parent == null)
+      throw new IOException("cannot trash " + original);
+    Files.readAttributes(original, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    EnsureDirectories.ensure(home, EnsureDirectories.PRIVATE);
+
+    Path trash;
+    String recordedPath;
+    if (device(parent).equals(device(home))) {
+      trash = home;
+      recordedPath = original.toString();
+    } else {
+      Path top = mountTop(parent);
+      trash = topTrash(top);
+      // Relative to the top directory, so that the entry stays valid if the file system is mounted elsewhere.
+      recordedPath = top.relativize(original).toString();
+    }
+    EnsureDirectories.ensure(trash.resolve(FILES), EnsureDirectories.PRIVATE);
+    EnsureDirectories.ensure(trash.resolve(INFO), EnsureDirectories.PRIVATE);
+
+    byte[] info = (HEADER + "\nPath=" + encode(recordedPath) + "\nDeletionDate=" +
+        DATE.format(LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS)) + "\n").getBytes(StandardCharsets.UTF_8);
+    String baseName = original.getFileName().toString();
+    for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+      String name = attempt == 1 ? baseName : baseName + "." + attempt;
+      Path infoFile = trash.resolve(INFO).resolve(name + INFO_SUFFIX);
+      // Creating the info file reserves the name, also against other applications trashing at the same time.
+      try (FileChannel channel = FileChannel.open(infoFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+        FileUtil.writeFully(channel, ByteBuffer.wrap(info), 0);
+      } catch (FileAlreadyExistsException e) {
+        continue;
+      }
+      Path target = trash.resolve(FILES).resolve(name);
+      try {
+        moveWithoutReplacing(original, target);
+      } catch (FileAlreadyExistsException e) {
+        // Taken by a file whose info file is missing, which must not be overwritten either.
+        Files.deleteIfExists(infoFile);
+        continue;
+      } catch (IOException | RuntimeException e) {
+        Files.deleteIfExists(infoFile);
+        if (e instanceof AtomicMoveNotSupportedException)
+          throw new IOException("cannot trash " + original + " without copying it to " + trash, e);
+        throw e;
+      }
+      return target;
+    }
+    throw new IOException("no free name for " + baseName + " in " + trash);
+  }
+
+  /** Returns the entries of the home trash, oldest first. Entries of the trash directories of other file systems are not included. */
+  public List<Entry> list() throws IOException {
+    List<Entry> entries = new ArrayList<Entry>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(home.resolve(INFO), "*" + INFO_SUFFIX)) {
+      for (Path infoFile : stream) {
+        Entry entry = readInfo(infoFile);
+        if (entry != null)
+          entries.add(entry);
+      }
+    } catch (NoSuchFileException e) {
+      return entries;
+    }
+    entries.sort(Comparator.comparing((Entry entry) -> entry.deletionDate, Comparator.nullsFirst(Comparator.<LocalDateTime>naturalOrder())));
+    return entries;
+  }
+
+  /** Moves the file of {@code entry} back to its original path, creating missing parent directories.
+    *
+    * @throws FileAlreadyExistsException If a file exists at the original path.
+    */
+  public void restore(Entry entry) throws IOException {
+    Path parent = entry.originalPath.getParent();
+    if (parent != null)
+      Files.createDirectories(parent);
+    moveWithoutReplacing(entry.file, entry.originalPath);
+    Files.deleteIfExists(home.resolve(INFO).resolve(entry.name + INFO_SUFFIX));
+  }
+
+  /** Renames {@code source} to {@code target} unless {@code target} exists, which a plain rename would replace.
+    * <p>
+    * Regular files are hard-linked to the target, which fails atomically if the target exists, and then unlinked.
+    * Directories, symbolic links and files on file systems without hard links are renamed after checking the target.
+    *
+    * @throws FileAlreadyExistsException If {@code target} exists.
+    */
+  private static void moveWithoutReplacing(Path source, Path target) throws IOException {
+    if (Files.isRegularFile(source, LinkOption.NOFOLLOW_LINKS)) {
+      boolean linked;
+      try {
+        Files.createLink(target, source);
+        linked = true;
+      } catch (FileAlreadyExistsException e) {
+        throw e;
+      } catch (IOException | UnsupportedOperationException e) {
+        linked = false;
+      }
+      if (linked) {
+        Files.delete(source);
+        return;
+      }
+    }
+    if (Files.exists(target, LinkOption.NOFOLLOW_LINKS))
+      throw new FileAlreadyExistsException(target.toString());
+    Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** Deletes the oldest entries of the home trash on a background thread, until the remaining ones take up at most {@code maxBytes}.
+    *
+    * @return A future completing with the number of bytes freed.
+    */
+  public CompletableFuture<Long> purge(long maxBytes) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return purgeNow(maxBytes);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, PURGER);
+  }
+
+  private long purgeNow(long maxBytes) throws IOException {
+    List<Entry> entries = list();
+    Map<String, long[]> cached = readSizes();
+    Map<String, long[]> sizes = new HashMap<String, long[]>();
+    long total = 0;
+    long[] entrySizes = new long[entries.size()];
+    for (int i = 0; i < entries.size(); i++) {
+      Entry entry = entries.get(i);
+      BasicFileAttributes attributes;
+      try {
+        attributes = Files.readAttributes(entry.file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      } catch (NoSuchFileException e) {
+        continue;
+      }
+      if (attributes.isDirectory()) {
+        // Keyed by the modification time of the info file, as the specification requires.
+        long infoModified = Files.getLastModifiedTime(home.resolve(INFO).resolve(entry.name + INFO_SUFFIX)).toMillis() / 1000;
+        long[] size = cached.get(entry.name);
+        if (size == null || size[1] != infoModified)
+          size = new long[] { treeSize(entry.file), infoModified };
+        sizes.put(entry.name, size);
+        entrySizes[i] = size[0];
+      } else {
+        entrySizes[i] = attributes.size();
+      }
+      total += entrySizes[i];
+    }
+    long freed = 0;
+    for (int i = 0; i < entries.size() && total > maxBytes; i++) {
+      Entry entry = entries.get(i);
+      // The file first, so that an interrupted purge never leaves a file without its info.
+      FileUtil.deleteRecursively(entry.file);
+      Files.deleteIfExists(home.resolve(INFO).resolve(entry.name + INFO_SUFFIX));
+      sizes.remove(entry.name);
+      total -= entrySizes[i];
+      freed += entrySizes[i];
+    }
+    if (!sizes.isEmpty() || !cached.isEmpty())
+      writeSizes(sizes);
+    return freed;
+  }
+
+  private static long treeSize(Path dir) throws IOException {
+    long[] size = new long[1];
+    Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+        size[0] += attributes.size();
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException e) {
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return size[0];
+  }
+
+  /** Reads the directory size cache: one line per directory with its size in bytes, the modification time of its info file
+    * in seconds and its percent-encoded name.
+    */
+  private Map<String, long[]> readSizes() throws IOException {
+    Map<String, long[]> sizes = new HashMap<String, long[]>();
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(home.resolve(SIZES), StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      return sizes;
+    }
+    for (String line : lines) {
+      String[] fields = line.split(" ", 3);
+      if (fields.length != 3)
+        continue;
+      try {
+        sizes.put(decode(fields[2]), new long[] { Long.parseLong(fields[0]), Long.parseLong(fields[1]) });
+      } catch (IllegalArgumentException e) {
+        // A damaged line only causes the directory to be walked again.
+      }
+    }
+    return sizes;
+  }
+
+  private void writeSizes(Map<String, long[]> sizes) throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (Map.Entry<String, long[]> size : sizes.entrySet())
+      content.append(size.getValue()[0]).append(' ').append(size.getValue()[1]).append(' ').append(encode(size.getKey())).append('\n');
+    AtomicFiles.write(home.resolve(SIZES), content.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private Entry readInfo(Path infoFile) throws IOException {
+    String fileName = infoFile.getFileName().toString();
+    String name = fileName.substring(0, fileName.length() - INFO_SUFFIX.length());
+    String path = null;
+    LocalDateTime date = null;
+    boolean inSection = false;
+    for (String line : Files.readAllLines(infoFile, StandardCharsets.UTF_8)) {
+      if (line.startsWith("["))
+        inSection = line.trim().equals(HEADER);
+      else if (inSection && line.startsWith("Path=") && path == null)
+        path = line.substring("Path=".length());
+      else if (inSection && line.startsWith("DeletionDate=") && date == null) {
+        try {
+          date = LocalDateTime.parse(line.substring("DeletionDate=".length()).trim(), DATE);
+        } catch (DateTimeParseException e) {
+          // Kept without a date, which sorts it first.
+        }
+      }
+    }
+    if (path == null)
+      return null;
+    try {
+      return new Entry(name, home.resolve(decode(path)), date, home.resolve(FILES).resolve(name));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /** Returns the trash directory for files below {@code top}, creating {@code .Trash-$uid} if no usable {@code .Trash/$uid} exists. */
+  Path topTrash(Path top) throws IOException {
+    int uid = uid();
+    Path shared = top.resolve(".Trash");
+    try {
+      Map<String, Object> attributes = Files.readAttributes(shared, "unix:mode,isDirectory,isSymbolicLink", LinkOption.NOFOLLOW_LINKS);
+      // Only a sticky directory keeps other users from renaming or deleting the entries.
+      if (Boolean.TRUE.equals(attributes.get("isDirectory")) && ((Integer) attributes.get("mode") & STICKY) != 0) {
+        Path dir = shared.resolve(Integer.toString(uid));
+        try {
+          // Anyone can create entries in the shared directory, including a link to a directory of their own.
+          if (OwnedDirectories.isOwned(EnsureDirectories.ensure(dir, EnsureDirectories.PRIVATE), uid))
+            return dir;
+        } catch (IOException e) {
+          // Fall back to the per-user trash directory.
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // No administrator-provided trash directory.
+    }
+    Path own = top.resolve(".Trash-" + uid);
+    try {
+      EnsureDirectories.ensure(own, EnsureDirectories.PRIVATE);
+    } catch (IOException e) {
+      throw new IOException("no trash directory available for the file system mounted at " + top, e);
+    }
+    if (!OwnedDirectories.isOwned(own, uid))
+      throw new IOException(own + " is not owned by the current user");
+    return own;
+  }
+
+  /** Returns the top directory of the mount containing {@code dir}, the highest ancestor on the same device. */
+  private static Path mountTop(Path dir) throws IOException {
+    Object device = device(dir);
+    Path top = dir;
+    for (Path parent = dir.getParent(); parent != null && device(parent).equals(device); parent = parent.getParent())
+      top = parent;
+    return top;
+  }
+
+  private static Object device(Path path) throws IOException {
+    return Files.getAttribute(path, "unix:dev");
+  }
+
+  /** Returns the user ID of this process, as the owner of the home trash it has created or owns. */
+  private int uid() throws IOException {
+    Integer uid = this.uid;
+    if (uid == null)
+      this.uid = uid = (Integer) Files.getAttribute(home, "unix:uid");
+    return uid;
+  }
+
+  /** Percent-encodes {@code path} as the specification requires for the {@code Path} key, keeping {@code /}. */
+  static String encode(String path) {
+    StringBuilder encoded = new StringBuilder();
+    for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+      int c = b & 0xFF;
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || "-_.!~*'()/".indexOf(c) >= 0)
+        encoded.append((char) c);
+      else
+        encoded.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16))).append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+    }
+    return encoded.toString();
+  }
+
+  static String decode(String encoded) {
+    ByteArrayOutputStream decoded = new ByteArrayOutputStream(encoded.length());
+    for (int i = 0; i < encoded.length(); i++) {
+      char c = encoded.charAt(i);
+      if (c == '%') {
+        if (i + 2 >= encoded.length())
+          throw new IllegalArgumentException("incomplete escape in " + encoded);
+        decoded.write(Integer.parseInt(encoded.substring(i + 1, i + 3), 16));
+        i += 2;
+      } else {
+        decoded.write(c);
+      }
+    }
+    return new String(decoded.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
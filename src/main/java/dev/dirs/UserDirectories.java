@@ -4,6 +4,9 @@ import dev.dirs.impl.Linux;
 import dev.dirs.impl.Util;
 import dev.dirs.impl.Windows;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /** {@code UserDirectories} provides paths of user-facing standard directories, following the conventions of the operating system the library is running on.
   *
   * <h2>Examples</h2>
@@ -359,6 +362,22 @@ public final class UserDirectories {
     }
   }
 
+  /** Returns the directories of this instance by field name, in declaration order. Values may be {@code null}. */
+  Map<String, String> directories() {
+    Map<String, String> dirs = new LinkedHashMap<String, String>();
+    dirs.put("homeDir",     homeDir);
+    dirs.put("audioDir",    audioDir);
+    dirs.put("desktopDir",  desktopDir);
+    dirs.put("documentDir", documentDir);
+    dirs.put("downloadDir", downloadDir);
+    dirs.put("fontDir",     fontDir);
+    dirs.put("pictureDir",  pictureDir);
+    dirs.put("publicDir",   publicDir);
+    dirs.put("templateDir", templateDir);
+    dirs.put("videoDir",    videoDir);
+    return dirs;
+  }
+
   @Override
   public String toString() {
     return "UserDirectories (" + Constants.operatingSystemName + "):\n" +
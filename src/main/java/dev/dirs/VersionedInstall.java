@@ -0,0 +1,346 @@
+package dev.dirs;
+
+import dev.dirs.impl.DirectorySync;
+import dev.dirs.impl.FileUtil;
+import dev.dirs.impl.ParallelFiles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/** {@code VersionedInstall} installs versions of a tool side by side in a project's {@link ProjectDirectories#dataDir}
+  * and switches between them atomically.
+  * <p>
+  * Each version is unpacked, in parallel, into a staging directory that is renamed to {@code versions/<version>} once
+  * complete. The active version is the target of the {@code current} symbolic link, which is replaced with a single
+  * atomic rename, so processes never observe a partially upgraded installation. The executables in {@code current/bin}
+  * are linked into {@link BaseDirectories#executableDir}, where one is defined, through {@code current}, so that
+  * these links keep working across upgrades.
+  * <p>
+  * Processes running a version should hold a {@link Lease} on it. After a version has been activated, versions that
+  * are neither current nor leased are deleted in the background, unless they have just been installed. Leases are
+  * shared file locks, so they protect versions from other processes as well.
+  * <p>
+  * This class relies on symbolic links, which on Windows require the corresponding privilege or developer mode.
+  *
+  * <h2>Example</h2>
+  * <pre>{@code
+  * VersionedInstall tool = VersionedInstall.of(ProjectDirectories.from("com", "Foo Corp", "Bar Tool"));
+  * tool.install("2.1.0", downloadedZip);
+  * tool.activate("2.1.0");
+  * }</pre>
+  */
+public final class VersionedInstall {
+
+  private static final String VERSIONS       = "versions";
+  private static final String CURRENT        = "current";
+  private static final String BIN            = "bin";
+  private static final String LOCK_SUFFIX    = ".lock";
+  private static final long   MIN_AGE_MILLIS = 10 * 60 * 1000;
+
+  private static final ExecutorService COLLECTOR = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "versioned-install-gc");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Path root;
+  private final Path versions;
+  private final Path binDir;
+
+  private VersionedInstall(Path root, Path binDir) {
+    this.root     = root.toAbsolutePath().normalize();
+    this.versions = this.root.resolve(VERSIONS);
+    this.binDir   = binDir != null ? binDir.toAbsolutePath().normalize() : null;
+  }
+
+  /** Returns the installation in the data directory of {@code projectDirectories}, linking executables into
+    * {@link BaseDirectories#executableDir} if it is defined on the current platform.
+    */
+  public static VersionedInstall of(ProjectDirectories projectDirectories) {
+    String executableDir = BaseDirectories.get().executableDir;
+    return of(Paths.get(projectDirectories.dataDir), executableDir != null ? Paths.get(executableDir) : null);
+  }
+
+  /** Returns the installation in {@code root}, linking executables into {@code binDir} unless it is {@code null}. */
+  public static VersionedInstall of(Path root, Path binDir) {
+    return new VersionedInstall(root, binDir);
+  }
+
+  /** A shared lock keeping a version from being deleted while it is in use. */
+  public static final class Lease implements AutoCloseable {
+
+    /** The leased version. */
+    public final String version;
+
+    private final FileChannel channel;
+
+    Lease(String version, FileChannel channel) {
+      this.version = version;
+      this.channel = channel;
+    }
+
+    /** Releases the lease. */
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  /** Unpacks the zip archive {@code archive} as {@code version}, unless that version is already installed.
+    * Entries below {@code bin/} are made executable.
+    *
+    * @return The directory of the installed version.
+    */
+  public Path install(String version, Path archive) throws IOException {
+    Path target = versionDir(version);
+    if (Files.isDirectory(target))
+      return target;
+    EnsureDirectories.ensure(versions, EnsureDirectories.PRIVATE);
+    Path stage = versions.resolve("." + version + ".partial-" + ProcessHandle.current().pid() + "-" +
+        Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE));
+    try {
+      unpack(archive, stage);
+      Files.move(stage, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      FileUtil.deleteRecursively(stage);
+      if (Files.isDirectory(target))
+        return target; // Installed concurrently by another process.
+      throw e;
+    }
+    DirectorySync.sync(versions);
+    return target;
+  }
+
+  /** Makes {@code version} the current version, updates the links in the executable directory,
+    * and deletes unused versions in the background.
+    */
+  public void activate(String version) throws IOException {
+    Path target = versionDir(version);
+    if (!Files.isDirectory(target))
+      throw new NoSuchFileException(target.toString(), null, "version " + version + " is not installed");
+    replaceLink(root.resolve(CURRENT), Paths.get(VERSIONS, version));
+    if (binDir != null)
+      updateExecutableLinks(target.resolve(BIN));
+    COLLECTOR.execute(() -> {
+      try {
+        collectGarbage();
+      } catch (IOException e) {
+        // Retried on the next activation.
+      }
+    });
+  }
+
+  /** Returns the current version, or {@code null} if none has been activated. */
+  public String current() throws IOException {
+    try {
+      return Files.readSymbolicLink(root.resolve(CURRENT)).getFileName().toString();
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  /** Returns the installed versions, in no particular order. */
+  public List<String> versions() throws IOException {
+    List<String> installed = new ArrayList<String>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(versions)) {
+      for (Path entry : stream) {
+        String name = entry.getFileName().toString();
+        if (!name.startsWith(".") && Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS))
+          installed.add(name);
+      }
+    } catch (NoSuchFileException e) {
+      return Collections.emptyList();
+    }
+    return installed;
+  }
+
+  /** Takes a shared lease on {@code version}, which keeps it from being deleted until the lease is closed. */
+  public Lease lease(String version) throws IOException {
+    versionDir(version);
+    EnsureDirectories.ensure(versions, EnsureDirectories.PRIVATE);
+    FileChannel channel = FileChannel.open(lockFile(version), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      channel.lock(0, Long.MAX_VALUE, true);
+      // The version may have been deleted while waiting for the lock.
+      if (!Files.isDirectory(versionDir(version)))
+        throw new NoSuchFileException(versionDir(version).toString(), null, "version " + version + " is not installed");
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    return new Lease(version, channel);
+  }
+
+  /** Deletes all versions that are neither current nor leased, and returns them.
+    * Versions installed within the last {@value #MIN_AGE_MILLIS} milliseconds are kept, as they may be about to be activated.
+    */
+  public synchronized List<String> collectGarbage() throws IOException {
+    String current = current();
+    List<String> deleted = new ArrayList<String>();
+    if (current == null)
+      return deleted;
+    long installedBefore = System.currentTimeMillis() - MIN_AGE_MILLIS;
+    for (String version : versions()) {
+      if (version.equals(current) || Files.getLastModifiedTime(versionDir(version)).toMillis() > installedBefore)
+        continue;
+      try (FileChannel channel = FileChannel.open(lockFile(version), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+        FileLock lock;
+        try {
+          lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+          lock = null; // Leased within this JVM.
+        }
+        if (lock == null)
+          continue;
+        // Deleted while holding the exclusive lock, so no lease can be taken on a half-deleted version.
+        FileUtil.deleteRecursively(versionDir(version));
+        Files.deleteIfExists(lockFile(version));
+        lock.release();
+        deleted.add(version);
+      }
+    }
+    return deleted;
+  }
+
+  private Path versionDir(String version) {
+    if (version.isEmpty() || version.startsWith(".") || version.indexOf('/') >= 0 || version.indexOf('\\') >= 0)
+      throw new IllegalArgumentException("'" + version + "' is not a valid version");
+    return versions.resolve(version);
+  }
+
+  private Path lockFile(String version) {
+    return versions.resolve("." + version + LOCK_SUFFIX);
+  }
+
+  /** Extracts {@code archive} into {@code stage}, creating directories first and then writing files in parallel. */
+  private static void unpack(Path archive, Path stage) throws IOException {
+    Files.createDirectory(stage);
+    try (ZipFile zip = new ZipFile(archive.toFile())) {
+      List<ZipEntry> files = new ArrayList<ZipEntry>();
+      Set<Path> dirs = new LinkedHashSet<Path>();
+      dirs.add(stage);
+      for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+        ZipEntry entry = entries.nextElement();
+        Path target = stage.resolve(entry.getName()).normalize();
+        if (!target.startsWith(stage))
+          throw new IOException("archive entry " + entry.getName() + " points outside of the installation");
+        if (entry.isDirectory()) {
+          dirs.add(target);
+        } else {
+          dirs.add(target.getParent());
+          files.add(entry);
+        }
+      }
+      for (Path dir : dirs)
+        Files.createDirectories(dir);
+
+      ExecutorService extractors = Executors.newFixedThreadPool(ParallelFiles.PARALLELISM);
+      try {
+        List<Future<?>> pending = new ArrayList<Future<?>>(files.size());
+        for (ZipEntry entry : files) {
+          pending.add(extractors.submit(() -> {
+            extract(zip, entry, stage);
+            return null;
+          }));
+        }
+        for (Future<?> future : pending)
+          await(future);
+      } finally {
+        extractors.shutdown();
+      }
+      for (Path dir : dirs)
+        DirectorySync.sync(dir);
+    }
+  }
+
+  private static void extract(ZipFile zip, ZipEntry entry, Path stage) throws IOException {
+    Path target = stage.resolve(entry.getName()).normalize();
+    try (InputStream in = zip.getInputStream(entry)) {
+      Files.copy(in, target);
+    }
+    if (entry.getName().startsWith(BIN + "/"))
+      target.toFile().setExecutable(true);
+    if (entry.getLastModifiedTime() != null)
+      Files.setLastModifiedTime(target, entry.getLastModifiedTime());
+    try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+      channel.force(true);
+    }
+  }
+
+  private static void await(Future<?> future) throws IOException {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while unpacking", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /** Points {@code link} at {@code target} by renaming a new link over it, which replaces it atomically. */
+  private static void replaceLink(Path link, Path target) throws IOException {
+    Path temp = link.resolveSibling("." + link.getFileName() + "-" + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE));
+    Files.createSymbolicLink(temp, target);
+    try {
+      Files.move(temp, link, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    DirectorySync.sync(link.getParent());
+  }
+
+  /** Links each executable in {@code bin} into {@link #binDir} through {@code current}, and removes links to executables
+    * the current version no longer has. Files in the executable directory that are not our links are left alone.
+    */
+  private void updateExecutableLinks(Path bin) throws IOException {
+    Path currentBin = root.resolve(CURRENT).resolve(BIN);
+    EnsureDirectories.ensure(binDir, EnsureDirectories.PRIVATE);
+    if (Files.isDirectory(bin)) {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(bin)) {
+        for (Path executable : stream) {
+          Path link = binDir.resolve(executable.getFileName().toString());
+          Path target = currentBin.resolve(executable.getFileName().toString());
+          if (!Files.exists(link, LinkOption.NOFOLLOW_LINKS))
+            replaceLink(link, target);
+        }
+      }
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(binDir)) {
+      for (Path link : stream) {
+        if (!Files.isSymbolicLink(link))
+          continue;
+        Path target = Files.readSymbolicLink(link);
+        if (target.startsWith(currentBin) && !Files.exists(bin.resolve(target.getFileName().toString())))
+          Files.deleteIfExists(link);
+      }
+    }
+  }
+}
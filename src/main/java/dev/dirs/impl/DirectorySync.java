@@ -0,0 +1,65 @@
+package dev.dirs.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Coalesces directory {@code fsync}s: a caller is covered by any flush of the same directory that starts after its request,
+  * so concurrent commits to one directory share a single flush instead of issuing one each.
+  */
+public final class DirectorySync {
+
+  private static final ConcurrentHashMap<Path, DirectorySync> DIRECTORIES = new ConcurrentHashMap<Path, DirectorySync>();
+
+  private final Path directory;
+  private long requested;
+  private long completed;
+  private boolean running;
+
+  private DirectorySync(Path directory) {
+    this.directory = directory;
+  }
+
+  /** Returns once every change made to {@code directory} before this call is on stable storage. */
+  public static void sync(Path directory) throws IOException {
+    Path key = directory.toAbsolutePath().normalize();
+    DIRECTORIES.computeIfAbsent(key, DirectorySync::new).await();
+  }
+
+  private void await() throws IOException {
+    long ticket;
+    synchronized (this) {
+      ticket = ++requested;
+    }
+    while (true) {
+      long target;
+      synchronized (this) {
+        while (running && completed < ticket) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while syncing " + directory);
+          }
+        }
+        if (completed >= ticket)
+          return;
+        running = true;
+        target = requested;
+      }
+      boolean success = false;
+      try {
+        FileUtil.fsyncDirectory(directory);
+        success = true;
+      } finally {
+        synchronized (this) {
+          running = false;
+          if (success)
+            completed = Math.max(completed, target);
+          notifyAll();
+        }
+      }
+    }
+  }
+}
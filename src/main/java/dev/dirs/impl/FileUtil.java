@@ -0,0 +1,66 @@
+package dev.dirs.impl;
+
+import dev.dirs.Constants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public final class FileUtil {
+
+  private FileUtil() {}
+
+  private static final String[] MEMORY_FILESYSTEMS = { "tmpfs", "ramfs" };
+
+  /** Flushes the directory entry of {@code dir} to stable storage, so that preceding renames and creations survive a crash.
+    * <p>
+    * Windows does not allow opening a directory as a channel; NTFS journals metadata itself, so this is a no-op there.
+    */
+  public static void fsyncDirectory(Path dir) throws IOException {
+    if (Constants.operatingSystem == 'w')
+      return;
+    try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+      channel.force(true);
+    }
+  }
+
+  public static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0)
+        throw new IOException("unexpected end of file at position " + position);
+      position += read;
+    }
+  }
+
+  public static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  /** Returns {@code true} if {@code store} keeps its files in memory, as {@code tmpfs} and {@code ramfs} do. */
+  public static boolean isMemoryBacked(FileStore store) {
+    for (String memoryType : MEMORY_FILESYSTEMS)
+      if (memoryType.equals(store.type()))
+        return true;
+    return false;
+  }
+
+  /** Deletes {@code path} and, if it is a directory, everything below it. Does nothing if {@code path} does not exist. */
+  public static void deleteRecursively(Path path) throws IOException {
+    if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS))
+      return;
+    try (Stream<Path> paths = Files.walk(path)) {
+      for (Path each : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+        Files.deleteIfExists(each);
+    }
+  }
+}
@@ -3,6 +3,11 @@ package dev.dirs.impl;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
 
 public final class Linux {
 
@@ -10,6 +15,9 @@ public final class Linux {
     throw new Error();
   }
 
+  private static volatile String fallbackRuntimeDir;
+  private static volatile boolean fallbackRuntimeDirResolved;
+
 
   static String ensureSingleSlash(String arg1, String arg2) {
     boolean arg1Slash = arg1.endsWith("/");
@@ -28,6 +36,8 @@ public final class Linux {
   public static String runtimeDir(String path) {
     String runDir = System.getenv("XDG_RUNTIME_DIR");
     if (Util.isNullOrEmpty(runDir))
+      runDir = fallbackRuntimeDir();
+    if (runDir == null)
       return null;
     else if (path == null)
       return runDir;
@@ -35,6 +45,58 @@ public final class Linux {
       return runDir + '/' + path;
   }
 
+  /** Returns a private, memory-backed directory to use when {@code $XDG_RUNTIME_DIR} is not set,
+    * or {@code null} if none can be found that is owned by the current user, only accessible by them and on tmpfs.
+    * <p>
+    * {@code /run/user/$UID} is used if it exists, as that is what {@code $XDG_RUNTIME_DIR} normally points to,
+    * otherwise {@code /dev/shm/runtime-$UID} is created. The result is computed once per JVM.
+    */
+  static String fallbackRuntimeDir() {
+    if (!fallbackRuntimeDirResolved) {
+      synchronized (Linux.class) {
+        if (!fallbackRuntimeDirResolved) {
+          fallbackRuntimeDir = resolveFallbackRuntimeDir();
+          fallbackRuntimeDirResolved = true;
+        }
+      }
+    }
+    return fallbackRuntimeDir;
+  }
+
+  private static String resolveFallbackRuntimeDir() {
+    try {
+      Integer uid = OwnedDirectories.currentUid();
+      if (uid == null)
+        return null;
+      Path runUser = Paths.get("/run/user", uid.toString());
+      if (isPrivateMemoryDirectory(runUser, uid))
+        return runUser.toString();
+      Path shm = Paths.get("/dev/shm");
+      if (!Files.isDirectory(shm) || !isMemoryFileSystem(shm))
+        return null;
+      Path shmRuntime = shm.resolve("runtime-" + uid);
+      try {
+        Files.createDirectory(shmRuntime, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+      } catch (FileAlreadyExistsException e) {
+        // Created by an earlier process; only trusted if it passes the checks below.
+      }
+      if (isPrivateMemoryDirectory(shmRuntime, uid))
+        return shmRuntime.toString();
+      return null;
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /** Checks that {@code dir} is a real directory (not a symlink) owned by {@code uid}, with mode 0700, on a memory-backed file system. */
+  private static boolean isPrivateMemoryDirectory(Path dir, int uid) throws IOException {
+    return OwnedDirectories.isPrivate(dir, uid) && isMemoryFileSystem(dir);
+  }
+
+  private static boolean isMemoryFileSystem(Path path) throws IOException {
+    return FileUtil.isMemoryBacked(Files.getFileStore(path));
+  }
+
   public static String executableDir(String homeDir, String dataDir) {
     String binDir = System.getenv("XDG_BIN_HOME");
     if (Util.isNullOrEmpty(binDir))
@@ -0,0 +1,32 @@
+package dev.dirs.impl;
+
+/** Decides when a modification time may stand in for the content of a file or directory, so that it is only read
+  * again once the time has changed.
+  * <p>
+  * File systems store modification times with a coarse granularity, up to two seconds on FAT, so a change made in the
+  * same tick as the read would leave the time unchanged. A time that is that recent when the content is read is
+  * therefore not remembered, and the content is read again the next time.
+  */
+public final class ModificationTimes {
+
+  private ModificationTimes() {
+    throw new Error();
+  }
+
+  /** The recorded time of content that must be read again. */
+  public static final long UNKNOWN = -1;
+
+  private static final long RACY_MILLIS = 2000;
+
+  /** Returns the time to record for content read at {@code now} with modification time {@code modified}:
+    * {@code modified}, or {@link #UNKNOWN} if the content could still change without changing it.
+    */
+  public static long record(long modified, long now) {
+    return now - modified < RACY_MILLIS ? UNKNOWN : modified;
+  }
+
+  /** Returns whether content recorded with {@link #record} is still current, given its modification time {@code modified}. */
+  public static boolean isCurrent(long recorded, long modified) {
+    return recorded != UNKNOWN && recorded == modified;
+  }
+}
@@ -0,0 +1,138 @@
+package dev.dirs.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Reads family and style names from the {@code name} table of TrueType and OpenType fonts and collections,
+  * without reading the rest of the file.
+  */
+public final class OpenType {
+
+  private OpenType() {}
+
+  private static final int TRUETYPE   = 0x00010000;
+  private static final int TAG_OTTO   = 0x4F54544F; // 'OTTO', CFF outlines
+  private static final int TAG_TRUE   = 0x74727565; // 'true', legacy Apple TrueType
+  private static final int TAG_TTCF   = 0x74746366; // 'ttcf', collections
+  private static final int TAG_NAME   = 0x6E616D65; // 'name'
+
+  private static final int MAX_FACES      = 1024;
+  private static final int MAX_TABLES     = 1024;
+  private static final int MAX_NAME_TABLE = 1024 * 1024;
+
+  private static final int NAME_FAMILY             = 1;
+  private static final int NAME_SUBFAMILY          = 2;
+  private static final int NAME_TYPOGRAPHIC_FAMILY = 16;
+  private static final int NAME_TYPOGRAPHIC_STYLE  = 17;
+
+  private static final int LANGUAGE_EN_US = 0x409;
+
+  /** Returns the family and style of each face in {@code file}: one for a single font, several for a collection.
+    *
+    * @throws IOException If the file cannot be read or is not a TrueType or OpenType font.
+    */
+  public static List<String[]> faces(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer header = read(channel, 0, 12);
+      List<String[]> faces = new ArrayList<String[]>();
+      if (header.getInt(0) == TAG_TTCF) {
+        int count = header.getInt(8);
+        if (count <= 0 || count > MAX_FACES)
+          throw new IOException(file + " is a font collection with " + count + " faces");
+        ByteBuffer offsets = read(channel, 12, 4 * count);
+        for (int i = 0; i < count; i++)
+          faces.add(face(channel, offsets.getInt(4 * i) & 0xFFFFFFFFL));
+      } else {
+        faces.add(face(channel, 0));
+      }
+      return faces;
+    }
+  }
+
+  private static String[] face(FileChannel channel, long offset) throws IOException {
+    ByteBuffer header = read(channel, offset, 12);
+    int version = header.getInt(0);
+    if (version != TRUETYPE && version != TAG_OTTO && version != TAG_TRUE)
+      throw new IOException("not a TrueType or OpenType font");
+    int tables = header.getShort(4) & 0xFFFF;
+    if (tables > MAX_TABLES)
+      throw new IOException("font has " + tables + " tables");
+    ByteBuffer records = read(channel, offset + 12, 16 * tables);
+    for (int i = 0; i < tables; i++) {
+      if (records.getInt(16 * i) != TAG_NAME)
+        continue;
+      long tableOffset = records.getInt(16 * i + 8) & 0xFFFFFFFFL;
+      long length = records.getInt(16 * i + 12) & 0xFFFFFFFFL;
+      if (length < 6 || length > MAX_NAME_TABLE)
+        throw new IOException("font has a name table of " + length + " bytes");
+      return names(read(channel, tableOffset, (int) length));
+    }
+    throw new IOException("font has no name table");
+  }
+
+  /** Picks the best-suited record for each name, preferring Windows English names, then Unicode, then Macintosh ones. */
+  private static String[] names(ByteBuffer table) throws IOException {
+    int count = table.getShort(2) & 0xFFFF;
+    int strings = table.getShort(4) & 0xFFFF;
+    String[] names = new String[4];
+    int[] ranks = new int[4];
+    for (int i = 0; i < count && 6 + 12 * i + 12 <= table.limit(); i++) {
+      int record   = 6 + 12 * i;
+      int platform = table.getShort(record) & 0xFFFF;
+      int encoding = table.getShort(record + 2) & 0xFFFF;
+      int language = table.getShort(record + 4) & 0xFFFF;
+      int nameId   = table.getShort(record + 6) & 0xFFFF;
+      int length   = table.getShort(record + 8) & 0xFFFF;
+      int start    = strings + (table.getShort(record + 10) & 0xFFFF);
+      int slot = slot(nameId);
+      int rank = rank(platform, encoding, language);
+      if (slot < 0 || rank <= ranks[slot] || start + length > table.limit())
+        continue;
+      Charset charset = platform == 1 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_16BE;
+      String name = new String(table.array(), start, length, charset).trim();
+      if (!name.isEmpty()) {
+        names[slot] = name;
+        ranks[slot] = rank;
+      }
+    }
+    String family = names[2] != null ? names[2] : names[0];
+    String style  = names[3] != null ? names[3] : names[1];
+    if (family == null)
+      throw new IOException("font has no family name");
+    return new String[] { family, style != null ? style : "Regular" };
+  }
+
+  private static int slot(int nameId) {
+    switch (nameId) {
+      case NAME_FAMILY:             return 0;
+      case NAME_SUBFAMILY:          return 1;
+      case NAME_TYPOGRAPHIC_FAMILY: return 2;
+      case NAME_TYPOGRAPHIC_STYLE:  return 3;
+      default:                      return -1;
+    }
+  }
+
+  private static int rank(int platform, int encoding, int language) {
+    if (platform == 3 && (encoding == 1 || encoding == 10))
+      return language == LANGUAGE_EN_US ? 4 : 3;
+    if (platform == 0)
+      return 2;
+    // Mac Roman is decoded as Latin-1, which is exact for ASCII names.
+    if (platform == 1 && encoding == 0 && language == 0)
+      return 1;
+    return 0;
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    FileUtil.readFully(channel, buffer, position);
+    return buffer;
+  }
+}
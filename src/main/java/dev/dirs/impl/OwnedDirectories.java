@@ -0,0 +1,77 @@
+package dev.dirs.impl;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+
+/** Checks directories that are created in places shared with other users, such as the temporary directory or the top
+  * of a mount, where another user could have created them first or replaced them with a symbolic link.
+  */
+public final class OwnedDirectories {
+
+  private OwnedDirectories() {
+    throw new Error();
+  }
+
+  private static final int PRIVATE_DIRECTORY_MODE = 040700;
+
+  /** Returns the user ID of this process, or {@code null} if the file system does not report owners as Unix user IDs. */
+  public static Integer currentUid() throws IOException {
+    try {
+      Path proc = Paths.get("/proc/self");
+      if (Files.exists(proc))
+        return (Integer) Files.getAttribute(proc, "unix:uid");
+      Path home = Paths.get(System.getProperty("user.home"));
+      if (Files.isDirectory(home))
+        return (Integer) Files.getAttribute(home, "unix:uid");
+      return null;
+    } catch (UnsupportedOperationException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /** Checks that {@code dir} is a real directory (not a symlink) owned by {@code uid}. */
+  public static boolean isOwned(Path dir, int uid) throws IOException {
+    return Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)
+        && ((Integer) Files.getAttribute(dir, "unix:uid", LinkOption.NOFOLLOW_LINKS)) == uid;
+  }
+
+  /** Checks that {@code dir} is a real directory (not a symlink) owned by {@code uid}, with mode 0700. */
+  public static boolean isPrivate(Path dir, int uid) throws IOException {
+    if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS))
+      return false;
+    Map<String, Object> attributes = Files.readAttributes(dir, "unix:uid,mode", LinkOption.NOFOLLOW_LINKS);
+    return ((Integer) attributes.get("uid")) == uid
+        && ((Integer) attributes.get("mode") & 0170777) == PRIVATE_DIRECTORY_MODE;
+  }
+
+  /** Creates {@code dir} with mode 0700 if it does not exist, in a parent directory that must exist.
+    * <p>
+    * On file systems that do not report Unix owners, as on Windows, where the temporary directory belongs to each user,
+    * the directory is created without further checks.
+    *
+    * @return {@code dir}.
+    *
+    * @throws IOException If {@code dir} is a symbolic link, belongs to another user or is accessible by other users.
+    */
+  public static Path ensurePrivate(Path dir) throws IOException {
+    if (!dir.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+      Files.createDirectories(dir);
+      return dir;
+    }
+    try {
+      Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+    } catch (FileAlreadyExistsException e) {
+      // Created by an earlier process; only trusted if it passes the check below.
+    }
+    Integer uid = currentUid();
+    if (uid == null || !isPrivate(dir, uid))
+      throw new IOException(dir + " is not a private directory of the current user");
+    return dir;
+  }
+}
@@ -0,0 +1,68 @@
+package dev.dirs.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/** Sizes the thread pools that work on many files at once, such as copying, extracting or reading them, and walks
+  * directory trees in parallel.
+  * <p>
+  * The work waits on the file system rather than the CPU, so there are at least two threads, letting one request
+  * overlap with another, and at most eight, beyond which most drives do not get faster.
+  */
+public final class ParallelFiles {
+
+  private ParallelFiles() {
+    throw new Error();
+  }
+
+  /** The number of threads used to work on files in parallel. */
+  public static final int PARALLELISM = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+  /** Visits the directories of a {@linkplain #walk walk}. */
+  public interface Visitor<D> {
+
+    /** Visits {@code dir}, adding the sub-directories to visit to {@code children}. Called by several threads at once.
+      * <p>
+      * Children are passed back to this method, so they may also stand for other work to be done in parallel with the
+      * walk, such as reading a file.
+      */
+    void visit(D dir, List<D> children) throws IOException;
+  }
+
+  /** Visits {@code roots}, and all children the visitor adds, on a pool of {@link #PARALLELISM} threads.
+    *
+    * @throws IOException The first exception thrown by the visitor, which ends the walk.
+    */
+  public static <D> void walk(Collection<? extends D> roots, Visitor<D> visitor) throws IOException {
+    ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+    try {
+      pool.invoke(ForkJoinTask.adapt(() -> visitAll(roots, visitor)));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static <D> void visitAll(Collection<? extends D> dirs, Visitor<D> visitor) {
+    List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(dirs.size());
+    for (D dir : dirs)
+      tasks.add(ForkJoinTask.adapt(() -> visit(dir, visitor)));
+    ForkJoinTask.invokeAll(tasks);
+  }
+
+  private static <D> void visit(D dir, Visitor<D> visitor) {
+    List<D> children = new ArrayList<D>();
+    try {
+      visitor.visit(dir, children);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    visitAll(children, visitor);
+  }
+}
@@ -0,0 +1,73 @@
+package dev.dirs.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/** Reads and adds the {@code tEXt} chunks of PNG images, without decoding the image data. */
+public final class Png {
+
+  private Png() {}
+
+  private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+  private static final int TYPE_IHDR = 0x49484452;
+  private static final int TYPE_TEXT = 0x74455874;
+  private static final int TYPE_IDAT = 0x49444154;
+
+  /** Returns the keywords and texts of the {@code tEXt} chunks preceding the image data of {@code png},
+    * or {@code null} if it is not a PNG image.
+    */
+  public static Map<String, String> text(byte[] png) {
+    if (png.length < SIGNATURE.length || !Arrays.equals(png, 0, SIGNATURE.length, SIGNATURE, 0, SIGNATURE.length))
+      return null;
+    ByteBuffer buffer = ByteBuffer.wrap(png);
+    Map<String, String> text = new LinkedHashMap<String, String>();
+    int position = SIGNATURE.length;
+    while (position + 8 <= png.length) {
+      int length = buffer.getInt(position);
+      int type = buffer.getInt(position + 4);
+      if (length < 0 || type == TYPE_IDAT || position + 12L + length > png.length)
+        break;
+      if (type == TYPE_TEXT) {
+        int start = position + 8;
+        int separator = start;
+        while (separator < start + length && png[separator] != 0)
+          separator++;
+        if (separator < start + length) {
+          String keyword = new String(png, start, separator - start, StandardCharsets.ISO_8859_1);
+          text.put(keyword, new String(png, separator + 1, start + length - separator - 1, StandardCharsets.ISO_8859_1));
+        }
+      }
+      position += 12 + length;
+    }
+    return text;
+  }
+
+  /** Returns a copy of {@code png} with a {@code tEXt} chunk for each entry of {@code text} inserted after the header.
+    * Keywords and texts must be representable in Latin-1.
+    */
+  public static byte[] withText(byte[] png, Map<String, String> text) {
+    ByteBuffer buffer = ByteBuffer.wrap(png);
+    int headerEnd = SIGNATURE.length + 12 + buffer.getInt(SIGNATURE.length);
+    if (buffer.getInt(SIGNATURE.length + 4) != TYPE_IHDR)
+      throw new IllegalArgumentException("not a PNG image");
+    ByteArrayOutputStream out = new ByteArrayOutputStream(png.length + 256);
+    out.write(png, 0, headerEnd);
+    for (Map.Entry<String, String> entry : text.entrySet()) {
+      byte[] data = (entry.getKey() + '\0' + entry.getValue()).getBytes(StandardCharsets.ISO_8859_1);
+      ByteBuffer chunk = ByteBuffer.allocate(12 + data.length);
+      chunk.putInt(data.length).putInt(TYPE_TEXT).put(data);
+      CRC32 crc = new CRC32();
+      crc.update(chunk.array(), 4, 4 + data.length);
+      chunk.putInt((int) crc.getValue());
+      out.write(chunk.array(), 0, chunk.capacity());
+    }
+    out.write(png, headerEnd, png.length - headerEnd);
+    return out.toByteArray();
+  }
+}
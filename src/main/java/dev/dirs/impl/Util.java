@@ -37,6 +37,13 @@ public final class Util {
     return value.substring(startingPosition);
   }
 
+  public static String toHexString(byte[] bytes) {
+    StringBuilder buf = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes)
+      buf.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    return buf.toString();
+  }
+
   static int stringLength(String value) {
     if (value == null)
       return -1;
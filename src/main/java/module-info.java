@@ -1,3 +1,4 @@
 module dev.dirs {
+  requires static java.desktop;
   exports dev.dirs;
 }
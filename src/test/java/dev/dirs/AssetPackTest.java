@@ -0,0 +1,112 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class AssetPackTest {
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  private static String content(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void overwriteInt(Path file, long position, int value) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, value), position);
+    }
+  }
+
+  @Test
+  public void testWriteOpenAndLookup() throws IOException {
+    Path dir = temporaryDirectories.create("assets");
+    Path tree = Files.createDirectories(dir.resolve("tree").resolve("icons"));
+    Files.write(tree.resolve("save.png"), "save".getBytes(StandardCharsets.UTF_8));
+    Path pack = dir.resolve("ui.pack");
+    AssetPack.writer(pack, 16)
+        .addTree(tree.getParent())
+        .add("ünïcode", "unicode".getBytes(StandardCharsets.UTF_8))
+        .add("empty", new byte[0])
+        .add("a", "replaced".getBytes(StandardCharsets.UTF_8))
+        .add("a", "first".getBytes(StandardCharsets.UTF_8))
+        .write();
+
+    try (AssetPack assets = AssetPack.open(pack)) {
+      assertEquals(4, assets.size());
+      // Sorted by unsigned UTF-8 bytes, which puts non-ASCII names last.
+      assertEquals(Arrays.asList("a", "empty", "icons/save.png", "ünïcode"), assets.names());
+      assertEquals("first", content(assets.get("a")));
+      assertEquals("save", content(assets.get("icons/save.png")));
+      assertEquals("unicode", content(assets.get("ünïcode")));
+      assertEquals(0, assets.get("empty").remaining());
+      assertTrue(assets.contains("empty"));
+      assertFalse(assets.contains("b"));
+      assertNull(assets.get("icons"));
+      assertTrue(assets.get("a").isReadOnly());
+    }
+  }
+
+  @Test
+  public void testEmptyEntriesAtTheEnd() throws IOException {
+    Path dir = temporaryDirectories.create("assets");
+    Path pack = dir.resolve("ui.pack");
+    AssetPack.writer(pack).add("a", new byte[] { 1 }).add("z", new byte[0]).write();
+    try (AssetPack assets = AssetPack.open(pack)) {
+      assertEquals(1, assets.get("a").remaining());
+      assertEquals(0, assets.get("z").remaining());
+    }
+
+    Path single = dir.resolve("empty.pack");
+    AssetPack.writer(single).add("empty", new byte[0]).write();
+    try (AssetPack assets = AssetPack.open(single)) {
+      assertEquals(0, assets.get("empty").remaining());
+    }
+  }
+
+  @Test
+  public void testDamagedHeaderIsRejected() throws IOException {
+    Path pack = temporaryDirectories.create("assets").resolve("ui.pack");
+    AssetPack.writer(pack).add("a", new byte[] { 1 }).write();
+
+    overwriteInt(pack, 16, 3);
+    try {
+      AssetPack.open(pack).close();
+      fail("opened with an alignment of 3");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("alignment"));
+    }
+
+    overwriteInt(pack, 16, AssetPack.PAGE_SIZE);
+    // The name length of the first index entry, read as a signed int by lookups.
+    overwriteInt(pack, 64 + 8, -1);
+    try {
+      AssetPack.open(pack).close();
+      fail("opened with a negative name length");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("damaged index entry 0"));
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public final class AtomicFilesTest {
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  private static String read(Path file) throws IOException {
+    return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testWriteReplacesContent() throws IOException {
+    Path file = temporaryDirectories.create("atomic").resolve("settings.json");
+    AtomicFiles.write(file, "{}".getBytes(StandardCharsets.UTF_8));
+    AtomicFiles.write(file, "{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+    assertEquals("{\"a\":1}", read(file));
+    assertEquals(1, Files.list(file.getParent()).count());
+  }
+
+  @Test
+  public void testTransactionPublishesAllFilesOnCommit() throws IOException {
+    Path root = temporaryDirectories.create("atomic");
+    try (AtomicFiles.Transaction tx = AtomicFiles.begin(root)) {
+      tx.write("a.txt", "a".getBytes(StandardCharsets.UTF_8));
+      tx.write("nested/dir/b.txt", "b".getBytes(StandardCharsets.UTF_8));
+      assertFalse(Files.exists(root.resolve("a.txt")));
+      tx.commit();
+    }
+    assertEquals("a", read(root.resolve("a.txt")));
+    assertEquals("b", read(root.resolve("nested/dir/b.txt")));
+    assertEquals(0, Files.list(root.resolve(AtomicFiles.TRANSACTIONS_DIR)).count());
+  }
+
+  @Test
+  public void testClosingWithoutCommitDiscardsTransaction() throws IOException {
+    Path root = temporaryDirectories.create("atomic");
+    try (AtomicFiles.Transaction tx = AtomicFiles.begin(root)) {
+      tx.write("a.txt", "a".getBytes(StandardCharsets.UTF_8));
+    }
+    assertFalse(Files.exists(root.resolve("a.txt")));
+    assertEquals(0, Files.list(root.resolve(AtomicFiles.TRANSACTIONS_DIR)).count());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPathsOutsideRootAreRejected() throws IOException {
+    try (AtomicFiles.Transaction tx = AtomicFiles.begin(temporaryDirectories.create("atomic"))) {
+      tx.write("../escape.txt", new byte[0]);
+    }
+  }
+}
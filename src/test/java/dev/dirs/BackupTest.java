@@ -0,0 +1,121 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public final class BackupTest {
+
+  private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  /** Writes {@code content} to {@code file} with a modification time old enough to be recorded. */
+  private static void write(Path file, String content, long modified) throws IOException {
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(modified));
+  }
+
+  private static Map<String, String> entries(ByteArrayOutputStream archive) throws IOException {
+    Map<String, String> entries = new TreeMap<String, String>();
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+      byte[] buffer = new byte[1024];
+      for (ZipEntry entry; (entry = zip.getNextEntry()) != null; ) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (int n; (n = zip.read(buffer)) > 0; )
+          content.write(buffer, 0, n);
+        entries.put(entry.getName(), new String(content.toByteArray(), StandardCharsets.UTF_8));
+      }
+    }
+    entries.remove(Backup.MANIFEST_ENTRY);
+    return entries;
+  }
+
+  @Test
+  public void testIncrementalBackups() throws IOException {
+    long past = System.currentTimeMillis() - HOUR_MILLIS;
+    Path project = temporaryDirectories.create("project");
+    Path config = project.resolve("config");
+    Path data = project.resolve("data");
+    Path cache = project.resolve("cache");
+    write(config.resolve("settings.json"), "{}", past);
+    write(data.resolve("notes/a.txt"), "a", past);
+    write(data.resolve("notes/b.txt"), "b", past);
+    write(data.resolve("thumbnails/CACHEDIR.TAG"), "Signature: 8a477f597d28d172789f06886806bc55", past);
+    write(data.resolve("thumbnails/1.png"), "png", past);
+    Map<String, Path> roots = new LinkedHashMap<String, Path>();
+    roots.put("config", config);
+    roots.put("data", data);
+    Path manifest = cache.resolve("backup").resolve("manifest");
+
+    ByteArrayOutputStream first = new ByteArrayOutputStream();
+    Backup.Result full = Backup.write(roots, Collections.singleton(cache), manifest, first, true);
+    assertEquals(3, full.filesWritten);
+    Map<String, String> expected = new TreeMap<String, String>();
+    expected.put("config/settings.json", "{}");
+    expected.put("data/notes/a.txt", "a");
+    expected.put("data/notes/b.txt", "b");
+    expected.put(Backup.DELETED_ENTRY, "");
+    assertEquals(expected, entries(first));
+
+    write(data.resolve("notes/a.txt"), "A", past + 1000);
+    Files.delete(data.resolve("notes/b.txt"));
+    ByteArrayOutputStream second = new ByteArrayOutputStream();
+    Backup.Result incremental = Backup.write(roots, Collections.singleton(cache), manifest, second, true);
+    assertEquals(1, incremental.filesWritten);
+    assertEquals(1, incremental.filesUnchanged);
+    assertEquals(Arrays.asList("data/notes/b.txt"), incremental.deleted);
+    expected.clear();
+    expected.put("data/notes/a.txt", "A");
+    expected.put(Backup.DELETED_ENTRY, "data/notes/b.txt\n");
+    assertEquals(expected, entries(second));
+
+    // Without a manifest, everything is archived again.
+    Files.delete(manifest);
+    ByteArrayOutputStream third = new ByteArrayOutputStream();
+    Backup.Result afterLoss = Backup.write(roots, Collections.singleton(cache), manifest, third, true);
+    assertEquals(2, afterLoss.filesWritten);
+    assertEquals(0, afterLoss.deleted.size());
+  }
+
+  @Test
+  public void testFileChangedRightAfterBackupIsArchivedAgain() throws IOException {
+    Path project = temporaryDirectories.create("project");
+    Path data = project.resolve("data");
+    Path file = data.resolve("notes.txt");
+    long modified = System.currentTimeMillis();
+    write(file, "old", modified);
+    Map<String, Path> roots = Collections.singletonMap("data", data);
+    Path manifest = project.resolve("cache").resolve("manifest");
+    Backup.write(roots, Collections.<Path>emptySet(), manifest, new ByteArrayOutputStream(), true);
+
+    // Rewritten with the same size within the granularity of the modification time.
+    write(file, "new", modified);
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    Backup.Result result = Backup.write(roots, Collections.<Path>emptySet(), manifest, archive, true);
+    assertEquals(1, result.filesWritten);
+    assertEquals("new", entries(archive).get("data/notes.txt"));
+  }
+}
@@ -0,0 +1,81 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class DirectoryHealthTest {
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  @Test
+  public void testWritableAndMissingDirectories() throws IOException {
+    Path project = temporaryDirectories.create("project");
+    Path cache = Files.createDirectory(project.resolve("cache"));
+    Map<String, String> directories = new LinkedHashMap<String, String>();
+    directories.put("cacheDir", cache.toString());
+    directories.put("dataDir", project.resolve("data").toString());
+    directories.put("runtimeDir", null);
+
+    DirectoryHealth.Report report = DirectoryHealth.check(directories, Duration.ZERO);
+    assertEquals(2, report.entries.size());
+    DirectoryHealth.Entry entry = report.entries.get("cacheDir");
+    assertTrue(entry.exists);
+    assertTrue(entry.writable);
+    assertTrue(entry.usableSpace > 0);
+    assertEquals(PosixFilePermissions.toString(Files.getPosixFilePermissions(cache)), entry.permissions);
+    assertFalse(report.entries.get("dataDir").exists);
+    assertFalse(report.isHealthy());
+    assertEquals(Collections.singletonList("dataDir"), report.problems());
+  }
+
+  @Test
+  public void testReadOnlyDirectory() throws IOException {
+    Path dir = Files.createDirectory(temporaryDirectories.create("project").resolve("config"));
+    Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("r-x------"));
+    try {
+      // Unless running as root, who may write anywhere.
+      if (Files.isWritable(dir))
+        return;
+      DirectoryHealth.Report report = DirectoryHealth.check(Collections.singletonMap("configDir", dir.toString()), Duration.ZERO);
+      DirectoryHealth.Entry entry = report.entries.get("configDir");
+      assertTrue(entry.exists);
+      assertFalse(entry.writable);
+      assertEquals(Collections.singletonList("configDir"), report.problems());
+    } finally {
+      Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwx------"));
+    }
+  }
+
+  @Test
+  public void testProbesAreCachedForMaxAge() throws IOException {
+    Path dir = Files.createDirectory(temporaryDirectories.create("project").resolve("data"));
+    Map<String, String> directories = Collections.singletonMap("dataDir", dir.toString());
+    DirectoryHealth.Entry first = DirectoryHealth.check(directories, Duration.ofHours(1)).entries.get("dataDir");
+    assertTrue(first.isHealthy());
+
+    Files.delete(dir);
+    assertSame(first, DirectoryHealth.check(directories, Duration.ofHours(1)).entries.get("dataDir"));
+    assertFalse(DirectoryHealth.check(directories, Duration.ZERO).entries.get("dataDir").exists);
+    // The new probe replaced the cached one.
+    assertFalse(DirectoryHealth.check(directories, Duration.ofHours(1)).entries.get("dataDir").exists);
+  }
+}
@@ -0,0 +1,76 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public final class DiskUsageTest {
+
+  private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  private static void setModified(long millis, Path... dirs) throws IOException {
+    for (Path dir : dirs)
+      Files.setLastModifiedTime(dir, FileTime.fromMillis(millis));
+  }
+
+  @Test
+  public void testUpdateReusesUnchangedDirectories() throws IOException {
+    long past = System.currentTimeMillis() - HOUR_MILLIS;
+    Path project = temporaryDirectories.create("project");
+    Path cache = Files.createDirectory(project.resolve("cache"));
+    Path data = Files.createDirectory(project.resolve("data"));
+    Path sub = Files.createDirectory(data.resolve("sub"));
+    Files.write(cache.resolve("c"), new byte[10]);
+    Files.write(data.resolve("a"), new byte[100]);
+    Files.write(sub.resolve("b"), new byte[50]);
+    Map<String, Path> roots = new LinkedHashMap<String, Path>();
+    roots.put("cacheDir", cache);
+    roots.put("dataDir", data);
+    Path indexFile = cache.resolve(DiskUsage.INDEX_DIRECTORY).resolve("index");
+
+    DiskUsage.Report first = DiskUsage.update(roots, indexFile, false);
+    assertEquals(10L, (long) first.bytes.get("cacheDir"));
+    assertEquals(150L, (long) first.bytes.get("dataDir"));
+    assertEquals(160, first.totalBytes);
+    assertEquals(3, first.files);
+
+    // Modified too recently to be trusted by the first update.
+    setModified(past, cache, data, sub);
+    assertEquals(3, DiskUsage.update(roots, indexFile, false).listedDirectories);
+    // Writing the index does not change the cache directory.
+    DiskUsage.Report unchanged = DiskUsage.update(roots, indexFile, false);
+    assertEquals(0, unchanged.listedDirectories);
+    assertEquals(3, unchanged.reusedDirectories);
+    assertEquals(160, unchanged.totalBytes);
+
+    Files.delete(data.resolve("a"));
+    Files.write(sub.resolve("d"), new byte[25]);
+    setModified(past + 1000, data, sub);
+    DiskUsage.Report changed = DiskUsage.update(roots, indexFile, false);
+    assertEquals(2, changed.listedDirectories);
+    assertEquals(1, changed.reusedDirectories);
+    assertEquals(75L, (long) changed.bytes.get("dataDir"));
+    assertEquals(3, changed.files);
+
+    // Answered from the persisted index.
+    DiskUsage.Report cached = DiskUsage.cached(roots, indexFile);
+    assertEquals(0, cached.listedDirectories + cached.reusedDirectories);
+    assertEquals(changed.bytes, cached.bytes);
+    assertEquals(85, cached.totalBytes);
+  }
+}
@@ -0,0 +1,66 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class EnsureDirectoriesTest {
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  private static String mode(Path dir) throws IOException {
+    return PosixFilePermissions.toString(Files.getPosixFilePermissions(dir));
+  }
+
+  @Test
+  public void testEnsureCreatesMissingDirectoriesWithMode() throws IOException {
+    Path root = temporaryDirectories.create("ensure");
+    Path dir = EnsureDirectories.ensure(root.resolve("a").resolve("b"), EnsureDirectories.PRIVATE);
+    assertEquals(root.resolve("a").resolve("b"), dir);
+    assertEquals("rwx------", mode(root.resolve("a")));
+    assertEquals("rwx------", mode(dir));
+
+    // Group write permission would be removed by the usual umask of 022.
+    Path shared = EnsureDirectories.ensure(root.resolve("shared"), "rwxrwx---");
+    assertEquals("rwxrwx---", mode(shared));
+  }
+
+  @Test
+  public void testEnsureLeavesExistingDirectoriesAlone() throws IOException {
+    Path root = temporaryDirectories.create("ensure");
+    Path existing = Files.createDirectory(root.resolve("existing"));
+    Files.setPosixFilePermissions(existing, PosixFilePermissions.fromString("rwxr-xr-x"));
+    EnsureDirectories.ensure(existing.resolve("child"), EnsureDirectories.PRIVATE);
+    assertEquals("rwxr-xr-x", mode(existing));
+    assertEquals("rwx------", mode(existing.resolve("child")));
+  }
+
+  @Test
+  public void testDeletedDirectoryIsOnlyCreatedAgainAfterForget() throws IOException {
+    Path root = temporaryDirectories.create("ensure");
+    Path dir = EnsureDirectories.ensure(root.resolve("cache").resolve("index"), EnsureDirectories.PRIVATE);
+    Files.delete(dir);
+
+    // Still remembered as existing, so callers deleting directories must forget them.
+    EnsureDirectories.ensure(dir, EnsureDirectories.PRIVATE);
+    assertFalse(Files.exists(dir));
+
+    // Forgetting a directory also forgets everything below it.
+    EnsureDirectories.forget(root.resolve("cache"));
+    EnsureDirectories.ensure(dir, EnsureDirectories.PRIVATE);
+    assertTrue(Files.isDirectory(dir));
+  }
+}
@@ -0,0 +1,75 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public final class ExecutablesTest {
+
+  private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  // The extension keeps the names valid on Windows, where they are completed with PATHEXT otherwise.
+  private static Path executable(Path dir, String name) throws IOException {
+    Path file = Files.createFile(dir.resolve(name));
+    file.toFile().setExecutable(true);
+    return file;
+  }
+
+  @Test
+  public void testFindAllSearchesDirectoriesInOrder() throws IOException {
+    Path first = temporaryDirectories.create("bin");
+    Path second = temporaryDirectories.create("bin");
+    Path tool = executable(first, "tool.exe");
+    executable(second, "tool.exe");
+    Path helper = executable(second, "helper.exe");
+
+    Map<String, Path> found = Executables.findAll(Arrays.asList(first, second), Arrays.asList("helper.exe", "missing.exe", "tool.exe"));
+    assertEquals(Arrays.asList("helper.exe", "tool.exe"), Arrays.asList(found.keySet().toArray()));
+    assertEquals(helper, found.get("helper.exe"));
+    assertEquals(tool, found.get("tool.exe"));
+  }
+
+  @Test
+  public void testListingIsRefreshedWhenDirectoryChanges() throws IOException {
+    Path first = temporaryDirectories.create("bin");
+    Path second = temporaryDirectories.create("bin");
+    Path tool = executable(first, "tool.exe");
+    executable(second, "tool.exe");
+    // Old enough for the listing to be cached; a recent modification time is never trusted.
+    FileTime past = FileTime.fromMillis(System.currentTimeMillis() - HOUR_MILLIS);
+    Files.setLastModifiedTime(first, past);
+    assertEquals(tool, find(first, second));
+
+    // Unchanged modification time: the cached listing is used, even though it is now out of date.
+    Path other = executable(first, "other.exe");
+    Files.setLastModifiedTime(first, past);
+    assertNull(Executables.findAll(Arrays.asList(first), Collections.singletonList("other.exe")).get("other.exe"));
+
+    // A changed modification time makes the directory be listed again.
+    Files.delete(tool);
+    Files.setLastModifiedTime(first, FileTime.fromMillis(past.toMillis() + 1000));
+    assertEquals(second.resolve("tool.exe"), find(first, second));
+    assertEquals(other, Executables.findAll(Arrays.asList(first), Collections.singletonList("other.exe")).get("other.exe"));
+  }
+
+  private static Path find(Path first, Path second) {
+    return Executables.findAll(Arrays.asList(first, second), Collections.singletonList("tool.exe")).get("tool.exe");
+  }
+}
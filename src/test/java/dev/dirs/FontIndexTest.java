@@ -0,0 +1,55 @@
+package dev.dirs;
+
+import dev.dirs.impl.FontFiles;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public final class FontIndexTest {
+
+  private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  @Test
+  public void testUnchangedDirectoryIsNotParsedAgain() throws IOException {
+    Path fonts = temporaryDirectories.create("fonts");
+    Path dejavu = Files.createDirectory(fonts.resolve("dejavu"));
+    Path font = Files.write(dejavu.resolve("DejaVuSans.ttf"), FontFiles.font("DejaVu Sans", "Book"));
+    Files.write(dejavu.resolve("broken.ttf"), new byte[] { 1, 2, 3 });
+    FileTime past = FileTime.fromMillis(System.currentTimeMillis() - HOUR_MILLIS);
+    Files.setLastModifiedTime(dejavu, past);
+    Files.setLastModifiedTime(fonts, past);
+    Path indexFile = temporaryDirectories.create("cache").resolve("fonts.index");
+
+    FontIndex index = FontIndex.open(indexFile, Collections.singletonList(fonts));
+    assertEquals(font, index.find("dejavu sans", "book").path);
+    assertEquals(1, index.faces().size());
+
+    // Replaced in place, which leaves the directory's modification time unchanged, so the old names remain.
+    Files.write(font, FontFiles.font("DejaVu Serif", "Book"));
+    Files.setLastModifiedTime(dejavu, past);
+    index.refresh();
+    assertEquals(Collections.singleton("DejaVu Sans"), index.families());
+    FontIndex reopened = FontIndex.open(indexFile, Collections.singletonList(fonts));
+    assertEquals(Collections.singleton("DejaVu Sans"), reopened.families());
+
+    Files.setLastModifiedTime(dejavu, FileTime.fromMillis(past.toMillis() + 1000));
+    index.refresh();
+    assertEquals(Collections.singleton("DejaVu Serif"), index.families());
+    assertNull(index.find("DejaVu Sans", "Book"));
+  }
+}
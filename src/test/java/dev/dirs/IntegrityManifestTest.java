@@ -0,0 +1,73 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class IntegrityManifestTest {
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  // Backdated, so that the files are not checksummed again because they were modified during the update.
+  private static Path write(Path file, String content) throws IOException {
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+    return file;
+  }
+
+  @Test
+  public void testVerifySkipsUnchangedFiles() throws IOException {
+    Path dir = temporaryDirectories.create("data");
+    write(dir.resolve("a.txt"), "alpha");
+    write(dir.resolve("sub/b.txt"), "beta");
+    IntegrityManifest manifest = IntegrityManifest.of(dir, dir.resolve(IntegrityManifest.MANIFEST_FILE));
+
+    IntegrityManifest.Report update = manifest.update();
+    assertEquals(Arrays.asList("a.txt", "sub/b.txt"), update.added);
+    assertEquals(2, update.filesChecked);
+
+    IntegrityManifest.Report verify = manifest.verify();
+    assertTrue(verify.isIntact());
+    assertEquals(0, verify.filesChecked);
+    assertEquals(2, verify.filesSkipped);
+  }
+
+  @Test
+  public void testVerifyDetectsChangedAndMissingFiles() throws IOException {
+    Path dir = temporaryDirectories.create("data");
+    Path a = write(dir.resolve("a.txt"), "alpha");
+    Path b = write(dir.resolve("sub/b.txt"), "beta");
+    IntegrityManifest manifest = IntegrityManifest.of(dir, dir.resolve(IntegrityManifest.MANIFEST_FILE));
+    manifest.update();
+
+    // Same size and modification time: only found by a full verification.
+    FileTime modified = Files.getLastModifiedTime(a);
+    Files.write(a, "ALPHA".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(a, modified);
+    Files.delete(b);
+
+    IntegrityManifest.Report quick = manifest.verify();
+    assertEquals(Collections.emptyList(), quick.changed);
+    assertEquals(Collections.singletonList("sub/b.txt"), quick.missing);
+
+    IntegrityManifest.Report full = manifest.verify(true);
+    assertEquals(Collections.singletonList("a.txt"), full.changed);
+    assertEquals(Collections.singletonList("sub/b.txt"), full.missing);
+  }
+}
@@ -0,0 +1,180 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class JournalStoreTest {
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String string(byte[] value) {
+    return value == null ? null : new String(value, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testPutGetRemove() throws IOException {
+    Path dir = temporaryDirectories.create("journal");
+    try (JournalStore store = JournalStore.open(dir)) {
+      store.put("a", bytes("1"));
+      store.put("b", bytes("2"));
+      store.put("a", bytes("3"));
+      store.remove("b");
+      assertEquals("3", string(store.get("a")));
+      assertNull(store.get("b"));
+      assertEquals(1, store.size());
+    }
+  }
+
+  @Test
+  public void testReopenAcrossSegments() throws IOException {
+    Path dir = temporaryDirectories.create("journal");
+    try (JournalStore store = JournalStore.open(dir, 256)) {
+      for (int i = 0; i < 100; i++)
+        store.put("key" + (i % 10), bytes("value" + i));
+      store.remove("key3");
+    }
+    try (JournalStore store = JournalStore.open(dir, 256)) {
+      assertEquals(9, store.size());
+      assertEquals("value99", string(store.get("key9")));
+      assertEquals("value90", string(store.get("key0")));
+      assertNull(store.get("key3"));
+    }
+  }
+
+  @Test
+  public void testCompactionKeepsLatestValues() throws IOException {
+    Path dir = temporaryDirectories.create("journal");
+    try (JournalStore store = JournalStore.open(dir, 256)) {
+      for (int i = 0; i < 200; i++)
+        store.put("key" + (i % 5), bytes("value" + i));
+      store.compact();
+      for (int i = 0; i < 5; i++)
+        assertEquals("value" + (195 + i), string(store.get("key" + i)));
+    }
+    try (JournalStore store = JournalStore.open(dir, 256)) {
+      assertEquals(5, store.size());
+      assertEquals("value199", string(store.get("key4")));
+    }
+  }
+
+  @Test
+  public void testCompactionDeletesEmptiedSegments() throws IOException {
+    Path dir = temporaryDirectories.create("journal");
+    try (JournalStore store = JournalStore.open(dir, 256)) {
+      for (int i = 0; i < 200; i++)
+        store.put("key" + (i % 5), bytes("value" + i));
+      for (int i = 0; i < 5; i++)
+        store.remove("key" + i);
+      store.put("last", bytes("value"));
+      store.compact();
+      assertTrue(segmentCount(dir) <= 2);
+    }
+    try (JournalStore store = JournalStore.open(dir, 256)) {
+      assertEquals(1, store.size());
+      assertEquals("value", string(store.get("last")));
+    }
+  }
+
+  @Test
+  public void testConcurrentWriters() throws Exception {
+    Path dir = temporaryDirectories.create("journal");
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try (final JournalStore store = JournalStore.open(dir, 4096)) {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int t = 0; t < 8; t++) {
+        final int thread = t;
+        futures.add(executor.submit(new Callable<Void>() {
+          public Void call() throws IOException {
+            for (int i = 0; i < 200; i++)
+              store.put("t" + thread + "-" + i, bytes(Integer.toString(i)));
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures)
+        future.get();
+      assertEquals(1600, store.size());
+    } finally {
+      executor.shutdown();
+    }
+    try (JournalStore store = JournalStore.open(dir, 4096)) {
+      assertEquals(1600, store.size());
+      assertTrue(store.containsKey("t7-199"));
+    }
+  }
+
+  @Test
+  public void testCompactionKeepsValuesWhoseSuccessorIsNotDurable() throws IOException {
+    Path dir = temporaryDirectories.create("journal");
+    Path image = temporaryDirectories.create("journal");
+    try (JournalStore store = JournalStore.open(dir, 256)) {
+      store.put("k", bytes("v1"));
+      for (int i = 0; i < 20; i++)
+        store.put("filler" + i, bytes("value" + i));
+      Path active = lastSegment(dir);
+      long durableSize = Files.size(active);
+      long ticket = store.write("k", bytes("v2"));
+      store.compact();
+
+      // Simulates a crash right now: everything the last fsync did not cover is lost.
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.{seg,hint}")) {
+        for (Path file : files)
+          Files.copy(file, image.resolve(file.getFileName()));
+      }
+      if (!store.isDurable(ticket))
+        try (FileChannel channel = FileChannel.open(image.resolve(active.getFileName()), StandardOpenOption.WRITE)) {
+          channel.truncate(durableSize);
+        }
+    }
+    try (JournalStore store = JournalStore.open(image, 256)) {
+      assertEquals("v2", string(store.get("k")));
+      assertEquals(21, store.size());
+    }
+  }
+
+  private static int segmentCount(Path dir) throws IOException {
+    int count = 0;
+    try (DirectoryStream<Path> segments = Files.newDirectoryStream(dir, "*.seg")) {
+      for (Path segment : segments)
+        count++;
+    }
+    return count;
+  }
+
+  private static Path lastSegment(Path dir) throws IOException {
+    Path last = null;
+    try (DirectoryStream<Path> segments = Files.newDirectoryStream(dir, "*.seg")) {
+      for (Path segment : segments)
+        if (last == null || segment.getFileName().toString().compareTo(last.getFileName().toString()) > 0)
+          last = segment;
+    }
+    return last;
+  }
+}
@@ -0,0 +1,137 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class LegacyMigrationTest {
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  private static void write(Path file, String content) throws IOException {
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String read(Path file) throws IOException {
+    return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+  }
+
+  private static LegacyMigration.Result migrate(Path legacy, Map<String, String> mapping)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    return LegacyMigration.start(legacy, mapping).result().get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testMigrateMovesEverythingAndDeletesLegacyDirectory() throws Exception {
+    Path home = temporaryDirectories.create("home");
+    Path legacy = home.resolve(".barapp");
+    write(legacy.resolve("barapp.conf"), "verbose=true");
+    write(legacy.resolve("cache/index"), "index");
+    write(legacy.resolve("notes.txt"), "notes");
+    write(legacy.resolve("themes/dark.css"), "body {}");
+    Path config = home.resolve("config");
+    Path cache = home.resolve("cache");
+    Path data = home.resolve("data");
+    // Merged with the legacy themes.
+    write(data.resolve("themes/light.css"), "body { color: #111 }");
+
+    Map<String, String> mapping = new LinkedHashMap<String, String>();
+    mapping.put("cache", cache.toString());
+    mapping.put("barapp.conf", config.resolve("barapp.conf").toString());
+    mapping.put("", data.toString());
+    LegacyMigration migration = LegacyMigration.start(legacy, mapping);
+    LegacyMigration.Result result = migration.result().get(10, TimeUnit.SECONDS);
+
+    assertEquals(4, result.renamed);
+    assertEquals(0, result.conflicts.size());
+    assertEquals(1, migration.progress(), 0);
+    assertEquals("verbose=true", read(config.resolve("barapp.conf")));
+    assertEquals("index", read(cache.resolve("index")));
+    assertEquals("notes", read(data.resolve("notes.txt")));
+    assertEquals("body {}", read(data.resolve("themes/dark.css")));
+    assertEquals("body { color: #111 }", read(data.resolve("themes/light.css")));
+    assertFalse(Files.exists(legacy));
+  }
+
+  @Test
+  public void testMigrateResumesInterruptedCopy() throws Exception {
+    Path home = temporaryDirectories.create("home");
+    Path legacy = home.resolve(".barapp");
+    Path data = home.resolve("data");
+    write(legacy.resolve("a.txt"), "aaaa");
+    write(legacy.resolve("b.txt"), "bbbb");
+    write(legacy.resolve(LegacyMigration.PROGRESS_FILE), "16\n");
+    // The interrupted run copied a.txt without deleting its source, and was copying b.txt.
+    write(data.resolve("a.txt"), "aaaa");
+    write(data.resolve(".b.txt.migrating"), "bb");
+
+    LegacyMigration.Result result = migrate(legacy, Collections.singletonMap("", data.toString()));
+
+    assertEquals(1, result.renamed);
+    assertEquals(0, result.conflicts.size());
+    assertEquals("aaaa", read(data.resolve("a.txt")));
+    assertEquals("bbbb", read(data.resolve("b.txt")));
+    assertFalse(Files.exists(data.resolve(".b.txt.migrating")));
+    assertFalse(Files.exists(legacy));
+  }
+
+  @Test
+  public void testDifferentContentWithSameSizeAndTimeIsConflict() throws Exception {
+    Path home = temporaryDirectories.create("home");
+    Path legacy = home.resolve(".barapp");
+    Path data = home.resolve("data");
+    write(legacy.resolve("notes.txt"), "mine");
+    write(data.resolve("notes.txt"), "gone");
+    Files.setLastModifiedTime(data.resolve("notes.txt"), Files.getLastModifiedTime(legacy.resolve("notes.txt")));
+
+    LegacyMigration.Result result = migrate(legacy, Collections.singletonMap("", data.toString()));
+
+    assertEquals(Collections.singletonList(legacy.resolve("notes.txt")), result.conflicts);
+    assertEquals("mine", read(legacy.resolve("notes.txt")));
+    assertEquals("gone", read(data.resolve("notes.txt")));
+  }
+
+  @Test
+  public void testLockedMigrationFails() throws Exception {
+    Path home = temporaryDirectories.create("home");
+    Path legacy = home.resolve(".barapp");
+    Path data = home.resolve("data");
+    write(legacy.resolve("notes.txt"), "notes");
+
+    try (FileChannel channel = FileChannel.open(legacy.resolve(LegacyMigration.PROGRESS_FILE),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      channel.lock();
+      try {
+        migrate(legacy, Collections.singletonMap("", data.toString()));
+        fail("migrated a locked directory");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IOException);
+      }
+    }
+    assertEquals("notes", read(legacy.resolve("notes.txt")));
+    assertFalse(Files.exists(data.resolve("notes.txt")));
+  }
+}
@@ -0,0 +1,60 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class LogWriterTest {
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  @Test
+  public void testAppendedLinesReachTheFile() throws IOException {
+    Path dir = temporaryDirectories.create("logs");
+    try (LogWriter log = LogWriter.open(dir, "app", LogWriter.DEFAULT_MAX_BYTES, LogWriter.DEFAULT_MAX_AGE, 3)) {
+      log.append("first");
+      log.append("second");
+    }
+    assertEquals("first\nsecond\n", new String(Files.readAllBytes(dir.resolve("app.log")), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testRotatedFilesOfLogWhoseNameIsAPrefixAreNotTouched() throws Exception {
+    Path dir = temporaryDirectories.create("logs");
+    Files.write(dir.resolve("app.access.log"), "live\n".getBytes(StandardCharsets.UTF_8));
+    Files.createFile(dir.resolve("app.access.20190101-000000.log.gz"));
+    Files.createFile(dir.resolve("app.access.20200101-000000.log"));
+    Files.createFile(dir.resolve("app.20200101-000000.log"));
+    Files.createFile(dir.resolve("app.20200102-000000.log.gz"));
+    Files.createFile(dir.resolve("app.20200103-000000-1.log.gz"));
+
+    try (LogWriter log = LogWriter.open(dir, "app", LogWriter.DEFAULT_MAX_BYTES, Duration.ofDays(1), 2)) {
+      log.append("started");
+      // Leftovers are compressed and pruned in the background.
+      long deadline = System.currentTimeMillis() + 10000;
+      while ((Files.exists(dir.resolve("app.20200101-000000.log")) || Files.exists(dir.resolve("app.20200101-000000.log.gz")))
+          && System.currentTimeMillis() < deadline)
+        Thread.sleep(10);
+    }
+    assertFalse(Files.exists(dir.resolve("app.20200101-000000.log.gz")));
+    assertTrue(Files.exists(dir.resolve("app.20200102-000000.log.gz")));
+    assertTrue(Files.exists(dir.resolve("app.20200103-000000-1.log.gz")));
+    assertEquals("live\n", new String(Files.readAllBytes(dir.resolve("app.access.log")), StandardCharsets.UTF_8));
+    assertTrue(Files.exists(dir.resolve("app.access.20190101-000000.log.gz")));
+    assertTrue(Files.exists(dir.resolve("app.access.20200101-000000.log")));
+  }
+}
@@ -0,0 +1,89 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class PreferenceStoreTest {
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  @Test
+  public void testTypedValuesSurviveReopen() throws IOException {
+    Path file = temporaryDirectories.create("prefs").resolve("test.prefs");
+    try (PreferenceStore store = PreferenceStore.open(file)) {
+      store.putBoolean("enabled", true);
+      store.putInt("width", 1280);
+      store.putLong("lastRun", 1234567890123L);
+      store.putDouble("scale", 1.5);
+      store.putString("theme", "dark");
+    }
+    try (PreferenceStore store = PreferenceStore.open(file)) {
+      assertTrue(store.getBoolean("enabled", false));
+      assertEquals(1280, store.getInt("width", 0));
+      assertEquals(1234567890123L, store.getLong("lastRun", 0));
+      assertEquals(1.5, store.getDouble("scale", 0), 0);
+      assertEquals("dark", store.getString("theme", null));
+      assertEquals(5, store.keys().size());
+    }
+  }
+
+  @Test
+  public void testDefaultsForMissingRemovedAndMistypedKeys() throws IOException {
+    Path file = temporaryDirectories.create("prefs").resolve("test.prefs");
+    try (PreferenceStore store = PreferenceStore.open(file)) {
+      store.putInt("width", 1280);
+      assertEquals("none", store.getString("width", "none"));
+      assertEquals(7, store.getInt("height", 7));
+      store.remove("width");
+      assertFalse(store.contains("width"));
+      assertEquals(0, store.getInt("width", 0));
+      store.putInt("width", 640);
+      assertEquals(640, store.getInt("width", 0));
+    }
+  }
+
+  @Test
+  public void testUpdatesAreVisibleToOtherInstances() throws IOException {
+    Path file = temporaryDirectories.create("prefs").resolve("test.prefs");
+    try (PreferenceStore writer = PreferenceStore.open(file);
+         PreferenceStore reader = PreferenceStore.open(file)) {
+      writer.putString("theme", "light");
+      assertEquals("light", reader.getString("theme", null));
+      writer.putString("theme", "dark");
+      assertEquals("dark", reader.getString("theme", null));
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testReadersRecoverFromWriterThatDiedMidUpdate() throws IOException {
+    Path file = temporaryDirectories.create("prefs").resolve("test.prefs");
+    try (PreferenceStore store = PreferenceStore.open(file)) {
+      store.putInt("width", 1280);
+      // A writer that died between its two updates of the sequence counter left it odd.
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, 16);
+        header.order(ByteOrder.nativeOrder());
+        header.putLong(8, header.getLong(8) + 1);
+      }
+      assertEquals(1280, store.getInt("width", 0));
+      store.putInt("width", 640);
+      assertEquals(640, store.getInt("width", 0));
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public final class ProvisionerTest {
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  private static void write(Path file, String content) throws IOException {
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String read(Path file) throws IOException {
+    return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testProvisionUpdatesDefaultsButKeepsModifiedFiles() throws IOException {
+    Path resources = temporaryDirectories.create("resources");
+    write(resources.resolve("defaults/manifest.txt"), "# defaults\nconfig/settings.json\ndata/themes/dark.css\n");
+    write(resources.resolve("defaults/config/settings.json"), "{}");
+    write(resources.resolve("defaults/data/themes/dark.css"), "body {}");
+    Path config = temporaryDirectories.create("config");
+    Path data = temporaryDirectories.create("data");
+
+    try (URLClassLoader loader = new URLClassLoader(new URL[] { resources.toUri().toURL() }, null)) {
+      Provisioner.Result first = Provisioner.provision(config.toString(), data.toString(), loader, "defaults/manifest.txt");
+      assertEquals(Arrays.asList("config/settings.json", "data/themes/dark.css"), first.written);
+      assertEquals("body {}", read(data.resolve("themes/dark.css")));
+
+      write(config.resolve("settings.json"), "{\"user\":true}");
+      write(resources.resolve("defaults/config/settings.json"), "{\"v\":2}");
+      write(resources.resolve("defaults/data/themes/dark.css"), "body { color: #eee }");
+      Provisioner.Result second = Provisioner.provision(config.toString(), data.toString(), loader, "defaults/manifest.txt");
+      assertEquals(Collections.singletonList("data/themes/dark.css"), second.written);
+      assertEquals(Collections.singletonList("config/settings.json"), second.kept);
+      assertEquals("{\"user\":true}", read(config.resolve("settings.json")));
+      assertEquals("body { color: #eee }", read(data.resolve("themes/dark.css")));
+
+      Provisioner.Result third = Provisioner.provision(config.toString(), data.toString(), loader, "defaults/manifest.txt");
+      assertEquals(Collections.singletonList("data/themes/dark.css"), third.unchanged);
+      assertEquals(0, third.written.size());
+    }
+  }
+}
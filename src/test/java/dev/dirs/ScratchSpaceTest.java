@@ -0,0 +1,114 @@
+package dev.dirs;
+
+import dev.dirs.impl.FileUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class ScratchSpaceTest {
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  @Test
+  public void testFirstFittingBaseWinsAndSharedBaseIsOnlyCreatedWhenChosen() throws IOException {
+    Path project = temporaryDirectories.create("project");
+    Path runtime = project.resolve("runtime").resolve("scratch");
+    Path cache = project.resolve("cache").resolve("scratch");
+    Path shared = project.resolve("dirs-user-project");
+
+    try (ScratchSpace scratch = ScratchSpace.allocate(Arrays.asList(runtime, cache), shared, 1024, false)) {
+      assertEquals(runtime, scratch.path().getParent());
+      assertFalse(Files.exists(cache));
+      assertFalse(Files.exists(shared));
+    }
+    try (ScratchSpace scratch = ScratchSpace.allocate(Collections.<Path>emptyList(), shared, 1024, true)) {
+      assertEquals(shared, scratch.path().getParent());
+      assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(shared)));
+    }
+    try {
+      ScratchSpace.allocate(Arrays.asList(runtime, cache), shared, Long.MAX_VALUE, false).close();
+      fail("allocated more space than any file system has");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("no scratch location"));
+    }
+  }
+
+  @Test
+  public void testSharedBaseAccessibleByOthersIsSkipped() throws IOException {
+    Path project = temporaryDirectories.create("project");
+    Path cache = project.resolve("cache").resolve("scratch");
+    Path shared = Files.createDirectory(project.resolve("dirs-user-project"));
+    Files.setPosixFilePermissions(shared, PosixFilePermissions.fromString("rwxrwxrwx"));
+
+    try {
+      ScratchSpace.allocate(Collections.<Path>emptyList(), shared, 1024, false).close();
+      fail("used a shared directory accessible by others");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("no scratch location"));
+    }
+    try (ScratchSpace scratch = ScratchSpace.allocate(Collections.singletonList(cache), shared, 1024, true)) {
+      assertEquals(cache, scratch.path().getParent());
+    }
+  }
+
+  @Test
+  public void testMemoryBackedBaseIsPreferred() throws IOException {
+    Path shm = Paths.get("/dev/shm");
+    // Only where a memory-backed file system is available.
+    if (!Files.isDirectory(shm) || !FileUtil.isMemoryBacked(Files.getFileStore(shm)))
+      return;
+    Path disk = temporaryDirectories.create("project").resolve("scratch");
+    Path memory = temporaryDirectories.create(shm, "project").resolve("scratch");
+
+    try (ScratchSpace scratch = ScratchSpace.allocate(Arrays.asList(disk, memory), null, 1024, false)) {
+      assertEquals(memory, scratch.path().getParent());
+      assertTrue(scratch.isMemoryBacked());
+    }
+  }
+
+  @Test
+  public void testCloseDeletesScratchSpace() throws IOException {
+    Path base = temporaryDirectories.create("project").resolve("scratch");
+    ScratchSpace scratch = ScratchSpace.allocate(Collections.singletonList(base), null, 1024, false);
+    Path path = scratch.path();
+    Files.write(Files.createDirectory(path.resolve("runs")).resolve("0"), new byte[100]);
+    scratch.close();
+    assertFalse(Files.exists(path));
+    scratch.close();
+  }
+
+  @Test
+  public void testAllocateSweepsSpacesOfDeadProcesses() throws IOException, InterruptedException {
+    Path base = temporaryDirectories.create("project").resolve("scratch");
+    Process process = new ProcessBuilder("true").start();
+    process.waitFor();
+    Path dead = Files.createDirectories(base.resolve("scratch-" + process.pid() + "-1"));
+    Files.write(dead.resolve("run"), new byte[10]);
+    Path alive = Files.createDirectories(base.resolve("scratch-" + ProcessHandle.current().pid() + "-2"));
+    Path foreign = Files.createDirectories(base.resolve("scratch-other"));
+
+    try (ScratchSpace scratch = ScratchSpace.allocate(Collections.singletonList(base), null, 1024, false)) {
+      assertFalse(Files.exists(dead));
+      assertTrue(Files.exists(alive));
+      assertTrue(Files.exists(foreign));
+      assertTrue(Files.exists(scratch.path()));
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class SharedCacheTest {
+
+  private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  private static String put(SharedCache cache, String content) throws IOException {
+    return cache.put(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static void age(SharedCache cache, String hash) throws IOException {
+    Files.setLastModifiedTime(cache.get(hash), FileTime.fromMillis(System.currentTimeMillis() - HOUR_MILLIS));
+  }
+
+  @Test
+  public void testIdenticalContentIsStoredOnce() throws IOException {
+    SharedCache cache = SharedCache.of(temporaryDirectories.create("shared"));
+    String hash = put(cache, "runtime");
+    assertEquals(hash, put(cache, "runtime"));
+    cache.name("jre-21", hash);
+    assertEquals(hash, cache.lookup("jre-21"));
+    assertEquals("runtime", new String(Files.readAllBytes(cache.get(hash)), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testGarbageCollectionKeepsLinkedNamedAndReaddedObjects() throws IOException {
+    SharedCache cache = SharedCache.of(temporaryDirectories.create("shared"));
+    Path project = temporaryDirectories.create("project");
+    String unused  = put(cache, "unused");
+    String linked  = put(cache, "linked");
+    String named   = put(cache, "named");
+    String readded = put(cache, "readded");
+    cache.link(linked, project.resolve("linked.bin"));
+    cache.name("current", named);
+    for (String hash : new String[] { unused, linked, named, readded })
+      age(cache, hash);
+
+    // Adding content again must protect it until the caller has had time to link it.
+    assertEquals(readded, put(cache, "readded"));
+
+    assertEquals(Collections.singletonList(unused), cache.collectGarbage());
+    assertNull(cache.get(unused));
+    assertNotNull(cache.get(linked));
+    assertNotNull(cache.get(named));
+    assertNotNull(cache.get(readded));
+    assertTrue(Files.isSameFile(cache.get(linked), project.resolve("linked.bin")));
+  }
+}
@@ -0,0 +1,85 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class SharedCountersTest {
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  @Test
+  public void testConcurrentUsersShareOneSlotPerName() throws Exception {
+    final Path file = temporaryDirectories.create("counters").resolve("metrics.counters");
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int t = 0; t < 8; t++) {
+        futures.add(executor.submit(new Callable<Void>() {
+          public Void call() throws IOException {
+            // Each thread maps the file on its own, as separate processes do.
+            try (SharedCounters counters = SharedCounters.open(file, 64)) {
+              for (int i = 0; i < 1000; i++)
+                counters.counter("counter" + (i % 10)).increment();
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> future : futures)
+        future.get();
+    } finally {
+      executor.shutdown();
+    }
+    try (SharedCounters counters = SharedCounters.open(file, 64)) {
+      Map<String, Long> snapshot = counters.snapshot();
+      assertEquals(10, snapshot.size());
+      for (long value : snapshot.values())
+        assertEquals(800, value);
+    }
+  }
+
+  @Test
+  public void testSlotLeftInClaimingStateIsAbandonedOnce() throws IOException {
+    Path file = temporaryDirectories.create("counters").resolve("metrics.counters");
+    try (SharedCounters counters = SharedCounters.open(file, 8)) {
+      // A process that died while claiming the first slot.
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        MappedByteBuffer slot = channel.map(FileChannel.MapMode.READ_WRITE, 64, 64);
+        slot.order(ByteOrder.nativeOrder());
+        slot.putInt(8, 1);
+      }
+      counters.counter("requests").increment();
+      try (SharedCounters other = SharedCounters.open(file, 8)) {
+        long start = System.nanoTime();
+        other.counter("requests").increment();
+        other.counter("errors").increment();
+        assertTrue(System.nanoTime() - start < 500_000_000L);
+        assertEquals(2, other.counter("requests").get());
+      }
+      assertEquals(Arrays.asList("requests", "errors"), new ArrayList<String>(counters.snapshot().keySet()));
+    }
+  }
+}
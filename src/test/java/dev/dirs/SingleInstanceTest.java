@@ -0,0 +1,45 @@
+package dev.dirs;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class SingleInstanceTest {
+
+  @Test
+  public void testSecondLaunchForwardsArguments() throws Exception {
+    ProjectDirectories projDirs = ProjectDirectories.fromPath("dirs-single-instance-test-" + System.nanoTime());
+    final LinkedBlockingQueue<List<String>> received = new LinkedBlockingQueue<List<String>>();
+    try (SingleInstance instance = SingleInstance.acquire(projDirs, new String[0], received::add)) {
+      assertNotNull(instance);
+      assertNull(SingleInstance.acquire(projDirs, new String[] { "--open", "file.txt" }, received::add));
+      assertEquals(Arrays.asList("--open", "file.txt"), received.poll(5, TimeUnit.SECONDS));
+    }
+    try (SingleInstance instance = SingleInstance.acquire(projDirs, new String[0], received::add)) {
+      assertNotNull(instance);
+    }
+  }
+
+  @Test
+  public void testSilentClientDoesNotBlockLaterLaunches() throws Exception {
+    ProjectDirectories projDirs = ProjectDirectories.fromPath("dirs-single-instance-test-" + System.nanoTime());
+    final LinkedBlockingQueue<List<String>> received = new LinkedBlockingQueue<List<String>>();
+    try (SingleInstance instance = SingleInstance.acquire(projDirs, new String[0], received::add);
+         SocketChannel silent = SocketChannel.open(UnixDomainSocketAddress.of(instance.socket()))) {
+      assertTrue(silent.isConnected());
+      assertNull(SingleInstance.acquire(projDirs, new String[] { "--new-window" }, received::add));
+      assertEquals(Arrays.asList("--new-window"), received.poll(10, TimeUnit.SECONDS));
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public final class StagedFileTest {
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  private static Path publish(Path dir, String fileName, String content) throws IOException {
+    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    // Extended beyond the content, which publishing truncates.
+    try (StagedFile file = StagedFile.create(dir, fileName, bytes.length + 100)) {
+      // Written back to front, as by concurrent downloaders finishing out of order.
+      file.write(ByteBuffer.wrap(bytes, 2, bytes.length - 2), 2);
+      file.write(ByteBuffer.wrap(bytes, 0, 2), 0);
+      Path published = file.publish();
+      assertFalse(Files.exists(file.partFile()));
+      return published;
+    }
+  }
+
+  @Test
+  public void testPublishDoesNotReplaceExistingFiles() throws IOException {
+    Path dir = temporaryDirectories.create("downloads");
+    assertEquals(dir.resolve("report.pdf"), publish(dir, "report.pdf", "first"));
+    assertEquals(dir.resolve("report (1).pdf"), publish(dir, "report.pdf", "second"));
+    assertEquals(dir.resolve("report (2).pdf"), publish(dir, "report.pdf", "third"));
+    // Without an extension, the counter goes at the end.
+    assertEquals(dir.resolve("README"), publish(dir, "README", "old notes"));
+    assertEquals(dir.resolve("README (1)"), publish(dir, "README", "new notes"));
+
+    assertEquals("first", new String(Files.readAllBytes(dir.resolve("report.pdf")), StandardCharsets.UTF_8));
+    assertEquals("second", new String(Files.readAllBytes(dir.resolve("report (1).pdf")), StandardCharsets.UTF_8));
+    assertEquals("third", new String(Files.readAllBytes(dir.resolve("report (2).pdf")), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testClosingUnpublishedFileDeletesIt() throws IOException {
+    Path dir = temporaryDirectories.create("downloads");
+    Path partFile;
+    try (StagedFile file = StagedFile.create(dir, "movie.mkv", 1024)) {
+      partFile = file.partFile();
+      assertEquals(dir.resolve(".movie.mkv.part"), partFile);
+      file.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), 0);
+      // A second download of the same name gets its own part file.
+      try (StagedFile other = StagedFile.create(dir, "movie.mkv", 0)) {
+        assertEquals(dir.resolve(".movie.mkv-1.part"), other.partFile());
+      }
+    }
+    assertFalse(Files.exists(partFile));
+    assertFalse(Files.exists(dir.resolve("movie.mkv")));
+  }
+}
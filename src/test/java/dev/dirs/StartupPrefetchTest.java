@@ -0,0 +1,75 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+
+public final class StartupPrefetchTest {
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  @Test
+  public void testRecordedFilesAreReadOnNextStart() throws IOException, InterruptedException, ExecutionException {
+    Path project = temporaryDirectories.create("project");
+    Path outside = temporaryDirectories.create("outside");
+    Map<String, Path> roots = new LinkedHashMap<String, Path>();
+    roots.put("dataDir", Files.createDirectories(project.resolve("data")));
+    roots.put("cacheDir", Files.createDirectories(project.resolve("data").resolve("cache")));
+    Path listFile = roots.get("cacheDir").resolve("startup.prefetch");
+    Path settings = Files.write(roots.get("dataDir").resolve("settings.json"), "{}".getBytes(StandardCharsets.UTF_8));
+    Path index = Files.write(roots.get("cacheDir").resolve("index"), new byte[1000]);
+    Path gone = Files.write(roots.get("dataDir").resolve("gone"), new byte[10]);
+    Path foreign = Files.write(outside.resolve("foreign"), new byte[10]);
+
+    StartupPrefetch first = StartupPrefetch.start(listFile, roots);
+    assertEquals(0, (int) first.prefetched().get());
+    try (InputStream in = first.newInputStream(settings)) {
+      assertEquals('{', in.read());
+    }
+    first.record(index);
+    first.record(gone);
+    first.record(settings);
+    first.record(foreign);
+    first.finish();
+    first.record(roots.get("dataDir").resolve("late"));
+
+    // The cache file is attributed to the innermost root; files outside the roots and after finish are not recorded.
+    assertEquals("dataDir\0settings.json\0cacheDir\0index\0dataDir\0gone\0",
+        new String(Files.readAllBytes(listFile), StandardCharsets.UTF_8));
+
+    Files.delete(gone);
+    StartupPrefetch second = StartupPrefetch.start(listFile, roots);
+    assertEquals(2, (int) second.prefetched().get());
+  }
+
+  @Test
+  public void testListDoesNotLeadOutsideRoots() throws IOException, InterruptedException, ExecutionException {
+    Path project = temporaryDirectories.create("project");
+    Map<String, Path> roots = new LinkedHashMap<String, Path>();
+    roots.put("dataDir", Files.createDirectories(project.resolve("data")));
+    Files.write(project.resolve("secret"), new byte[10]);
+    Path listFile = project.resolve("startup.prefetch");
+    Files.write(listFile, "dataDir\0../secret\0unknownDir\0file\0".getBytes(StandardCharsets.UTF_8));
+
+    StartupPrefetch prefetch = StartupPrefetch.start(listFile, roots);
+    assertEquals(0, (int) prefetch.prefetched().get());
+    prefetch.finish();
+    // Nothing was recorded, which differs from the damaged list, so the list is replaced.
+    assertEquals(0, Files.readAllBytes(listFile).length);
+  }
+}
@@ -0,0 +1,78 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class StoragePressureMonitorTest {
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  @Test
+  public void testDirectoriesOnSameFileSystemAreReportedOnce() throws IOException, InterruptedException {
+    Path project = temporaryDirectories.create("project");
+    Path cache = Files.createDirectory(project.resolve("cache"));
+    Path data = Files.createDirectory(project.resolve("data"));
+    BlockingQueue<StoragePressureMonitor.Event> events = new LinkedBlockingQueue<StoragePressureMonitor.Event>();
+
+    // Usable space is always below the highest threshold.
+    StoragePressureMonitor.Registration registration = StoragePressureMonitor.register(Arrays.asList(cache, data), events::add, 0, Long.MAX_VALUE);
+    try {
+      StoragePressureMonitor.Event event = events.poll(5, TimeUnit.SECONDS);
+      assertEquals(cache, event.directory);
+      assertEquals(Long.MAX_VALUE, event.threshold);
+      assertNull(events.poll(1, TimeUnit.SECONDS));
+    } finally {
+      registration.close();
+    }
+  }
+
+  @Test
+  public void testRegistrationDuringPollIsCheckedPromptly() throws IOException, InterruptedException {
+    Path project = temporaryDirectories.create("project");
+    Path first = Files.createDirectory(project.resolve("first"));
+    Path second = Files.createDirectory(project.resolve("second"));
+    CountDownLatch polling = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    BlockingQueue<StoragePressureMonitor.Event> events = new LinkedBlockingQueue<StoragePressureMonitor.Event>();
+
+    StoragePressureMonitor.Registration blocking = StoragePressureMonitor.register(Collections.singletonList(first), event -> {
+      polling.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, Long.MAX_VALUE);
+    try {
+      assertTrue(polling.await(5, TimeUnit.SECONDS));
+      // Registered while the poll of the same file system is running, after it has taken its watches.
+      StoragePressureMonitor.Registration registration = StoragePressureMonitor.register(Collections.singletonList(second), events::add, Long.MAX_VALUE);
+      release.countDown();
+      StoragePressureMonitor.Event event = events.poll(2, TimeUnit.SECONDS);
+      registration.close();
+      assertEquals(second, event.directory);
+    } finally {
+      release.countDown();
+      blocking.close();
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package dev.dirs;
+
+import dev.dirs.impl.FileUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Creates temporary directories for a test and deletes them, with everything in them, once it is done. */
+final class TemporaryDirectories {
+
+  private final List<Path> created = new ArrayList<Path>();
+
+  Path create(String prefix) throws IOException {
+    Path dir = Files.createTempDirectory(prefix);
+    created.add(dir);
+    return dir;
+  }
+
+  Path create(Path parent, String prefix) throws IOException {
+    Path dir = Files.createTempDirectory(parent, prefix);
+    created.add(dir);
+    return dir;
+  }
+
+  void deleteAll() throws IOException {
+    for (Path dir : created)
+      FileUtil.deleteRecursively(dir);
+    created.clear();
+  }
+}
@@ -0,0 +1,95 @@
+package dev.dirs;
+
+import dev.dirs.impl.Png;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class ThumbnailCacheTest {
+
+  private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  private static Path image(Path dir, String name, int width, int height) throws IOException {
+    Path file = dir.resolve(name);
+    assertTrue(ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", file.toFile()));
+    return file;
+  }
+
+  @Test
+  public void testThumbnailIsStoredWithMetadata() throws IOException, InterruptedException, ExecutionException {
+    ThumbnailCache cache = ThumbnailCache.of(temporaryDirectories.create("thumbnails"), "test", ThumbnailCache.DEFAULT_MEMORY_BYTES);
+    Path file = image(temporaryDirectories.create("images"), "photo.png", 600, 300);
+
+    BufferedImage thumbnail = cache.get(file, ThumbnailCache.Size.NORMAL).get();
+    assertEquals(128, thumbnail.getWidth());
+    assertEquals(64, thumbnail.getHeight());
+    Map<String, String> text = Png.text(Files.readAllBytes(cache.thumbnailPath(file, ThumbnailCache.Size.NORMAL)));
+    assertEquals(ThumbnailCache.uri(file), text.get("Thumb::URI"));
+    assertEquals(String.valueOf(Files.getLastModifiedTime(file).toMillis() / 1000), text.get("Thumb::MTime"));
+  }
+
+  /** Stores a 7x7 thumbnail of {@code file} recording the modification time {@code mtime}, in seconds. */
+  private static void storeThumbnail(ThumbnailCache cache, Path file, long mtime) throws IOException {
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    assertTrue(ImageIO.write(new BufferedImage(7, 7, BufferedImage.TYPE_INT_ARGB), "png", encoded));
+    Map<String, String> text = new LinkedHashMap<String, String>();
+    text.put("Thumb::URI", ThumbnailCache.uri(file));
+    text.put("Thumb::MTime", String.valueOf(mtime));
+    text.put("Thumb::Size", String.valueOf(Files.size(file)));
+    Path thumbnail = cache.thumbnailPath(file, ThumbnailCache.Size.NORMAL);
+    Files.createDirectories(thumbnail.getParent());
+    Files.write(thumbnail, Png.withText(encoded.toByteArray(), text));
+  }
+
+  @Test
+  public void testStoredThumbnailIsOnlyUsedWhileModificationTimeMatches() throws IOException, InterruptedException, ExecutionException {
+    Path root = temporaryDirectories.create("thumbnails");
+    Path file = image(temporaryDirectories.create("images"), "photo.png", 600, 300);
+    long mtime = Files.getLastModifiedTime(file).toMillis() / 1000;
+
+    // New instances, so that thumbnails are not served from memory.
+    ThumbnailCache cache = ThumbnailCache.of(root, "test", ThumbnailCache.DEFAULT_MEMORY_BYTES);
+    storeThumbnail(cache, file, mtime);
+    assertEquals(7, cache.get(file, ThumbnailCache.Size.NORMAL).get().getWidth());
+
+    cache = ThumbnailCache.of(root, "test", ThumbnailCache.DEFAULT_MEMORY_BYTES);
+    storeThumbnail(cache, file, mtime - 1);
+    assertEquals(128, cache.get(file, ThumbnailCache.Size.NORMAL).get().getWidth());
+    Map<String, String> text = Png.text(Files.readAllBytes(cache.thumbnailPath(file, ThumbnailCache.Size.NORMAL)));
+    assertEquals(String.valueOf(mtime), text.get("Thumb::MTime"));
+  }
+
+  @Test
+  public void testFailureIsRecordedUntilFileChanges() throws IOException, InterruptedException, ExecutionException {
+    Path root = temporaryDirectories.create("thumbnails");
+    Path file = Files.write(temporaryDirectories.create("images").resolve("notes.png"), new byte[] { 'n', 'o', 't' });
+    assertNull(ThumbnailCache.of(root, "test", ThumbnailCache.DEFAULT_MEMORY_BYTES).get(file, ThumbnailCache.Size.NORMAL).get());
+    assertFalse(Files.exists(ThumbnailCache.of(root, "test", 0).thumbnailPath(file, ThumbnailCache.Size.NORMAL)));
+
+    image(file.getParent(), "notes.png", 10, 10);
+    Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + HOUR_MILLIS));
+    assertEquals(10, ThumbnailCache.of(root, "test", 0).get(file, ThumbnailCache.Size.NORMAL).get().getWidth());
+  }
+}
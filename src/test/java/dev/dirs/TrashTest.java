@@ -0,0 +1,132 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class TrashTest {
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  @Test
+  public void testTrashListAndRestore() throws IOException {
+    Trash trash = Trash.of(temporaryDirectories.create("trash"));
+    Path dir = temporaryDirectories.create("files");
+    Path first = Files.write(dir.resolve("notes.txt"), "first".getBytes(StandardCharsets.UTF_8));
+    Path trashed = trash.trash(first);
+    assertFalse(Files.exists(first));
+    Path second = Files.write(dir.resolve("notes.txt"), "second".getBytes(StandardCharsets.UTF_8));
+    Path trashedAgain = trash.trash(second);
+    assertEquals("notes.txt.2", trashedAgain.getFileName().toString());
+
+    List<Trash.Entry> entries = trash.list();
+    assertEquals(2, entries.size());
+    Trash.Entry entry = entries.get(0).file.equals(trashed) ? entries.get(0) : entries.get(1);
+    assertEquals(first, entry.originalPath);
+    assertTrue(entry.deletionDate != null);
+
+    trash.restore(entry);
+    assertEquals("first", new String(Files.readAllBytes(first), StandardCharsets.UTF_8));
+    assertEquals(1, trash.list().size());
+  }
+
+  @Test
+  public void testRestoreDoesNotReplaceNewFile() throws IOException {
+    Trash trash = Trash.of(temporaryDirectories.create("trash"));
+    Path dir = temporaryDirectories.create("files");
+    Path doc = Files.write(dir.resolve("doc.txt"), "old".getBytes(StandardCharsets.UTF_8));
+    Path trashed = trash.trash(doc);
+    Files.write(doc, "new".getBytes(StandardCharsets.UTF_8));
+
+    Trash.Entry entry = trash.list().get(0);
+    try {
+      trash.restore(entry);
+      fail("restored over " + doc);
+    } catch (FileAlreadyExistsException e) {
+      // Expected.
+    }
+    assertEquals("new", new String(Files.readAllBytes(doc), StandardCharsets.UTF_8));
+    assertEquals("old", new String(Files.readAllBytes(trashed), StandardCharsets.UTF_8));
+    assertEquals(1, trash.list().size());
+  }
+
+  @Test
+  public void testTrashDoesNotReplaceOrphanedFile() throws IOException {
+    Path home = temporaryDirectories.create("trash");
+    Trash trash = Trash.of(home);
+    Path orphan = Files.write(Files.createDirectories(home.resolve("files")).resolve("doc.txt"), "orphan".getBytes(StandardCharsets.UTF_8));
+    Path dir = temporaryDirectories.create("files");
+    Path trashed = trash.trash(Files.write(dir.resolve("doc.txt"), "doc".getBytes(StandardCharsets.UTF_8)));
+
+    assertEquals("doc.txt.2", trashed.getFileName().toString());
+    assertEquals("orphan", new String(Files.readAllBytes(orphan), StandardCharsets.UTF_8));
+    assertFalse(Files.exists(home.resolve("info").resolve("doc.txt.trashinfo")));
+    assertEquals(1, trash.list().size());
+  }
+
+  @Test
+  public void testPurgeDeletesOldestEntriesOverBudget() throws IOException, InterruptedException, ExecutionException {
+    Path home = temporaryDirectories.create("trash");
+    Trash trash = Trash.of(home);
+    Path dir = temporaryDirectories.create("files");
+    Path tree = Files.createDirectories(dir.resolve("tree"));
+    Files.write(tree.resolve("a"), new byte[100]);
+    Files.write(tree.resolve("b"), new byte[100]);
+    trash.trash(tree);
+    trash.trash(Files.write(dir.resolve("c"), new byte[50]));
+    // Both were trashed within the same second; the directory is made the older one.
+    Path info = home.resolve("info").resolve("tree.trashinfo");
+    String content = new String(Files.readAllBytes(info), StandardCharsets.UTF_8);
+    Files.write(info, content.replaceAll("DeletionDate=.*", "DeletionDate=2000-01-01T00:00:00").getBytes(StandardCharsets.UTF_8));
+
+    assertEquals(0L, (long) trash.purge(250).get());
+    assertEquals(2, trash.list().size());
+    assertTrue(Files.exists(home.resolve("directorysizes")));
+    assertEquals(200L, (long) trash.purge(100).get());
+    List<Trash.Entry> remaining = trash.list();
+    assertEquals(1, remaining.size());
+    assertEquals(dir.resolve("c"), remaining.get(0).originalPath);
+    assertFalse(Files.exists(home.resolve("files").resolve("tree")));
+  }
+
+  @Test
+  public void testSymlinkedSharedTrashIsNotUsed() throws IOException {
+    Path home = temporaryDirectories.create("trash");
+    Trash trash = Trash.of(home);
+    Path top = temporaryDirectories.create("mount");
+    Path shared = Files.createDirectory(top.resolve(".Trash"));
+    Files.setAttribute(shared, "unix:mode", 01777);
+    Integer uid = (Integer) Files.getAttribute(home, "unix:uid");
+    Path elsewhere = temporaryDirectories.create("elsewhere");
+    Files.createSymbolicLink(shared.resolve(uid.toString()), elsewhere);
+
+    assertEquals(top.resolve(".Trash-" + uid), trash.topTrash(top));
+  }
+
+  @Test
+  public void testEncodeDecode() {
+    String path = "/home/user/Ünïcode dir/100%/a+b";
+    String encoded = Trash.encode(path);
+    assertEquals("/home/user/%C3%9Cn%C3%AFcode%20dir/100%25/a%2Bb", encoded);
+    assertEquals(path, Trash.decode(encoded));
+    assertEquals(Paths.get("/tmp/a b").toString(), Trash.decode("/tmp/a%20b"));
+  }
+}
@@ -0,0 +1,75 @@
+package dev.dirs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class VersionedInstallTest {
+
+  private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+  private final TemporaryDirectories temporaryDirectories = new TemporaryDirectories();
+
+  @After
+  public void deleteTemporaryDirectories() throws IOException {
+    temporaryDirectories.deleteAll();
+  }
+
+  private static Path archive(Path dir, String version) throws IOException {
+    Path archive = dir.resolve("tool-" + version + ".zip");
+    try (OutputStream out = Files.newOutputStream(archive); ZipOutputStream zip = new ZipOutputStream(out)) {
+      zip.putNextEntry(new ZipEntry("bin/tool"));
+      zip.write(("#!/bin/sh\necho " + version + "\n").getBytes(StandardCharsets.UTF_8));
+      zip.closeEntry();
+    }
+    return archive;
+  }
+
+  private static List<String> sorted(List<String> versions) {
+    List<String> sorted = new ArrayList<String>(versions);
+    Collections.sort(sorted);
+    return sorted;
+  }
+
+  @Test
+  public void testLeasedVersionSurvivesGarbageCollection() throws IOException {
+    Path downloads = temporaryDirectories.create("downloads");
+    Path root = temporaryDirectories.create("install");
+    Path bin = temporaryDirectories.create("bin");
+    VersionedInstall tool = VersionedInstall.of(root, bin);
+    for (String version : new String[] { "1.0", "2.0", "3.0" })
+      tool.install(version, archive(downloads, version));
+    tool.activate("3.0");
+    assertEquals("3.0", tool.current());
+    assertTrue(Files.isExecutable(bin.resolve("tool")));
+    assertEquals("#!/bin/sh\necho 3.0\n", new String(Files.readAllBytes(bin.resolve("tool")), StandardCharsets.UTF_8));
+
+    // Old enough to be collected; versions installed just now are kept.
+    for (String version : tool.versions())
+      Files.setLastModifiedTime(root.resolve("versions").resolve(version), FileTime.fromMillis(System.currentTimeMillis() - HOUR_MILLIS));
+
+    // The background collection started by activate may have run already, so the installed versions are checked.
+    try (VersionedInstall.Lease lease = tool.lease("2.0")) {
+      tool.collectGarbage();
+      assertEquals(Arrays.asList("2.0", "3.0"), sorted(tool.versions()));
+      assertEquals("2.0", lease.version);
+    }
+    tool.collectGarbage();
+    assertEquals(Collections.singletonList("3.0"), tool.versions());
+  }
+}
@@ -0,0 +1,63 @@
+package dev.dirs.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** Builds minimal TrueType fonts and collections, with a {@code name} table as their only table. */
+public final class FontFiles {
+
+  private FontFiles() {
+    throw new Error();
+  }
+
+  /** The offset of the {@code name} table in a font built by {@link #font}. */
+  public static final int NAME_TABLE = 28;
+
+  /** Returns a font with the Windows English family name {@code family} and subfamily name {@code style}. */
+  public static byte[] font(String family, String style) {
+    return face(0, nameTable(family, style));
+  }
+
+  /** Returns a collection of fonts, each given by its family and style. */
+  public static byte[] collection(String[]... faces) {
+    byte[][] built = new byte[faces.length][];
+    int size = 12 + 4 * faces.length;
+    ByteBuffer header = ByteBuffer.allocate(size);
+    header.putInt(0x74746366).putInt(0x00010000).putInt(faces.length);
+    for (int i = 0; i < faces.length; i++) {
+      header.putInt(size);
+      built[i] = face(size, nameTable(faces[i][0], faces[i][1]));
+      size += built[i].length;
+    }
+    ByteBuffer collection = ByteBuffer.allocate(size);
+    collection.put(header.array());
+    for (byte[] face : built)
+      collection.put(face);
+    return collection.array();
+  }
+
+  private static byte[] face(int offset, byte[] nameTable) {
+    ByteBuffer face = ByteBuffer.allocate(NAME_TABLE + nameTable.length);
+    face.putInt(0x00010000).putShort((short) 1).putShort((short) 0).putShort((short) 0).putShort((short) 0);
+    face.putInt(0x6E616D65).putInt(0).putInt(offset + NAME_TABLE).putInt(nameTable.length);
+    face.put(nameTable);
+    return face.array();
+  }
+
+  private static byte[] nameTable(String family, String style) {
+    byte[] familyBytes = family.getBytes(StandardCharsets.UTF_16BE);
+    byte[] styleBytes = style.getBytes(StandardCharsets.UTF_16BE);
+    int strings = 6 + 12 * 2;
+    ByteBuffer table = ByteBuffer.allocate(strings + familyBytes.length + styleBytes.length);
+    table.putShort((short) 0).putShort((short) 2).putShort((short) strings);
+    record(table, 1, familyBytes.length, 0);
+    record(table, 2, styleBytes.length, familyBytes.length);
+    table.put(familyBytes).put(styleBytes);
+    return table.array();
+  }
+
+  private static void record(ByteBuffer table, int nameId, int length, int offset) {
+    table.putShort((short) 3).putShort((short) 1).putShort((short) 0x409).putShort((short) nameId)
+         .putShort((short) length).putShort((short) offset);
+  }
+}
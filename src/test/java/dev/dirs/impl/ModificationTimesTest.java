@@ -0,0 +1,24 @@
+package dev.dirs.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class ModificationTimesTest {
+
+  @Test
+  public void testRecentTimesAreNotRecorded() {
+    assertEquals(ModificationTimes.UNKNOWN, ModificationTimes.record(10000, 10000));
+    assertEquals(ModificationTimes.UNKNOWN, ModificationTimes.record(10000, 11999));
+    assertEquals(10000, ModificationTimes.record(10000, 12000));
+  }
+
+  @Test
+  public void testOnlyRecordedTimesAreCurrent() {
+    assertTrue(ModificationTimes.isCurrent(10000, 10000));
+    assertFalse(ModificationTimes.isCurrent(10000, 10001));
+    assertFalse(ModificationTimes.isCurrent(ModificationTimes.UNKNOWN, ModificationTimes.UNKNOWN));
+  }
+}
@@ -0,0 +1,110 @@
+package dev.dirs.impl;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class OpenTypeTest {
+
+  private Path dir;
+
+  @After
+  public void deleteDir() throws IOException {
+    if (dir != null)
+      FileUtil.deleteRecursively(dir);
+  }
+
+  private Path write(byte[] font) throws IOException {
+    if (dir == null)
+      dir = Files.createTempDirectory("fonts");
+    return Files.write(Files.createTempFile(dir, "font", ".ttf"), font);
+  }
+
+  private void assertRejected(byte[] font, String message) throws IOException {
+    try {
+      OpenType.faces(write(font));
+      fail("parsed a damaged font");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(message));
+    }
+  }
+
+  @Test
+  public void testFont() throws IOException {
+    List<String[]> faces = OpenType.faces(write(FontFiles.font("DejaVu Sans", "Bold Oblique")));
+    assertEquals(1, faces.size());
+    assertArrayEquals(new String[] { "DejaVu Sans", "Bold Oblique" }, faces.get(0));
+  }
+
+  @Test
+  public void testCollection() throws IOException {
+    List<String[]> faces = OpenType.faces(write(FontFiles.collection(
+        new String[] { "Noto Sans CJK JP", "Regular" }, new String[] { "Noto Sans CJK KR", "Bold" })));
+    assertEquals(2, faces.size());
+    assertArrayEquals(new String[] { "Noto Sans CJK JP", "Regular" }, faces.get(0));
+    assertArrayEquals(new String[] { "Noto Sans CJK KR", "Bold" }, faces.get(1));
+  }
+
+  @Test
+  public void testTruncatedFontIsRejected() throws IOException {
+    byte[] font = FontFiles.font("DejaVu Sans", "Book");
+    assertRejected(Arrays.copyOf(font, font.length - 4), "end of file");
+    assertRejected(Arrays.copyOf(font, 20), "end of file");
+    assertRejected(Arrays.copyOf(font, 8), "end of file");
+    assertRejected("not a font at all".getBytes(StandardCharsets.US_ASCII), "not a TrueType or OpenType font");
+  }
+
+  @Test
+  public void testOutOfRangeOffsetsAndCountsAreRejected() throws IOException {
+    byte[] font = FontFiles.font("DejaVu Sans", "Book");
+    ByteBuffer buffer = ByteBuffer.wrap(font.clone());
+    buffer.putShort(4, (short) 1025);
+    assertRejected(buffer.array(), "1025 tables");
+
+    buffer = ByteBuffer.wrap(font.clone());
+    buffer.putInt(24, 2 * 1024 * 1024);
+    assertRejected(buffer.array(), "name table of 2097152 bytes");
+
+    buffer = ByteBuffer.wrap(font.clone());
+    buffer.putInt(20, Integer.MAX_VALUE);
+    assertRejected(buffer.array(), "end of file");
+
+    // The family name lies beyond the name table and is skipped.
+    buffer = ByteBuffer.wrap(font.clone());
+    buffer.putShort(FontFiles.NAME_TABLE + 6 + 10, (short) 0xFFFF);
+    assertRejected(buffer.array(), "no family name");
+
+    // A record count beyond the table only reads the records present.
+    buffer = ByteBuffer.wrap(font.clone());
+    buffer.putShort(FontFiles.NAME_TABLE + 2, (short) 0xFFFF);
+    assertArrayEquals(new String[] { "DejaVu Sans", "Book" }, OpenType.faces(write(buffer.array())).get(0));
+  }
+
+  @Test
+  public void testCollectionWithTooManyFacesIsRejected() throws IOException {
+    byte[] collection = FontFiles.collection(new String[] { "DejaVu Sans", "Book" });
+    ByteBuffer buffer = ByteBuffer.wrap(collection.clone());
+    buffer.putInt(8, 1025);
+    assertRejected(buffer.array(), "1025 faces");
+
+    buffer = ByteBuffer.wrap(collection.clone());
+    buffer.putInt(8, 0);
+    assertRejected(buffer.array(), "0 faces");
+
+    buffer = ByteBuffer.wrap(collection.clone());
+    buffer.putInt(12, -1);
+    assertRejected(buffer.array(), "end of file");
+  }
+}
@@ -0,0 +1,57 @@
+package dev.dirs.impl;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public final class OwnedDirectoriesTest {
+
+  private Path parent;
+
+  @After
+  public void deleteParent() throws IOException {
+    if (parent != null)
+      FileUtil.deleteRecursively(parent);
+  }
+
+  @Test
+  public void testEnsurePrivateCreatesDirectoryForOwnerOnly() throws IOException {
+    parent = Files.createTempDirectory("owned");
+    Path dir = OwnedDirectories.ensurePrivate(parent.resolve("dirs-user"));
+    assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(dir)));
+    assertEquals(dir, OwnedDirectories.ensurePrivate(dir));
+  }
+
+  @Test
+  public void testEnsurePrivateRejectsSymbolicLink() throws IOException {
+    parent = Files.createTempDirectory("owned");
+    Path target = Files.createDirectory(parent.resolve("target"), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+    Path link = Files.createSymbolicLink(parent.resolve("dirs-user"), target);
+    try {
+      OwnedDirectories.ensurePrivate(link);
+      fail("accepted a symbolic link");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testEnsurePrivateRejectsDirectoryAccessibleByOthers() throws IOException {
+    parent = Files.createTempDirectory("owned");
+    Path dir = Files.createDirectory(parent.resolve("dirs-user"));
+    Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwxrwxrwx"));
+    try {
+      OwnedDirectories.ensurePrivate(dir);
+      fail("accepted a world-writable directory");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package dev.dirs.impl;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class ParallelFilesTest {
+
+  @Test
+  public void testWalkVisitsAllChildren() throws IOException {
+    Set<String> visited = ConcurrentHashMap.newKeySet();
+    // Each name stands for a directory with two sub-directories, down to a depth of five.
+    ParallelFiles.walk(Arrays.asList("a", "b"), (dir, children) -> {
+      assertTrue(visited.add(dir));
+      if (dir.length() < 5) {
+        children.add(dir + "0");
+        children.add(dir + "1");
+      }
+    });
+    assertEquals(2 * (1 + 2 + 4 + 8 + 16), visited.size());
+  }
+
+  @Test
+  public void testWalkRethrowsVisitorException() {
+    try {
+      ParallelFiles.walk(Collections.singletonList(""), (dir, children) -> {
+        if (dir.length() == 3)
+          throw new IOException("cannot list " + dir);
+        children.add(dir + "x");
+      });
+      fail();
+    } catch (IOException e) {
+      assertEquals("cannot list xxx", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package dev.dirs.impl;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class PngTest {
+
+  private static byte[] png(int width, int height) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertTrue(ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), "png", out));
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testTextRoundTrip() throws IOException {
+    Map<String, String> text = new LinkedHashMap<String, String>();
+    text.put("Thumb::URI", "file:///home/user/caf%C3%A9.jpg");
+    text.put("Thumb::MTime", "1700000000");
+    text.put("Comment", "Latin-1: é");
+    byte[] png = Png.withText(png(3, 2), text);
+
+    assertEquals(text, Png.text(png));
+    // The image itself is unchanged, and still decodes.
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+    assertEquals(3, image.getWidth());
+    assertEquals(2, image.getHeight());
+  }
+
+  @Test
+  public void testTextOfImageWithoutText() throws IOException {
+    assertTrue(Png.text(png(1, 1)).isEmpty());
+    assertNull(Png.text(new byte[] { 'G', 'I', 'F', '8', '9', 'a', 0, 0 }));
+  }
+}